@@ -0,0 +1,215 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.auth;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.stereotype.Component;
+import ru.org.linux.util.DNSBLClient;
+
+import javax.annotation.Nullable;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Проверка адресов по DNSBL без ожидания медленного DNS в потоке запроса.
+ *
+ * Результаты хранятся в памяти: найденные адреса дольше, ненайденные меньше.
+ * Запросы к DNS выполняются в небольшом пуле потоков, одновременные проверки одного
+ * адреса используют один запрос. Поток запроса ждет ответа не дольше {@link #BUDGET_MS};
+ * если ответа нет или пул перегружен, адрес считается ненайденным, а пришедший позже
+ * ответ сохраняется для следующих проверок. Незадолго до истечения срока результат
+ * перепроверяется в фоне, а до получения ответа используется старый; результат с истекшим
+ * сроком не используется, адрес проверяется заново, как отсутствующий в кеше.
+ */
+@Component
+public class DNSBLChecker {
+  private static final Log logger = LogFactory.getLog(DNSBLChecker.class);
+
+  private static final String ZONE = "tor.ahbl.org";
+
+  private static final long POSITIVE_TTL = 60 * 60 * 1000L;
+  static final long NEGATIVE_TTL = 10 * 60 * 1000L;
+
+  /* доля срока, после которой результат перепроверяется заранее */
+  private static final double REFRESH_AHEAD = 0.8;
+
+  /* сколько поток запроса ждет ответа DNS */
+  static final long BUDGET_MS = 1000;
+
+  private static final int CACHE_SIZE = 100000;
+  private static final int THREADS = 4;
+  private static final int QUEUE_SIZE = 100;
+
+  /**
+   * Запрос к DNSBL
+   */
+  interface Lookup {
+    boolean isListed(String addr) throws Exception;
+  }
+
+  private volatile Lookup lookup;
+
+  /* элементы живут не дольше наибольшего срока; срок ненайденных проверяется при чтении */
+  final Cache<String, Entry> cache = CacheBuilder.newBuilder()
+          .maximumSize(CACHE_SIZE)
+          .expireAfterWrite(POSITIVE_TTL, TimeUnit.MILLISECONDS)
+          .build();
+
+  private final ConcurrentMap<String, FutureTask<Boolean>> inFlight = new ConcurrentHashMap<String, FutureTask<Boolean>>();
+
+  private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+          THREADS,
+          THREADS,
+          0L,
+          TimeUnit.MILLISECONDS,
+          new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+          new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread(r, "dnsbl-" + counter.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            }
+          },
+          new ThreadPoolExecutor.AbortPolicy()
+  );
+
+  @PostConstruct
+  public void init() throws Exception {
+    if (lookup == null) {
+      final DNSBLClient client = new DNSBLClient(ZONE);
+
+      lookup = new Lookup() {
+        @Override
+        public boolean isListed(String addr) throws Exception {
+          return client.checkIP(addr);
+        }
+      };
+    }
+  }
+
+  @PreDestroy
+  public void stop() {
+    executor.shutdownNow();
+  }
+
+  /**
+   * Есть ли адрес в списке
+   *
+   * @param addr IP адрес
+   * @return true если адрес найден; false если не найден или ответ не получен вовремя
+   */
+  public boolean isListed(String addr) {
+    Entry entry = cache.getIfPresent(addr);
+
+    if (entry != null) {
+      long age = System.currentTimeMillis() - entry.time;
+      long ttl = entry.listed ? POSITIVE_TTL : NEGATIVE_TTL;
+
+      if (age < ttl) {
+        if (age >= ttl * REFRESH_AHEAD) {
+          refresh(addr);
+        }
+
+        return entry.listed;
+      }
+    }
+
+    Future<Boolean> result = refresh(addr);
+
+    if (result == null) {
+      return false;
+    }
+
+    try {
+      return result.get(BUDGET_MS, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException ex) {
+      logger.debug("DNSBL timeout for " + addr);
+      return false;
+    } catch (ExecutionException ex) {
+      return false;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  /**
+   * Запустить проверку адреса, если она еще не выполняется
+   *
+   * @return результат проверки или null, если пул перегружен
+   */
+  @Nullable
+  private Future<Boolean> refresh(final String addr) {
+    final FutureTask<Boolean> task = new FutureTask<Boolean>(new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        try {
+          boolean listed = lookup.isListed(addr);
+
+          cache.put(addr, new Entry(listed, System.currentTimeMillis()));
+
+          return listed;
+        } catch (Exception ex) {
+          logger.warn("DNSBL check failed for " + addr + ": " + ex.toString());
+          throw ex;
+        }
+      }
+    });
+
+    FutureTask<Boolean> running = inFlight.putIfAbsent(addr, task);
+
+    if (running != null) {
+      return running;
+    }
+
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            task.run();
+          } finally {
+            inFlight.remove(addr, task);
+          }
+        }
+      });
+    } catch (RejectedExecutionException ex) {
+      inFlight.remove(addr, task);
+      logger.debug("DNSBL queue is full, skipping " + addr);
+      return null;
+    }
+
+    return task;
+  }
+
+  static class Entry {
+    private final boolean listed;
+    private final long time;
+
+    Entry(boolean listed, long time) {
+      this.listed = listed;
+      this.time = time;
+    }
+  }
+}
@@ -15,54 +15,222 @@
 
 package ru.org.linux.auth;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 import org.springframework.validation.Errors;
+import ru.org.linux.spring.Configuration;
+import ru.org.linux.user.User;
 
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Защита от флуда: ограничение частоты сообщений с одного IP-адреса и от одного пользователя.
+ *
+ * Для каждого адреса и пользователя хранится token bucket в виде одного числа -
+ * момента, когда ведро снова станет полным (GCRA). У доверенных и остальных пользователей
+ * ведра разные, чтобы сообщение недоверенного пользователя не задерживало доверенного
+ * с того же адреса. Проверка не берет блокировок и выполняется за O(1); полные ведра
+ * удаляются фоновой очисткой.
+ */
 @Component
 public class FloodProtector {
-  private static final int THRESHOLD = 30000;
-  private static final int THRESHOLD_TRUSTED = 3000;
-  
-  private final Map<String,Long> hash = new HashMap<String,Long>();
+  private static final Log logger = LogFactory.getLog(FloodProtector.class);
+
   public static final String MESSAGE = "Следующее сообщение может быть записано не менее чем через 30 секунд после предыдущего";
 
-  private synchronized boolean check(String ip, boolean trusted) {
-    cleanup();
+  private final ConcurrentMap<String, AtomicLong> ipBuckets = new ConcurrentHashMap<String, AtomicLong>();
+  private final ConcurrentMap<String, AtomicLong> trustedIpBuckets = new ConcurrentHashMap<String, AtomicLong>();
+  private final ConcurrentMap<Integer, AtomicLong> userBuckets = new ConcurrentHashMap<Integer, AtomicLong>();
+  private final ConcurrentMap<Integer, AtomicLong> trustedUserBuckets = new ConcurrentHashMap<Integer, AtomicLong>();
+
+  private final AtomicBoolean cleanupRunning = new AtomicBoolean(false);
+
+  private final AtomicLong ipRejected = new AtomicLong();
+  private final AtomicLong userRejected = new AtomicLong();
+  private final AtomicLong overflowRejected = new AtomicLong();
+
+  @Autowired
+  private Configuration configuration;
+
+  /**
+   * Найти или создать ведро
+   *
+   * @return ведро или null, если не хватает места для нового ведра
+   */
+  private <K> AtomicLong getBucket(ConcurrentMap<K, AtomicLong> buckets, K key, long now) {
+    AtomicLong full = buckets.get(key);
+
+    if (full != null) {
+      return full;
+    }
+
+    if (buckets.size() >= configuration.getFloodMaxEntries()) {
+      cleanup();
+
+      if (buckets.size() >= configuration.getFloodMaxEntries()) {
+        return null;
+      }
+    }
+
+    AtomicLong created = new AtomicLong(now);
+    full = buckets.putIfAbsent(key, created);
 
-    long current = System.currentTimeMillis();
+    return full != null ? full : created;
+  }
+
+  private static boolean isAvailable(AtomicLong full, long interval, int burst, long now) {
+    return Math.max(full.get(), now) - now <= (burst - 1) * interval;
+  }
+
+  /**
+   * Взять токен из ведра
+   *
+   * @return false если ведро пусто
+   */
+  private static boolean acquire(AtomicLong full, long interval, int burst, long now) {
+    long capacity = (burst - 1) * interval;
 
-    if (hash.containsKey(ip)) {
-      long date = hash.get(ip);
+    while (true) {
+      long current = full.get();
+      long base = Math.max(current, now);
 
-      if ((current-date)<(trusted?THRESHOLD_TRUSTED:THRESHOLD)) {
+      if (base - now > capacity) {
         return false;
       }
+
+      if (full.compareAndSet(current, base + interval)) {
+        return true;
+      }
     }
+  }
 
-    hash.put(ip, current);
+  private boolean check(String ip, User user, boolean trusted) {
+    long now = System.currentTimeMillis();
+
+    long ipInterval = trusted ? configuration.getFloodTrustedInterval() : configuration.getFloodIpInterval();
+    long userInterval = trusted ? configuration.getFloodTrustedInterval() : configuration.getFloodUserInterval();
+
+    AtomicLong ipBucket = getBucket(trusted ? trustedIpBuckets : ipBuckets, ip, now);
+    AtomicLong userBucket = null;
+
+    if (ipBucket != null && user != null && !user.isAnonymous()) {
+      userBucket = getBucket(trusted ? trustedUserBuckets : userBuckets, user.getId(), now);
+
+      if (userBucket == null) {
+        ipBucket = null;
+      }
+    }
+
+    if (ipBucket == null) {
+      overflowRejected.incrementAndGet();
+      return false;
+    }
+
+    /* токен берется только если его можно взять из обоих ведер */
+    if (!isAvailable(ipBucket, ipInterval, configuration.getFloodIpBurst(), now)) {
+      ipRejected.incrementAndGet();
+      return false;
+    }
+
+    if (userBucket != null && !isAvailable(userBucket, userInterval, configuration.getFloodUserBurst(), now)) {
+      userRejected.incrementAndGet();
+      return false;
+    }
+
+    if (!acquire(ipBucket, ipInterval, configuration.getFloodIpBurst(), now)) {
+      ipRejected.incrementAndGet();
+      return false;
+    }
+
+    if (userBucket != null && !acquire(userBucket, userInterval, configuration.getFloodUserBurst(), now)) {
+      /* ведро пользователя опустело параллельно; возвращаем токен адреса */
+      ipBucket.addAndGet(-ipInterval);
+      userRejected.incrementAndGet();
+      return false;
+    }
 
     return true;
   }
 
-  public void checkDuplication(String ip,boolean trusted, Errors errors) {
-    if (!check(ip,trusted)) {
+  public void checkDuplication(String ip, boolean trusted, Errors errors) {
+    checkDuplication(ip, null, trusted, errors);
+  }
+
+  public void checkDuplication(String ip, User user, boolean trusted, Errors errors) {
+    if (!check(ip, user, trusted)) {
       errors.reject(null, MESSAGE);
     }
   }
 
-  private synchronized void cleanup() {
-    long current = System.currentTimeMillis();
+  /**
+   * Удаление полных ведер, т.е. адресов и пользователей, которые давно ничего не писали.
+   * Одновременно работает только одна очистка, проверки она не блокирует.
+   */
+  @Scheduled(fixedDelay = 60 * 1000)
+  public void cleanup() {
+    if (!cleanupRunning.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      long now = System.currentTimeMillis();
 
-    for (Iterator<Long> i = hash.values().iterator(); i.hasNext(); ) {
-      long date = i.next();
+      int removed = cleanup(ipBuckets, now) + cleanup(trustedIpBuckets, now) +
+              cleanup(userBuckets, now) + cleanup(trustedUserBuckets, now);
 
-      if ((current-date)>THRESHOLD) {
+      if (removed > 0) {
+        logger.debug("Flood protector: removed " + removed + " entries, " + getSize() + " left");
+      }
+    } finally {
+      cleanupRunning.set(false);
+    }
+  }
+
+  private static <K> int cleanup(ConcurrentMap<K, AtomicLong> buckets, long now) {
+    int removed = 0;
+
+    for (Iterator<AtomicLong> i = buckets.values().iterator(); i.hasNext(); ) {
+      if (i.next().get() <= now) {
         i.remove();
+        removed++;
       }
     }
+
+    return removed;
+  }
+
+  /**
+   * @return количество отслеживаемых IP-адресов и пользователей
+   */
+  public int getSize() {
+    return ipBuckets.size() + trustedIpBuckets.size() + userBuckets.size() + trustedUserBuckets.size();
+  }
+
+  /**
+   * @return количество сообщений, отклоненных по IP-адресу
+   */
+  public long getIpRejected() {
+    return ipRejected.get();
+  }
+
+  /**
+   * @return количество сообщений, отклоненных по пользователю
+   */
+  public long getUserRejected() {
+    return userRejected.get();
+  }
+
+  /**
+   * @return количество сообщений, отклоненных из-за переполнения таблицы
+   */
+  public long getOverflowRejected() {
+    return overflowRejected.get();
   }
-}
\ No newline at end of file
+}
@@ -15,19 +15,19 @@
 
 package ru.org.linux.auth;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Repository;
 import org.springframework.validation.Errors;
-import org.xbill.DNS.TextParseException;
 import ru.org.linux.user.User;
-import ru.org.linux.util.DNSBLClient;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.sql.DataSource;
-import java.net.UnknownHostException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
@@ -35,22 +35,83 @@ import java.util.List;
 
 @Repository
 public class IPBlockDao {
+  private static final Log logger = LogFactory.getLog(IPBlockDao.class);
+
+  private static final String queryBlocks =
+          "SELECT ip, reason, ban_date, date, mod_id, allow_posting, captcha_required FROM b_ips";
+
   private JdbcTemplate jdbcTemplate;
 
+  /* все блокировки; null - еще не загружены */
+  private volatile IPBlockTable table = null;
+
+  @Autowired
+  private DNSBLChecker dnsblChecker;
+
   @Autowired
   public void setDataSource(DataSource ds) {
     jdbcTemplate = new JdbcTemplate(ds);
   }
 
+  /**
+   * Блокировка адреса: самый узкий заблокированный диапазон, содержащий адрес.
+   * Читается из таблицы в памяти.
+   *
+   * @param addr адрес
+   * @return блокировка; если адрес не заблокирован - неинициализированная
+   */
   public IPBlockInfo getBlockInfo(String addr) {
+    IPBlockTable current = table;
+
+    if (current == null) {
+      reload();
+      current = table;
+    }
+
+    IPBlockInfo info = current.lookup(addr);
+
+    if (info == null) {
+      return new IPBlockInfo(addr);
+    } else {
+      return info.forAddress(addr);
+    }
+  }
+
+  /**
+   * Перечитать все блокировки из БД; изменения, сделанные на других узлах
+   * или прямо в БД, видны после очередного перечитывания
+   */
+  @Scheduled(fixedDelay = 60 * 1000)
+  public synchronized void reload() {
+    List<IPBlockInfo> list = jdbcTemplate.query(queryBlocks, IPBlockInfoRowMapper.INSTANCE);
+
+    IPBlockTable loaded = IPBlockTable.EMPTY;
+
+    for (IPBlockInfo info : list) {
+      loaded = addToTable(loaded, info);
+    }
+
+    table = loaded;
+
+    logger.debug("Loaded " + list.size() + " IP blocks");
+  }
+
+  private static IPBlockTable addToTable(IPBlockTable table, IPBlockInfo info) {
+    try {
+      return table.with(info.getIp(), info);
+    } catch (IllegalArgumentException ex) {
+      logger.warn("Bad IP block: " + info.getIp());
+      return table;
+    }
+  }
+
+  /**
+   * Блокировка, записанная в БД именно для этого адреса или диапазона
+   */
+  private IPBlockInfo getExactBlockInfo(String addr) {
     List<IPBlockInfo> list = jdbcTemplate.query(
-            "SELECT ip, reason, ban_date, date, mod_id, allow_posting, captcha_required FROM b_ips WHERE ip = ?::inet",
-            new RowMapper<IPBlockInfo>() {
-              @Override
-              public IPBlockInfo mapRow(ResultSet rs, int rowNum) throws SQLException {
-                return new IPBlockInfo(rs);
-              }
-            },
+            queryBlocks + " WHERE ip = ?::inet",
+            IPBlockInfoRowMapper.INSTANCE,
             addr
     );
 
@@ -61,18 +122,15 @@ public class IPBlockDao {
     }
   }
 
-  public static boolean getTor(String addr) throws TextParseException, UnknownHostException {
-    DNSBLClient dnsbl = new DNSBLClient("tor.ahbl.org");
-    return (dnsbl.checkIP(addr));
+  public boolean getTor(String addr) {
+    return dnsblChecker.isListed(addr);
   }
 
-  public void checkBlockIP(@Nonnull String addr, @Nonnull Errors errors, @Nullable User user)
-          throws UnknownHostException, TextParseException {
+  public void checkBlockIP(@Nonnull String addr, @Nonnull Errors errors, @Nullable User user) {
     checkBlockIP(getBlockInfo(addr), errors, user);
   }
 
-  public static void checkBlockIP(@Nonnull IPBlockInfo block, @Nonnull Errors errors, @Nullable User user)
-    throws UnknownHostException, TextParseException {
+  public void checkBlockIP(@Nonnull IPBlockInfo block, @Nonnull Errors errors, @Nullable User user) {
     if (getTor(block.getIp())) {
       errors.reject(null, "Постинг заблокирован: tor.ahbl.org");
     }
@@ -82,9 +140,9 @@ public class IPBlockDao {
     }
   }
 
-  public void blockIP(String ip, User moderator, String reason, Timestamp ts,
+  public synchronized void blockIP(String ip, User moderator, String reason, Timestamp ts,
                       boolean allow_posting, boolean captcha_required) {
-    IPBlockInfo blockInfo = getBlockInfo(ip);
+    IPBlockInfo blockInfo = getExactBlockInfo(ip);
 
     if (!blockInfo.isInitialized()) {
       jdbcTemplate.update(
@@ -109,5 +167,20 @@ public class IPBlockDao {
               ip
       );
     }
+
+    IPBlockInfo updated = getExactBlockInfo(ip);
+
+    if (table != null && updated.isInitialized()) {
+      table = addToTable(table, updated);
+    }
+  }
+
+  private static class IPBlockInfoRowMapper implements RowMapper<IPBlockInfo> {
+    private static final IPBlockInfoRowMapper INSTANCE = new IPBlockInfoRowMapper();
+
+    @Override
+    public IPBlockInfo mapRow(ResultSet rs, int rowNum) throws SQLException {
+      return new IPBlockInfo(rs);
+    }
   }
 }
@@ -52,6 +52,27 @@ public class IPBlockInfo {
     initialized = true;
   }
 
+  private IPBlockInfo(IPBlockInfo range, String ip) {
+    this.ip = ip;
+    reason = range.reason;
+    banDate = range.banDate;
+    originalDate = range.originalDate;
+    moderator = range.moderator;
+    allowPosting = range.allowPosting;
+    captchaRequired = range.captchaRequired;
+    initialized = range.initialized;
+  }
+
+  /**
+   * Блокировка диапазона применительно к адресу из него
+   *
+   * @param ip адрес
+   * @return блокировка с этим адресом
+   */
+  public IPBlockInfo forAddress(String ip) {
+    return ip.equals(this.ip) ? this : new IPBlockInfo(this, ip);
+  }
+
   public String getIp() {
     return ip;
   }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.auth;
+
+import com.google.common.net.InetAddresses;
+
+import javax.annotation.Nullable;
+
+/**
+ * Неизменяемая таблица блокировок по адресам и диапазонам (CIDR).
+ *
+ * Двоичное префиксное дерево по битам адреса, отдельно для IPv4 и IPv6. Поиск
+ * возвращает самый длинный диапазон, содержащий адрес. Добавление возвращает новую
+ * таблицу, в которой заново создаются только узлы на пути к добавленному диапазону;
+ * остальные узлы общие со старой таблицей, поэтому читатели работают без блокировок.
+ */
+final class IPBlockTable {
+  static final IPBlockTable EMPTY = new IPBlockTable(null, null);
+
+  private final Node ipv4;
+  private final Node ipv6;
+
+  private IPBlockTable(Node ipv4, Node ipv6) {
+    this.ipv4 = ipv4;
+    this.ipv6 = ipv6;
+  }
+
+  /**
+   * Таблица с добавленной (или замененной) блокировкой
+   *
+   * @param range адрес или диапазон в виде адрес/длина префикса
+   * @param info  блокировка
+   * @return новая таблица
+   * @throws IllegalArgumentException если адрес некорректный
+   */
+  IPBlockTable with(String range, IPBlockInfo info) {
+    int slash = range.indexOf('/');
+
+    byte[] addr = InetAddresses.forString(slash >= 0 ? range.substring(0, slash) : range).getAddress();
+    int bits = addr.length * 8;
+    int prefix = slash >= 0 ? Integer.parseInt(range.substring(slash + 1)) : bits;
+
+    if (prefix < 0 || prefix > bits) {
+      throw new IllegalArgumentException("Bad prefix length: " + range);
+    }
+
+    if (addr.length == 4) {
+      return new IPBlockTable(insert(ipv4, addr, 0, prefix, info), ipv6);
+    } else {
+      return new IPBlockTable(ipv4, insert(ipv6, addr, 0, prefix, info));
+    }
+  }
+
+  /**
+   * Найти блокировку адреса
+   *
+   * @param ip адрес
+   * @return блокировка самого узкого диапазона с этим адресом или null
+   */
+  @Nullable
+  IPBlockInfo lookup(String ip) {
+    byte[] addr;
+
+    try {
+      addr = InetAddresses.forString(ip).getAddress();
+    } catch (IllegalArgumentException ex) {
+      return null;
+    }
+
+    Node node = addr.length == 4 ? ipv4 : ipv6;
+    IPBlockInfo found = null;
+
+    for (int bit = 0; node != null; bit++) {
+      if (node.value != null) {
+        found = node.value;
+      }
+
+      if (bit == addr.length * 8) {
+        break;
+      }
+
+      node = isSet(addr, bit) ? node.one : node.zero;
+    }
+
+    return found;
+  }
+
+  private static boolean isSet(byte[] addr, int bit) {
+    return (addr[bit >> 3] & (0x80 >> (bit & 7))) != 0;
+  }
+
+  private static Node insert(@Nullable Node node, byte[] addr, int bit, int prefix, IPBlockInfo info) {
+    Node zero = node != null ? node.zero : null;
+    Node one = node != null ? node.one : null;
+
+    if (bit == prefix) {
+      return new Node(zero, one, info);
+    }
+
+    IPBlockInfo value = node != null ? node.value : null;
+
+    if (isSet(addr, bit)) {
+      return new Node(zero, insert(one, addr, bit + 1, prefix, info), value);
+    } else {
+      return new Node(insert(zero, addr, bit + 1, prefix, info), one, value);
+    }
+  }
+
+  private static final class Node {
+    private final Node zero;
+    private final Node one;
+    private final IPBlockInfo value;
+
+    private Node(Node zero, Node one, IPBlockInfo value) {
+      this.zero = zero;
+      this.one = one;
+      this.value = value;
+    }
+  }
+}
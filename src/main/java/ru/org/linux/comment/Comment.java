@@ -94,6 +94,39 @@ public class Comment implements Serializable {
     this.postIP=postIP;
   }
 
+  /**
+   * Конструктор для восстановления комментария из кеша, см. {@link CommentListCodec}
+   */
+  Comment(
+          int msgid,
+          String title,
+          int userid,
+          int replyto,
+          int topic,
+          boolean deleted,
+          Timestamp postdate,
+          DeleteInfo deleteInfo,
+          String userAgent,
+          String postIP,
+          String editNick,
+          Timestamp editDate,
+          int editCount
+  ) {
+    this.msgid = msgid;
+    this.title = title;
+    this.userid = userid;
+    this.replyto = replyto;
+    this.topic = topic;
+    this.deleted = deleted;
+    this.postdate = postdate;
+    this.deleteInfo = deleteInfo;
+    this.userAgent = userAgent;
+    this.postIP = postIP;
+    this.editNick = editNick;
+    this.editDate = editDate;
+    this.editCount = editCount;
+  }
+
   public int getMessageId() {
     return msgid;
   }
@@ -53,6 +53,22 @@ public interface CommentDao {
     boolean showDeleted
   );
 
+  /**
+   * Комментарии топика, добавленные, изменённые или удалённые после указанного момента.
+   * Используется для инкрементального обновления закешированного списка комментариев.
+   *
+   * @param topicId    id топика
+   * @param lastMsgid  последний известный id комментария
+   * @param since      момент, начиная с которого ищутся изменения
+   * @return список комментариев (вместе с удаленными), упорядоченный по id
+   */
+  List<Comment> getCommentListDelta
+  (
+    int topicId,
+    int lastMsgid,
+    Timestamp since
+  );
+
   /**
    * Удалить комментарий.
    *
@@ -208,6 +224,20 @@ public interface CommentDao {
      int userId
    );
 
+  /**
+   * Позиция неудаленного комментария в топике (количество неудаленных комментариев
+   * с меньшим id), без загрузки всего списка.
+   *
+   * @param topicId id топика
+   * @param msgid   id комментария
+   * @return позиция с 0 или -1 если комментария нет или он удален
+   */
+  int getCommentPosition
+  (
+    int topicId,
+    int msgid
+  );
+
   /**
    * Проверить, имеет ли комментарий ответы.
    *
@@ -15,7 +15,11 @@
 
 package ru.org.linux.comment;
 
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Multimap;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -25,10 +29,12 @@ import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementCallback;
 import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Repository;
 import ru.org.linux.site.MessageNotFoundException;
 import ru.org.linux.spring.dao.DeleteInfoDao;
+import ru.org.linux.topic.TopicFeedVersions;
 import ru.org.linux.user.*;
 import ru.org.linux.util.StringUtil;
 
@@ -79,20 +85,70 @@ class CommentDaoImpl implements CommentDao {
     "LEFT JOIN user_agents ON (user_agents.id=comments.ua_id) " +
     "WHERE topic=?  AND NOT deleted ORDER BY msgid ASC";
 
-  private static final String replysForComment = "SELECT id FROM comments WHERE replyto=? AND NOT deleted FOR UPDATE";
+  /**
+   * Запрос комментариев топика, изменившихся после указанного момента:
+   * новых, отредактированных и удаленных
+   */
+  private static final String queryCommentListDelta = "SELECT " +
+    "comments.title, topic, postdate, userid, comments.id as msgid, " +
+    "replyto, edit_count, edit_date, editors.nick as edit_nick, deleted, " +
+    "user_agents.name AS useragent, comments.postip " +
+    "FROM comments " +
+    "LEFT JOIN users as editors ON comments.editor_id=editors.id " +
+    "LEFT JOIN user_agents ON (user_agents.id=comments.ua_id) " +
+    "WHERE topic=? AND (comments.id>? OR postdate>=? OR edit_date>=? OR " +
+    "(deleted AND EXISTS (SELECT 1 FROM del_info WHERE del_info.msgid=comments.id AND deldate>=?))) " +
+    "ORDER BY msgid ASC";
+
+  private static final String replysTree = "WITH RECURSIVE r(id, depth) AS (" +
+    "SELECT id, 0 FROM comments WHERE replyto IN (:list) AND NOT deleted " +
+    "UNION ALL " +
+    "SELECT comments.id, r.depth+1 FROM comments JOIN r ON comments.replyto=r.id WHERE NOT comments.deleted" +
+    ") SELECT id, depth FROM r";
   private static final String replysForCommentCount = "SELECT count(id) FROM comments WHERE replyto=? AND NOT deleted";
   private static final String deleteComment = "UPDATE comments SET deleted='t' WHERE id=? AND not deleted";
   private static final String updateScore = "UPDATE users SET score=score+? WHERE id=(SELECT userid FROM comments WHERE id=?)";
+  private static final String deleteCommentList = "UPDATE comments SET deleted='t' WHERE id IN (:list) AND NOT deleted RETURNING id, topic, userid";
+  private static final String updateUserScore = "UPDATE users SET score=score+? WHERE id=?";
+  private static final String updateTopicStat = "UPDATE topics SET stat1=stat1-?, " +
+    "stat2=LEAST(stat2, stat1-?), stat3=LEAST(stat3, stat1-?), stat4=LEAST(stat4, stat1-?), " +
+    "lastmod=CURRENT_TIMESTAMP WHERE id=?";
+  private static final String updateGroupStat = "UPDATE groups SET stat1=stat1-? WHERE id=?";
+
+  /* последний комментарий топика для трекера; id комментариев возрастают вместе с postdate.
+     После удаления запись пересчитывается, только если удален именно записанный комментарий */
+  private static final String updateLastComment = "UPDATE topic_last_comment SET comment_id=?, userid=?, postdate=CURRENT_TIMESTAMP " +
+    "WHERE topic=? AND (comment_id IS NULL OR comment_id<?)";
+  private static final String insertLastComment = "INSERT INTO topic_last_comment (topic, comment_id, userid, postdate) " +
+    "SELECT ?, ?, ?, CURRENT_TIMESTAMP WHERE NOT EXISTS (SELECT topic FROM topic_last_comment WHERE topic=?)";
+  private static final String refreshLastComment = "UPDATE topic_last_comment SET comment_id=c.id, userid=c.userid, postdate=c.postdate " +
+    "FROM topic_last_comment AS old LEFT JOIN (" +
+    "SELECT DISTINCT ON (topic) topic, id, userid, postdate FROM comments " +
+    "WHERE topic IN (:list) AND NOT deleted ORDER BY topic, postdate DESC, id DESC" +
+    ") AS c ON c.topic=old.topic " +
+    "WHERE topic_last_comment.topic=old.topic AND old.topic IN (:list) " +
+    "AND EXISTS (SELECT id FROM comments WHERE comments.id=old.comment_id AND comments.deleted)";
+
+  /* размер пачки для запросов со списком id */
+  private static final int BATCH_SIZE = 1000;
+
+  private static final DeleteReason REPLY = new DeleteReason("7.1 Ответ на некорректное сообщение (авто)", 0);
+  private static final DeleteReason REPLY_LEVEL_0 = new DeleteReason("7.1 Ответ на некорректное сообщение (авто, уровень 0)", -2);
+  private static final DeleteReason REPLY_LEVEL_1 = new DeleteReason("7.1 Ответ на некорректное сообщение (авто, уровень 1)", -1);
+  private static final DeleteReason REPLY_LEVEL_DEEP = new DeleteReason("7.1 Ответ на некорректное сообщение (авто, уровень >1)", 0);
 
   private JdbcTemplate jdbcTemplate;
+  private NamedParameterJdbcTemplate namedJdbcTemplate;
   private UserDao userDao;
   private DeleteInfoDao deleteInfoDao;
+  private TopicFeedVersions topicFeedVersions;
 
   private SimpleJdbcInsert insertMsgbase;
 
   @Autowired
   public void setDataSource(DataSource dataSource) {
     jdbcTemplate = new JdbcTemplate(dataSource);
+    namedJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
 
     insertMsgbase = new SimpleJdbcInsert(dataSource);
     insertMsgbase.setTableName("msgbase");
@@ -109,6 +165,11 @@ class CommentDaoImpl implements CommentDao {
     this.deleteInfoDao = deleteInfoDao;
   }
 
+  @Autowired
+  public void setTopicFeedVersions(TopicFeedVersions topicFeedVersions) {
+    this.topicFeedVersions = topicFeedVersions;
+  }
+
   @Override
   public Comment getById(int id) throws MessageNotFoundException {
     Comment comment;
@@ -148,27 +209,14 @@ class CommentDaoImpl implements CommentDao {
     return comments;
   }
 
-  /**
-   * Удалить комментарий, не начиная транзакции. Обновить статистику, если было осуществлено удаление.
-   *
-   * @param msgid   идентификационнай номер комментария
-   * @param reason  причина удаления
-   * @param user    пользователь, удаляющий комментарий
-   * @return true если комментарий был удалён, иначе false
-   * @throws SQLException
-   */
-  private boolean deleteCommentWithoutTransaction(int msgid, String reason, User user) throws SQLException {
-    if (getReplaysCount(msgid) != 0) {
-      throw new SQLException("Нельзя удалить комментарий с ответами");
-    }
-
-    boolean deleted = deleteComment(msgid, reason, user, 0);
-
-    if (deleted) {
-      updateStatsAfterDelete(msgid, 1);
-    }
-
-    return deleted;
+  @Override
+  public List<Comment> getCommentListDelta(int topicId, int lastMsgid, Timestamp since) {
+    return jdbcTemplate.query(queryCommentListDelta, new RowMapper<Comment>() {
+      @Override
+      public Comment mapRow(ResultSet resultSet, int i) throws SQLException {
+        return new Comment(resultSet, deleteInfoDao);
+      }
+    }, topicId, lastMsgid, since, since, since);
   }
 
   @Override
@@ -198,79 +246,225 @@ class CommentDaoImpl implements CommentDao {
   public void updateStatsAfterDelete(int commentId, int count) {
     int topicId = jdbcTemplate.queryForInt("SELECT topic FROM comments WHERE id=?", commentId);
 
-    jdbcTemplate.update("UPDATE topics SET stat1=stat1-?, lastmod=CURRENT_TIMESTAMP WHERE id = ?", count, topicId);
-    jdbcTemplate.update("UPDATE topics SET stat2=stat1 WHERE id=? AND stat2 > stat1", topicId);
-    jdbcTemplate.update("UPDATE topics SET stat3=stat1 WHERE id=? AND stat3 > stat1", topicId);
-    jdbcTemplate.update("UPDATE topics SET stat4=stat1 WHERE id=? AND stat4 > stat1", topicId);
+    updateStatsAfterDelete(ImmutableMap.of(topicId, count));
+  }
+
+  /**
+   * Обновить статистику топиков и групп после удаления комментариев.
+   * Топики обновляются в порядке id, чтобы параллельные удаления не блокировали друг друга.
+   *
+   * @param countByTopic количество удаленных комментариев по id топика
+   */
+  private void updateStatsAfterDelete(final Map<Integer, Integer> countByTopic) {
+    if (countByTopic.isEmpty()) {
+      return;
+    }
+
+    List<Object[]> topicBatch = new ArrayList<Object[]>(countByTopic.size());
+
+    for (Map.Entry<Integer, Integer> entry : new TreeMap<Integer, Integer>(countByTopic).entrySet()) {
+      int count = entry.getValue();
+      topicBatch.add(new Object[] { count, count, count, count, entry.getKey() });
+    }
+
+    jdbcTemplate.batchUpdate(updateTopicStat, topicBatch);
+
+    namedJdbcTemplate.update(refreshLastComment, ImmutableMap.of("list", countByTopic.keySet()));
 
-    int groupId = jdbcTemplate.queryForInt("SELECT groupid FROM topics WHERE id = ?", topicId);
-    jdbcTemplate.update("UPDATE groups SET stat1=stat1-? WHERE id = ?", count, groupId);
+    final Map<Integer, Integer> countByGroup = new TreeMap<Integer, Integer>();
+
+    namedJdbcTemplate.query(
+            "SELECT id, groupid FROM topics WHERE id IN (:list)",
+            ImmutableMap.of("list", countByTopic.keySet()),
+            new RowCallbackHandler() {
+              @Override
+              public void processRow(ResultSet rs) throws SQLException {
+                int groupId = rs.getInt("groupid");
+                Integer current = countByGroup.get(groupId);
+                int count = countByTopic.get(rs.getInt("id"));
+
+                countByGroup.put(groupId, current == null ? count : current + count);
+              }
+            }
+    );
+
+    List<Object[]> groupBatch = new ArrayList<Object[]>(countByGroup.size());
+
+    for (Map.Entry<Integer, Integer> entry : countByGroup.entrySet()) {
+      groupBatch.add(new Object[] { entry.getValue(), entry.getKey() });
+    }
+
+    jdbcTemplate.batchUpdate(updateGroupStat, groupBatch);
   }
 
   @Override
   public List<Integer> doDeleteReplys(int msgid, User user, boolean score) {
-    List<Integer> deleted = deleteReplys(msgid, user, score, 0);
+    Map<Integer, Integer> replys = getReplysTree(ImmutableList.of(msgid));
+
+    Map<Integer, DeleteReason> reasons = new LinkedHashMap<Integer, DeleteReason>(replys.size());
 
-    if (!deleted.isEmpty()) {
-      updateStatsAfterDelete(msgid, deleted.size());
+    for (Map.Entry<Integer, Integer> entry : replys.entrySet()) {
+      reasons.put(entry.getKey(), replyDeleteReason(entry.getValue(), score));
     }
 
-    return deleted;
+    return deleteComments(reasons, user);
   }
 
   /**
-   * Помощник по рекурсивному удалению комментариев
+   * Причина удаления ответа на удаляемый комментарий
    *
-   * @param msgid  идентификационнай номер комментария
-   * @param user   пользователь, удаляющий комментарий
-   * @param score  снимать ли скор у автора комментария
-   * @param depth  текущий уровень ответов
-   * @return список идентификационных номеров удалённых комментариев
+   * @param depth уровень ответа, 0 - прямой ответ
+   * @param score снимать ли скор у автора комментария
    */
-  private List<Integer> deleteReplys(int msgid, User user, boolean score, int depth) {
-    List<Integer> replys = getReplysForUpdate(msgid);
-    List<Integer> deleted = new LinkedList<Integer>();
-    for (Integer r : replys) {
-      deleted.addAll(deleteReplys(r, user, score, depth + 1));
-
-      boolean del;
-
-      switch (depth) {
-        case 0:
-          if (score) {
-            del = deleteComment(r, "7.1 Ответ на некорректное сообщение (авто, уровень 0)", user, -2);
-          } else {
-            del = deleteComment(r, "7.1 Ответ на некорректное сообщение (авто)", user, 0);
-          }
-          break;
-        case 1:
-          if (score) {
-            del = deleteComment(r, "7.1 Ответ на некорректное сообщение (авто, уровень 1)", user, -1);
-          } else {
-            del = deleteComment(r, "7.1 Ответ на некорректное сообщение (авто)", user, 0);
-          }
-          break;
-        default:
-          del = deleteComment(r, "7.1 Ответ на некорректное сообщение (авто, уровень >1)", user, 0);
-          break;
-      }
+  private static DeleteReason replyDeleteReason(int depth, boolean score) {
+    switch (depth) {
+      case 0:
+        return score ? REPLY_LEVEL_0 : REPLY;
+      case 1:
+        return score ? REPLY_LEVEL_1 : REPLY;
+      default:
+        return REPLY_LEVEL_DEEP;
+    }
+  }
+
+  /**
+   * Все неудаленные ответы на комментарии, включая ответы на ответы.
+   *
+   * @param roots id комментариев
+   * @return уровень ответа (0 - прямой ответ) по id ответа, самые глубокие ответы первыми
+   */
+  private Map<Integer, Integer> getReplysTree(Collection<Integer> roots) {
+    final Map<Integer, Integer> depths = new HashMap<Integer, Integer>();
+
+    for (List<Integer> chunk : Iterables.partition(roots, BATCH_SIZE)) {
+      namedJdbcTemplate.query(
+              replysTree,
+              ImmutableMap.of("list", chunk),
+              new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                  int id = rs.getInt("id");
+                  int depth = rs.getInt("depth");
+
+                  Integer current = depths.get(id);
+
+                  if (current == null || current > depth) {
+                    depths.put(id, depth);
+                  }
+                }
+              }
+      );
+    }
+
+    List<Map.Entry<Integer, Integer>> entries = new ArrayList<Map.Entry<Integer, Integer>>(depths.entrySet());
 
-      if (del) {
-        deleted.add(r);
+    Collections.sort(entries, new Comparator<Map.Entry<Integer, Integer>>() {
+      @Override
+      public int compare(Map.Entry<Integer, Integer> o1, Map.Entry<Integer, Integer> o2) {
+        int cmp = o2.getValue().compareTo(o1.getValue());
+
+        return cmp != 0 ? cmp : o2.getKey().compareTo(o1.getKey());
       }
+    });
+
+    Map<Integer, Integer> sorted = new LinkedHashMap<Integer, Integer>(entries.size());
+
+    for (Map.Entry<Integer, Integer> entry : entries) {
+      sorted.put(entry.getKey(), entry.getValue());
     }
 
-    return deleted;
+    return sorted;
   }
 
   /**
-   * Какие ответы на комментарий
+   * Удалить комментарии пачками: пометка удаленными одним UPDATE ... RETURNING на пачку,
+   * причины удаления пакетной вставкой, штрафы и статистика одним обновлением
+   * на пользователя и топик.
    *
-   * @param msgid id комментария
-   * @return список ответов на комментарий
+   * @param reasons причина удаления по id комментария
+   * @param user    пользователь, удаляющий комментарии
+   * @return id удаленных комментариев в порядке reasons; уже удаленные пропускаются
    */
-  private List<Integer> getReplysForUpdate(int msgid) {
-    return jdbcTemplate.queryForList(replysForComment, Integer.class, msgid);
+  private List<Integer> deleteComments(Map<Integer, DeleteReason> reasons, User user) {
+    if (reasons.isEmpty()) {
+      return ImmutableList.of();
+    }
+
+    final Set<Integer> deleted = new HashSet<Integer>(reasons.size());
+    final Map<Integer, Integer> authors = new HashMap<Integer, Integer>(reasons.size());
+    final Map<Integer, Integer> countByTopic = new HashMap<Integer, Integer>();
+
+    for (List<Integer> chunk : Iterables.partition(reasons.keySet(), BATCH_SIZE)) {
+      namedJdbcTemplate.query(
+              deleteCommentList,
+              ImmutableMap.of("list", chunk),
+              new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                  int id = rs.getInt("id");
+                  int topic = rs.getInt("topic");
+
+                  deleted.add(id);
+                  authors.put(id, rs.getInt("userid"));
+
+                  Integer count = countByTopic.get(topic);
+                  countByTopic.put(topic, count == null ? 1 : count + 1);
+                }
+              }
+      );
+    }
+
+    List<Integer> result = new ArrayList<Integer>(deleted.size());
+    Map<DeleteReason, List<Integer>> byReason = new LinkedHashMap<DeleteReason, List<Integer>>();
+    Map<Integer, Integer> scoreByUser = new TreeMap<Integer, Integer>();
+
+    for (Map.Entry<Integer, DeleteReason> entry : reasons.entrySet()) {
+      int msgid = entry.getKey();
+      DeleteReason reason = entry.getValue();
+
+      if (!deleted.contains(msgid)) {
+        logger.info("Пропускаем удаление уже удаленного " + msgid);
+        continue;
+      }
+
+      result.add(msgid);
+
+      List<Integer> ids = byReason.get(reason);
+      if (ids == null) {
+        ids = new ArrayList<Integer>();
+        byReason.put(reason, ids);
+      }
+      ids.add(msgid);
+
+      if (reason.bonus != 0) {
+        int author = authors.get(msgid);
+        Integer current = scoreByUser.get(author);
+        scoreByUser.put(author, current == null ? reason.bonus : current + reason.bonus);
+      }
+    }
+
+    for (Map.Entry<DeleteReason, List<Integer>> entry : byReason.entrySet()) {
+      DeleteReason reason = entry.getKey();
+
+      deleteInfoDao.insert(entry.getValue(), user, reason.reason, reason.bonus);
+
+      logger.info("Удалено " + entry.getValue().size() + " сообщений " + entry.getValue() +
+              " пользователем " + user.getNick() + " по причине `" + reason.reason + '\'');
+    }
+
+    if (!scoreByUser.isEmpty()) {
+      List<Object[]> batch = new ArrayList<Object[]>(scoreByUser.size());
+
+      for (Map.Entry<Integer, Integer> entry : scoreByUser.entrySet()) {
+        batch.add(new Object[] { entry.getValue(), entry.getKey() });
+      }
+
+      jdbcTemplate.batchUpdate(updateUserScore, batch);
+    }
+
+    updateStatsAfterDelete(countByTopic);
+
+    return result;
   }
 
   @Override
@@ -280,68 +474,115 @@ class CommentDaoImpl implements CommentDao {
 
   @Override
   public List<Integer> deleteAllByUser(User user, final User moderator) {
-    final List<Integer> deletedCommentIds = new ArrayList<Integer>();
-
-    // Удаляем все комментарии
-    jdbcTemplate.query("SELECT id FROM comments WHERE userid=? AND not deleted ORDER BY id DESC FOR update",
-      new RowCallbackHandler() {
-        @Override
-        public void processRow(ResultSet resultSet) throws SQLException {
-          int msgid = resultSet.getInt("id");
-          deletedCommentIds.addAll(doDeleteReplys(msgid, moderator, false));
-          if (deleteCommentWithoutTransaction(msgid, "Блокировка пользователя с удалением сообщений", moderator)) {
-            deletedCommentIds.add(msgid);
-          }
-        }
-      },
-      user.getId()
+    List<Integer> own = jdbcTemplate.queryForList(
+            "SELECT id FROM comments WHERE userid=? AND not deleted ORDER BY id DESC",
+            Integer.class,
+            user.getId()
     );
-    return deletedCommentIds;
+
+    Map<Integer, DeleteReason> reasons = new LinkedHashMap<Integer, DeleteReason>();
+
+    /* сначала ответы других пользователей, потом сами комментарии */
+    for (Map.Entry<Integer, Integer> entry : getReplysTree(own).entrySet()) {
+      reasons.put(entry.getKey(), replyDeleteReason(entry.getValue(), false));
+    }
+
+    DeleteReason blockReason = new DeleteReason("Блокировка пользователя с удалением сообщений", 0);
+
+    for (Integer msgid : own) {
+      reasons.remove(msgid);
+      reasons.put(msgid, blockReason);
+    }
+
+    return deleteComments(reasons, moderator);
   }
 
   @Override
   public DeleteCommentResult deleteCommentsByIPAddress(String ip, Timestamp timedelta, final User moderator, final String reason) {
+    Map<Integer, String> deleteInfo = new HashMap<Integer, String>();
 
-    final List<Integer> deletedTopicIds = new ArrayList<Integer>();
-    final List<Integer> deletedCommentIds = new ArrayList<Integer>();
-
-    final Map<Integer, String> deleteInfo = new HashMap<Integer, String>();
     // Удаляем топики
-    jdbcTemplate.query("SELECT id FROM topics WHERE postip=?::inet AND not deleted AND postdate>? FOR UPDATE",
-      new RowCallbackHandler() {
-        @Override
-        public void processRow(ResultSet resultSet) throws SQLException {
-          int msgid = resultSet.getInt("id");
-          deletedTopicIds.add(msgid);
-          deleteInfo.put(msgid, "Топик " + msgid + " удален");
-          jdbcTemplate.update("UPDATE topics SET deleted='t',sticky='f' WHERE id=?", msgid);
-          deleteInfoDao.insert(msgid, moderator, reason, 0);
-        }
-      },
-      ip, timedelta);
+    List<Integer> deletedTopicIds = jdbcTemplate.queryForList(
+            "UPDATE topics SET deleted='t',sticky='f' WHERE postip=?::inet AND not deleted AND postdate>? RETURNING id",
+            Integer.class,
+            ip, timedelta
+    );
+
+    deleteInfoDao.insert(deletedTopicIds, moderator, reason, 0);
+
+    if (!deletedTopicIds.isEmpty()) {
+      topicFeedVersions.invalidateAll();
+    }
+
+    for (Integer msgid : deletedTopicIds) {
+      deleteInfo.put(msgid, "Топик " + msgid + " удален");
+    }
+
     // Удаляем комментарии если на них нет ответа
-    jdbcTemplate.query("SELECT id FROM comments WHERE postip=?::inet AND not deleted AND postdate>? ORDER BY id DESC FOR update",
-      new RowCallbackHandler() {
-        @Override
-        public void processRow(ResultSet resultSet) throws SQLException {
-          int msgid = resultSet.getInt("id");
-          if (getReplaysCount(msgid) == 0) {
-            if (deleteCommentWithoutTransaction(msgid, reason, moderator)) {
-              deletedCommentIds.add(msgid);
-              deleteInfo.put(msgid, "Комментарий " + msgid + " удален");
-            } else {
-              deleteInfo.put(msgid, "Комментарий " + msgid + " уже был удален");
-            }
-          } else {
-            deleteInfo.put(msgid, "Комментарий " + msgid + " пропущен");
-          }
-        }
-      },
-      ip, timedelta);
+    List<Integer> candidates = jdbcTemplate.queryForList(
+            "SELECT id FROM comments WHERE postip=?::inet AND not deleted AND postdate>? ORDER BY id DESC",
+            Integer.class,
+            ip, timedelta
+    );
+
+    final Multimap<Integer, Integer> replys = HashMultimap.create();
+
+    for (List<Integer> chunk : Iterables.partition(candidates, BATCH_SIZE)) {
+      namedJdbcTemplate.query(
+              "SELECT id, replyto FROM comments WHERE replyto IN (:list) AND NOT deleted",
+              ImmutableMap.of("list", chunk),
+              new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                  replys.put(rs.getInt("replyto"), rs.getInt("id"));
+                }
+              }
+      );
+    }
+
+    /*
+      Комментарий можно удалить, если все ответы на него тоже удаляются.
+      Ответы новее комментария, поэтому при обходе по убыванию id уже обработаны.
+    */
+    Set<Integer> deletable = new HashSet<Integer>();
+    Map<Integer, DeleteReason> reasons = new LinkedHashMap<Integer, DeleteReason>();
+    DeleteReason deleteReason = new DeleteReason(reason, 0);
+
+    for (Integer msgid : candidates) {
+      if (deletable.containsAll(replys.get(msgid))) {
+        deletable.add(msgid);
+        reasons.put(msgid, deleteReason);
+      } else {
+        deleteInfo.put(msgid, "Комментарий " + msgid + " пропущен");
+      }
+    }
+
+    List<Integer> deletedCommentIds = deleteComments(reasons, moderator);
+
+    for (Integer msgid : reasons.keySet()) {
+      deleteInfo.put(msgid, "Комментарий " + msgid + " уже был удален");
+    }
+
+    for (Integer msgid : deletedCommentIds) {
+      deleteInfo.put(msgid, "Комментарий " + msgid + " удален");
+    }
 
     return new DeleteCommentResult(deletedTopicIds, deletedCommentIds, deleteInfo);
   }
 
+  /**
+   * Причина удаления и штраф автору
+   */
+  private static class DeleteReason {
+    private final String reason;
+    private final int bonus;
+
+    private DeleteReason(String reason, int bonus) {
+      this.reason = reason;
+      this.bonus = bonus;
+    }
+  }
+
   @Override
   public int saveNewMessage(
     final Comment comment,
@@ -380,6 +621,13 @@ class CommentDaoImpl implements CommentDao {
       "bbcode", true)
     );
 
+    int updated = jdbcTemplate.update(updateLastComment, msgid, comment.getUserid(), comment.getTopicId(), msgid);
+
+    if (updated == 0) {
+      /* топик, созданный до появления topic_last_comment */
+      jdbcTemplate.update(insertLastComment, comment.getTopicId(), msgid, comment.getUserid(), comment.getTopicId());
+    }
+
     return msgid;
   }
 
@@ -462,6 +710,23 @@ class CommentDaoImpl implements CommentDao {
     );
   }
 
+  @Override
+  public int getCommentPosition(int topicId, int msgid) {
+    int exists = jdbcTemplate.queryForInt(
+            "SELECT count(*) FROM comments WHERE id=? AND topic=? AND NOT deleted",
+            msgid, topicId
+    );
+
+    if (exists == 0) {
+      return -1;
+    }
+
+    return jdbcTemplate.queryForInt(
+            "SELECT count(*) FROM comments WHERE topic=? AND id<? AND NOT deleted",
+            topicId, msgid
+    );
+  }
+
   @Override
   public boolean isHaveAnswers(int commentId) {
     int answersCount = jdbcTemplate.queryForInt("select count (id) from comments where replyto = ?",commentId);
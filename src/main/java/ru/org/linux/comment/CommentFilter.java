@@ -20,7 +20,6 @@ import ru.org.linux.site.MessageNotFoundException;
 import javax.annotation.Nonnull;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Set;
 
 public class CommentFilter {
@@ -36,23 +35,11 @@ public class CommentFilter {
     this.comments = comments;
   }
 
-  private static List<Comment> getCommentList(
-          @Nonnull List<Comment> comments,
-          boolean reverse,
-          int offset,
-          int limit,
-          @Nonnull Set<Integer> hideSet) {
-    List<Comment> out = new ArrayList<Comment>();
-
-    for (ListIterator<Comment> i = comments.listIterator(reverse?comments.size():0); reverse?i.hasPrevious():i.hasNext();) {
-      int index = reverse?(comments.size()-i.previousIndex()):i.nextIndex();
-
-      Comment comment = reverse?i.previous():i.next();
-
-      if (index<offset || (limit!=0 && index>=offset+limit)) {
-        continue;
-      }
+  public List<Comment> getCommentsForPage(boolean reverse, int page, int messagesPerPage, @Nonnull Set<Integer> hideSet) {
+    List<Comment> pageList = comments.getPage(page, messagesPerPage, reverse);
+    List<Comment> out = new ArrayList<Comment>(pageList.size());
 
+    for (Comment comment : pageList) {
       if (!hideSet.contains(comment.getMessageId())) {
         out.add(comment);
       }
@@ -61,28 +48,13 @@ public class CommentFilter {
     return out;
   }
 
-  public List<Comment> getCommentsForPage(boolean reverse, int page, int messagesPerPage, @Nonnull Set<Integer> hideSet) {
-    int offset = 0;
-    int limit = 0;
-
-    if (page != -1) {
-      limit = messagesPerPage;
-      offset = messagesPerPage * page;
-    }
-
-    return getCommentList(comments.getList(), reverse, offset, limit, hideSet);
-  }
-
   public List<Comment> getCommentsSubtree(int parentId) throws MessageNotFoundException {
-    CommentNode parentNode = comments.getNode(parentId);
+    List<Comment> parentList = comments.getSubtree(parentId);
 
-    if (parentNode==null) {
+    if (parentList==null) {
       throw new MessageNotFoundException(parentId);
     }
 
-    List<Comment> parentList = new ArrayList<Comment>();
-    parentNode.buildList(parentList);
-
     return parentList;
   }
 
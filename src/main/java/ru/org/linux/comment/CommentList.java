@@ -15,20 +15,43 @@
 
 package ru.org.linux.comment;
 
+import com.google.common.base.Predicate;
+import com.google.common.collect.Lists;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import ru.org.linux.user.ProfileProperties;
+import ru.org.linux.user.User;
+import ru.org.linux.user.UserDao;
+import ru.org.linux.user.UserNotFoundException;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.Serializable;
 import java.util.*;
 
+/**
+ * Список комментариев топика и дерево ответов.
+ *
+ * Дерево хранится в массивах по индексу комментария в списке: родитель, первый
+ * ответ и следующий ответ того же родителя. Индекс по id комментария -
+ * хеш-таблица с открытой адресацией на int. Все обходы дерева нерекурсивные,
+ * скрытые комментарии отмечаются в {@link BitSet} по индексу.
+ *
+ * {@link CommentNode} оставлен как обертка над элементом дерева.
+ */
 public class CommentList implements Serializable {
   private static final Log logger = LogFactory.getLog(CommentList.class);
 
+  private static final int NONE = -1;
+
   private final List<Comment> comments = new ArrayList<Comment>(CommentFilter.COMMENTS_INITIAL_BUFSIZE);
-  private final CommentNode root = new CommentNode();
-  private final Map<Integer, CommentNode> treeHash = new HashMap<Integer, CommentNode>(CommentFilter.COMMENTS_INITIAL_BUFSIZE);
+
+  /* индекс корня дерева, равен количеству комментариев */
+  private final int root;
+  private final int[] parent;
+  private final int[] firstChild;
+  private final int[] nextSibling;
+  private final MsgidIndex index;
 
   private final long lastmod;
 
@@ -36,6 +59,13 @@ public class CommentList implements Serializable {
     this.lastmod = lastmod;
     this.comments.addAll(comments);
     logger.debug("Read list size = " +comments.size());
+
+    root = this.comments.size();
+    parent = new int[root + 1];
+    firstChild = new int[root + 1];
+    nextSibling = new int[root + 1];
+    index = new MsgidIndex(root);
+
     buildTree();
   }
 
@@ -45,40 +75,264 @@ public class CommentList implements Serializable {
   }
 
   private void buildTree() {
-    /* build tree */
-    for (Comment comment : comments) {
-      CommentNode node = new CommentNode(comment);
+    int[] lastChild = new int[root + 1];
+
+    Arrays.fill(parent, NONE);
+    Arrays.fill(firstChild, NONE);
+    Arrays.fill(nextSibling, NONE);
+    Arrays.fill(lastChild, NONE);
+
+    for (int i = 0; i < root; i++) {
+      Comment comment = comments.get(i);
+
+      /* ответ на комментарий, которого нет в списке выше, показываем в корне */
+      int parentIndex = comment.getReplyTo() == 0 ? NONE : index.get(comment.getReplyTo());
 
-      treeHash.put(comment.getMessageId(), node);
+      if (parentIndex == NONE) {
+        parentIndex = root;
+      }
+
+      index.put(comment.getMessageId(), i);
+
+      parent[i] = parentIndex;
 
-      if (comment.getReplyTo()==0) {
-        root.addChild(node);
+      if (lastChild[parentIndex] == NONE) {
+        firstChild[parentIndex] = i;
       } else {
-        CommentNode parentNode = treeHash.get(comment.getReplyTo());
-        if (parentNode!=null) {
-          parentNode.addChild(node);
-        } else {
-          root.addChild(node);
-        }
+        nextSibling[lastChild[parentIndex]] = i;
       }
+
+      lastChild[parentIndex] = i;
     }
   }
 
   public CommentNode getRoot() {
-    return root;
+    return new CommentNode(this, root);
   }
 
   public CommentNode getNode(int msgid) {
-    return treeHash.get(msgid);
+    int i = index.get(msgid);
+
+    return i == NONE ? null : new CommentNode(this, i);
+  }
+
+  /**
+   * @return комментарий по id или null если его нет в списке
+   */
+  @Nullable
+  public Comment getComment(int msgid) {
+    int i = index.get(msgid);
+
+    return i == NONE ? null : comments.get(i);
+  }
+
+  /**
+   * @return есть ли ответы на комментарий
+   */
+  public boolean isHaveAnswers(int msgid) {
+    int i = index.get(msgid);
+
+    return i != NONE && firstChild[i] != NONE;
+  }
+
+  /**
+   * Комментарий и все ответы на него в порядке обхода дерева
+   *
+   * @return список комментариев или null если комментария нет в списке
+   */
+  @Nullable
+  public List<Comment> getSubtree(int msgid) {
+    int i = index.get(msgid);
+
+    if (i == NONE) {
+      return null;
+    }
+
+    List<Comment> list = new ArrayList<Comment>();
+    buildList(i, list);
+
+    return list;
+  }
+
+  /**
+   * Скрыть комментарии анонимов и пользователей с низким score вместе с ответами на них
+   *
+   * @param userDao для загрузки авторов
+   * @param hidden  индексы скрытых комментариев, дополняется
+   */
+  public void hideAnonymous(UserDao userDao, BitSet hidden) throws UserNotFoundException {
+    hide(root, anonymousFilter(userDao, root), hidden);
+  }
+
+  /**
+   * Скрыть комментарии пользователей из списка игнорирования вместе с ответами на них
+   *
+   * @param ignoreList id игнорируемых пользователей
+   * @param hidden     индексы скрытых комментариев, дополняется
+   */
+  public void hideIgnored(Set<Integer> ignoreList, BitSet hidden) {
+    hide(root, ignoredFilter(ignoreList), hidden);
+  }
+
+  /**
+   * @param hidden индексы скрытых комментариев
+   * @return неизменяемое множество id скрытых комментариев
+   */
+  @Nonnull
+  public Set<Integer> getMessageIds(@Nonnull BitSet hidden) {
+    return new HiddenSet((BitSet) hidden.clone());
+  }
+
+  Comment getCommentAt(int node) {
+    return node == root ? null : comments.get(node);
+  }
+
+  int getMessageIdAt(int node) {
+    return node == root ? 0 : comments.get(node).getMessageId();
+  }
+
+  boolean hasChildren(int node) {
+    return firstChild[node] != NONE;
+  }
+
+  List<CommentNode> getChildNodes(int node) {
+    List<CommentNode> list = new ArrayList<CommentNode>();
+
+    for (int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+      list.add(new CommentNode(this, child));
+    }
+
+    return list;
+  }
+
+  /**
+   * Следующий элемент поддерева top при обходе в прямом порядке
+   *
+   * @param descend заходить ли в ответы на current
+   * @return индекс или NONE если поддерево пройдено
+   */
+  private int next(int current, int top, boolean descend) {
+    if (descend && firstChild[current] != NONE) {
+      return firstChild[current];
+    }
+
+    while (current != top) {
+      if (nextSibling[current] != NONE) {
+        return nextSibling[current];
+      }
+
+      current = parent[current];
+    }
+
+    return NONE;
+  }
+
+  void buildList(int top, List<Comment> list) {
+    if (top != root) {
+      list.add(comments.get(top));
+    }
+
+    for (int i = next(top, top, true); i != NONE; i = next(i, top, true)) {
+      list.add(comments.get(i));
+    }
+  }
+
+  void hideSubtree(int top, BitSet hidden) {
+    if (top != root) {
+      hidden.set(top);
+    }
+
+    for (int i = next(top, top, true); i != NONE; i = next(i, top, true)) {
+      hidden.set(i);
+    }
+  }
+
+  /**
+   * Скрыть комментарии, подходящие под фильтр, вместе с ответами на них.
+   * В ответы на уже скрытые комментарии не заходим.
+   */
+  void hide(int top, Predicate<Comment> filter, BitSet hidden) {
+    boolean descend = top == root || visit(top, filter, hidden);
+
+    for (int i = next(top, top, descend); i != NONE; i = next(i, top, descend)) {
+      descend = visit(i, filter, hidden);
+    }
+  }
+
+  private boolean visit(int i, Predicate<Comment> filter, BitSet hidden) {
+    if (hidden.get(i)) {
+      return false;
+    }
+
+    if (filter.apply(comments.get(i))) {
+      hideSubtree(i, hidden);
+      return false;
+    }
+
+    return true;
+  }
+
+  Predicate<Comment> anonymousFilter(UserDao userDao, int top) throws UserNotFoundException {
+    List<Comment> subtree = new ArrayList<Comment>();
+    buildList(top, subtree);
+
+    Set<Integer> userIds = new HashSet<Integer>();
+    for (Comment comment : subtree) {
+      userIds.add(comment.getUserid());
+    }
+
+    final Map<Integer, User> users = userDao.getUsersCachedMap(userIds);
+
+    return new Predicate<Comment>() {
+      @Override
+      public boolean apply(Comment comment) {
+        return users.get(comment.getUserid()).isAnonymousScore();
+      }
+    };
+  }
+
+  static Predicate<Comment> ignoredFilter(final Set<Integer> ignoreList) {
+    return new Predicate<Comment>() {
+      @Override
+      public boolean apply(Comment comment) {
+        return comment.isIgnored(ignoreList);
+      }
+    };
+  }
+
+  BitSet toBitSet(Set<Integer> msgids) {
+    BitSet hidden = new BitSet(root);
+
+    for (Integer msgid : msgids) {
+      int i = index.get(msgid);
+
+      if (i != NONE) {
+        hidden.set(i);
+      }
+    }
+
+    return hidden;
   }
 
-  private int getCommentPage(@Nonnull Comment comment, int messages, boolean reverse) {
-    int index = comments.indexOf(comment);
+  void addMessageIds(BitSet hidden, Set<Integer> msgids) {
+    for (int i = hidden.nextSetBit(0); i >= 0; i = hidden.nextSetBit(i + 1)) {
+      msgids.add(comments.get(i).getMessageId());
+    }
+  }
 
+  /**
+   * Номер страницы комментария по его позиции в топике
+   *
+   * @param position позиция комментария в списке по возрастанию id, с 0
+   * @param size     количество комментариев в топике
+   * @param messages комментариев на странице
+   * @param reverse  новые комментарии первыми
+   */
+  public static int getCommentPage(int position, int size, int messages, boolean reverse) {
     if (reverse) {
-      return (comments.size()-index)/messages;
+      return (size-position)/messages;
     } else {
-      return index/messages;
+      return position/messages;
     }
   }
 
@@ -86,10 +340,232 @@ public class CommentList implements Serializable {
     int messages = profile.getMessages();
     boolean reverse = profile.isShowNewFirst();
 
-    return getCommentPage(comment, messages, reverse);
+    return getCommentPage(index.get(comment.getMessageId()), comments.size(), messages, reverse);
+  }
+
+  /**
+   * @return позиция комментария в списке или -1 если его нет
+   */
+  public int getPosition(int msgid) {
+    return index.get(msgid);
+  }
+
+  /**
+   * Комментарии одной страницы в порядке показа, без обхода всего списка.
+   *
+   * При обратном порядке позиция считается от конца списка начиная с 1,
+   * поэтому на первой странице на один комментарий меньше - так же считает
+   * {@link #getCommentPage(int, int, int, boolean)}.
+   *
+   * @param page            номер страницы, -1 - все комментарии
+   * @param messagesPerPage комментариев на странице
+   * @param reverse         новые комментарии первыми
+   * @return неизменяемый список комментариев страницы
+   */
+  @Nonnull
+  public List<Comment> getPage(int page, int messagesPerPage, boolean reverse) {
+    int size = comments.size();
+    List<Comment> list = getList();
+
+    if (page == -1) {
+      return reverse ? Lists.reverse(list) : list;
+    }
+
+    int offset = messagesPerPage * page;
+
+    if (reverse) {
+      /* позиции k, для которых offset <= size-k < offset+messagesPerPage */
+      int from = Math.max(0, size - offset - messagesPerPage + 1);
+      int to = Math.min(size, size - offset + 1);
+
+      return from >= to ? Collections.<Comment>emptyList() : Lists.reverse(list.subList(from, to));
+    } else {
+      int from = Math.min(size, offset);
+      int to = Math.min(size, offset + messagesPerPage);
+
+      return list.subList(from, to);
+    }
   }
 
   public long getLastmod() {
     return lastmod;
   }
+
+  /**
+   * Наибольший id комментария в списке
+   *
+   * @return id последнего комментария или 0 если список пуст
+   */
+  public int getLastMsgid() {
+    if (comments.isEmpty()) {
+      return 0;
+    }
+
+    return comments.get(comments.size() - 1).getMessageId();
+  }
+
+  /**
+   * Наложить на список изменения, произошедшие после его построения.
+   * Новые комментарии добавляются, изменённые заменяются, удалённые
+   * (если showDeleted=false) выбрасываются из списка. Сам список не меняется,
+   * т.к. может быть разделён между потоками.
+   *
+   * @param changed     новые, изменённые и удалённые комментарии, упорядоченные по id
+   * @param showDeleted список содержит удаленные комментарии
+   * @param lastmod     время модификации топика, соответствующее новому списку
+   * @return новый список комментариев
+   */
+  @Nonnull
+  public CommentList applyDelta(@Nonnull List<Comment> changed, boolean showDeleted, long lastmod) {
+    Map<Integer, Comment> delta = new LinkedHashMap<Integer, Comment>(changed.size());
+
+    for (Comment comment : changed) {
+      delta.put(comment.getMessageId(), comment);
+    }
+
+    List<Comment> merged = new ArrayList<Comment>(comments.size() + delta.size());
+
+    for (Comment comment : comments) {
+      Comment replacement = delta.remove(comment.getMessageId());
+
+      if (replacement == null) {
+        merged.add(comment);
+      } else if (showDeleted || !replacement.isDeleted()) {
+        merged.add(replacement);
+      }
+    }
+
+    int lastMsgid = getLastMsgid();
+    boolean unordered = false;
+
+    for (Comment comment : delta.values()) {
+      if (!showDeleted && comment.isDeleted()) {
+        continue;
+      }
+
+      /* комментарий из транзакции, завершившейся позже более новых */
+      if (comment.getMessageId() < lastMsgid) {
+        unordered = true;
+      }
+
+      merged.add(comment);
+    }
+
+    if (unordered) {
+      Collections.sort(merged, new Comparator<Comment>() {
+        @Override
+        public int compare(Comment o1, Comment o2) {
+          return o1.getMessageId() < o2.getMessageId() ? -1 : (o1.getMessageId() == o2.getMessageId() ? 0 : 1);
+        }
+      });
+    }
+
+    logger.debug("Applied delta: " + changed.size() + " changed, list size = " + merged.size());
+
+    return new CommentList(merged, lastmod);
+  }
+
+  /**
+   * Отображение id комментария в индекс, хеш-таблица с открытой адресацией
+   */
+  private static class MsgidIndex implements Serializable {
+    private final int[] keys;
+    private final int[] values;
+    private final int mask;
+
+    private MsgidIndex(int size) {
+      int capacity = Integer.highestOneBit(Math.max(size, 2) * 2 - 1) << 1;
+
+      keys = new int[capacity];
+      values = new int[capacity];
+      mask = capacity - 1;
+    }
+
+    private int slot(int msgid) {
+      int h = msgid * 0x9E3779B9;
+
+      return (h ^ (h >>> 16)) & mask;
+    }
+
+    private void put(int msgid, int value) {
+      int slot = slot(msgid);
+
+      while (keys[slot] != 0 && keys[slot] != msgid) {
+        slot = (slot + 1) & mask;
+      }
+
+      keys[slot] = msgid;
+      values[slot] = value;
+    }
+
+    private int get(int msgid) {
+      if (msgid == 0) {
+        return NONE;
+      }
+
+      for (int slot = slot(msgid); keys[slot] != 0; slot = (slot + 1) & mask) {
+        if (keys[slot] == msgid) {
+          return values[slot];
+        }
+      }
+
+      return NONE;
+    }
+  }
+
+  /**
+   * Множество id скрытых комментариев поверх {@link BitSet}
+   */
+  private class HiddenSet extends AbstractSet<Integer> {
+    private final BitSet hidden;
+
+    private HiddenSet(BitSet hidden) {
+      this.hidden = hidden;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      if (!(o instanceof Integer)) {
+        return false;
+      }
+
+      int i = index.get((Integer) o);
+
+      return i != NONE && hidden.get(i);
+    }
+
+    @Override
+    public Iterator<Integer> iterator() {
+      return new Iterator<Integer>() {
+        private int next = hidden.nextSetBit(0);
+
+        @Override
+        public boolean hasNext() {
+          return next >= 0;
+        }
+
+        @Override
+        public Integer next() {
+          if (next < 0) {
+            throw new NoSuchElementException();
+          }
+
+          int msgid = comments.get(next).getMessageId();
+          next = hidden.nextSetBit(next + 1);
+
+          return msgid;
+        }
+
+        @Override
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return hidden.cardinality();
+    }
+  }
 }
@@ -0,0 +1,317 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.comment;
+
+import ru.org.linux.site.DeleteInfo;
+
+import javax.annotation.Nonnull;
+import java.io.*;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Компактное двоичное представление {@link CommentList} для хранения в кеше
+ * вместо стандартной сериализации Java.
+ *
+ * Формат: версия, lastmod, таблица строк (ник, user agent, IP и причины удаления
+ * сильно повторяются внутри топика), затем комментарии по порядку. Числа
+ * записываются как varint, id комментария и время - разностью с предыдущим
+ * комментарием, replyto - разностью с id комментария. Дерево не сохраняется,
+ * оно строится заново по replyto.
+ */
+public final class CommentListCodec {
+  private static final int VERSION = 1;
+
+  private static final int FLAG_DELETED = 1;
+  private static final int FLAG_DELETE_INFO = 2;
+  private static final int FLAG_EDIT_DATE = 4;
+  private static final int FLAG_DELETE_BONUS = 8;
+  private static final int FLAG_DELETE_DATE = 16;
+
+  private CommentListCodec() {
+  }
+
+  @Nonnull
+  public static byte[] encode(@Nonnull CommentList commentList) {
+    List<Comment> comments = commentList.getList();
+
+    Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+
+    for (Comment comment : comments) {
+      addString(strings, comment.getTitle());
+      addString(strings, comment.getUserAgent());
+      addString(strings, comment.getPostIP());
+      addString(strings, comment.getEditNick());
+
+      DeleteInfo deleteInfo = comment.getDeleteInfo();
+      if (deleteInfo != null) {
+        addString(strings, deleteInfo.getNick());
+        addString(strings, deleteInfo.getRawReason());
+      }
+    }
+
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 + comments.size() * 24);
+    DataOutputStream out = new DataOutputStream(buffer);
+
+    try {
+      writeVarint(out, VERSION);
+      out.writeLong(commentList.getLastmod());
+
+      writeVarint(out, strings.size());
+      for (String string : strings.keySet()) {
+        out.writeUTF(string);
+      }
+
+      writeVarint(out, comments.size());
+
+      int topic = comments.isEmpty() ? 0 : comments.get(0).getTopicId();
+      writeVarint(out, topic);
+
+      int prevMsgid = 0;
+      long prevPostdate = 0;
+
+      for (Comment comment : comments) {
+        DeleteInfo deleteInfo = comment.getDeleteInfo();
+
+        int flags = 0;
+        if (comment.isDeleted()) {
+          flags |= FLAG_DELETED;
+        }
+        if (deleteInfo != null) {
+          flags |= FLAG_DELETE_INFO;
+
+          if (deleteInfo.getRawBonus() != null) {
+            flags |= FLAG_DELETE_BONUS;
+          }
+
+          if (deleteInfo.getDelDate() != null) {
+            flags |= FLAG_DELETE_DATE;
+          }
+        }
+        if (comment.getEditDate() != null) {
+          flags |= FLAG_EDIT_DATE;
+        }
+
+        out.writeByte(flags);
+
+        writeSignedVarint(out, comment.getMessageId() - prevMsgid);
+        prevMsgid = comment.getMessageId();
+
+        writeSignedVarint(out, comment.getTopicId() - topic);
+        writeVarint(out, comment.getUserid());
+        writeSignedVarint(out, comment.getReplyTo() == 0 ? 0 : comment.getMessageId() - comment.getReplyTo());
+
+        long postdate = comment.getPostdate().getTime();
+        writeSignedVarint(out, postdate - prevPostdate);
+        writeVarint(out, comment.getPostdate().getNanos() % 1000000);
+        prevPostdate = postdate;
+
+        writeString(out, strings, comment.getTitle());
+        writeString(out, strings, comment.getUserAgent());
+        writeString(out, strings, comment.getPostIP());
+        writeString(out, strings, comment.getEditNick());
+        writeVarint(out, comment.getEditCount());
+
+        if (comment.getEditDate() != null) {
+          writeTimestamp(out, comment.getEditDate(), postdate);
+        }
+
+        if (deleteInfo != null) {
+          writeString(out, strings, deleteInfo.getNick());
+          writeVarint(out, deleteInfo.getUserid());
+          writeString(out, strings, deleteInfo.getRawReason());
+
+          if (deleteInfo.getDelDate() != null) {
+            writeTimestamp(out, deleteInfo.getDelDate(), postdate);
+          }
+
+          if (deleteInfo.getRawBonus() != null) {
+            writeSignedVarint(out, deleteInfo.getRawBonus());
+          }
+        }
+      }
+
+      out.flush();
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+
+    return buffer.toByteArray();
+  }
+
+  @Nonnull
+  public static CommentList decode(@Nonnull byte[] data) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+
+    int version = readVarint(in);
+    if (version != VERSION) {
+      throw new IOException("Unsupported comment list format version " + version);
+    }
+
+    long lastmod = in.readLong();
+
+    String[] strings = new String[readVarint(in)];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = in.readUTF();
+    }
+
+    int size = readVarint(in);
+    int topic = readVarint(in);
+
+    List<Comment> comments = new ArrayList<Comment>(size);
+
+    int msgid = 0;
+    long postdate = 0;
+
+    for (int i = 0; i < size; i++) {
+      int flags = in.readByte();
+
+      msgid += readSignedVarint(in);
+
+      int commentTopic = topic + (int) readSignedVarint(in);
+      int userid = readVarint(in);
+
+      int replyDelta = (int) readSignedVarint(in);
+      int replyto = replyDelta == 0 ? 0 : msgid - replyDelta;
+
+      postdate += readSignedVarint(in);
+      Timestamp postTimestamp = makeTimestamp(postdate, readVarint(in));
+
+      String title = readString(in, strings);
+      String userAgent = readString(in, strings);
+      String postIP = readString(in, strings);
+      String editNick = readString(in, strings);
+      int editCount = readVarint(in);
+
+      Timestamp editDate = null;
+      if ((flags & FLAG_EDIT_DATE) != 0) {
+        editDate = readTimestamp(in, postdate);
+      }
+
+      DeleteInfo deleteInfo = null;
+      if ((flags & FLAG_DELETE_INFO) != 0) {
+        String nick = readString(in, strings);
+        int deleteUserid = readVarint(in);
+        String reason = readString(in, strings);
+
+        Timestamp delDate = null;
+        if ((flags & FLAG_DELETE_DATE) != 0) {
+          delDate = readTimestamp(in, postdate);
+        }
+
+        Integer bonus = null;
+        if ((flags & FLAG_DELETE_BONUS) != 0) {
+          bonus = (int) readSignedVarint(in);
+        }
+
+        deleteInfo = new DeleteInfo(nick, deleteUserid, reason, delDate, bonus);
+      }
+
+      comments.add(new Comment(
+              msgid,
+              title,
+              userid,
+              replyto,
+              commentTopic,
+              (flags & FLAG_DELETED) != 0,
+              postTimestamp,
+              deleteInfo,
+              userAgent,
+              postIP,
+              editNick,
+              editDate,
+              editCount
+      ));
+    }
+
+    return new CommentList(comments, lastmod);
+  }
+
+  private static void addString(Map<String, Integer> strings, String value) {
+    if (value != null && !strings.containsKey(value)) {
+      strings.put(value, strings.size());
+    }
+  }
+
+  private static void writeString(DataOutput out, Map<String, Integer> strings, String value) throws IOException {
+    writeVarint(out, value == null ? 0 : strings.get(value) + 1);
+  }
+
+  private static String readString(DataInput in, String[] strings) throws IOException {
+    int index = readVarint(in);
+
+    return index == 0 ? null : strings[index - 1];
+  }
+
+  private static void writeTimestamp(DataOutput out, Timestamp timestamp, long base) throws IOException {
+    writeSignedVarint(out, timestamp.getTime() - base);
+    writeVarint(out, timestamp.getNanos() % 1000000);
+  }
+
+  private static Timestamp readTimestamp(DataInput in, long base) throws IOException {
+    long time = base + readSignedVarint(in);
+
+    return makeTimestamp(time, readVarint(in));
+  }
+
+  private static Timestamp makeTimestamp(long time, int subMillisNanos) {
+    Timestamp timestamp = new Timestamp(time);
+    timestamp.setNanos(timestamp.getNanos() + subMillisNanos);
+
+    return timestamp;
+  }
+
+  private static void writeVarint(DataOutput out, long value) throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+
+    out.writeByte((int) value);
+  }
+
+  private static void writeSignedVarint(DataOutput out, long value) throws IOException {
+    writeVarint(out, (value << 1) ^ (value >> 63));
+  }
+
+  private static int readVarint(DataInput in) throws IOException {
+    return (int) readVarLong(in);
+  }
+
+  private static long readVarLong(DataInput in) throws IOException {
+    long result = 0;
+
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = in.readByte();
+      result |= (long) (b & 0x7F) << shift;
+
+      if ((b & 0x80) == 0) {
+        return result;
+      }
+    }
+
+    throw new IOException("Malformed varint");
+  }
+
+  private static long readSignedVarint(DataInput in) throws IOException {
+    long value = readVarLong(in);
+
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
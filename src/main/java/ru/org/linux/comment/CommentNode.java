@@ -15,95 +15,63 @@
 
 package ru.org.linux.comment;
 
-import ru.org.linux.user.User;
 import ru.org.linux.user.UserDao;
 import ru.org.linux.user.UserNotFoundException;
 
-import java.io.Serializable;
 import java.sql.SQLException;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
-public class CommentNode implements Serializable {
-  private final LinkedList<CommentNode> childs = new LinkedList<CommentNode>();
-  private Comment comment = null;
-
-  public CommentNode() {
-  }
-
-  public CommentNode(Comment comment) {
-    this.comment = comment;
-  }
+/**
+ * Элемент дерева комментариев. Само дерево хранится в {@link CommentList},
+ * узел - это ссылка на список и индекс в нем.
+ */
+public class CommentNode {
+  private final CommentList list;
+  private final int index;
 
-  public void addChild(CommentNode child) {
-    childs.add(child);
+  CommentNode(CommentList list, int index) {
+    this.list = list;
+    this.index = index;
   }
 
   public List getChilds() {
-    return Collections.unmodifiableList(childs);
+    return Collections.unmodifiableList(list.getChildNodes(index));
   }
 
   public int getMessageId() {
-    return comment==null?0:comment.getMessageId();
+    return list.getMessageIdAt(index);
   }
 
   public boolean isHaveAnswers() {
-    return !childs.isEmpty();
+    return list.hasChildren(index);
   }
 
   public void hideAnonymous(UserDao userDao, Set<Integer> hideSet) throws SQLException, UserNotFoundException {
-    if (comment!=null) {
-      User commentAuthor = userDao.getUserCached(comment.getUserid());
-
-      if (commentAuthor.isAnonymousScore()) {
-        hideNode(hideSet);
-      }
-    }
-
-    if (comment==null || !hideSet.contains(comment.getMessageId())) {
-      for (CommentNode child : childs) {
-        child.hideAnonymous(userDao, hideSet);
-      }
-    }
+    BitSet hidden = list.toBitSet(hideSet);
+    list.hide(index, list.anonymousFilter(userDao, index), hidden);
+    list.addMessageIds(hidden, hideSet);
   }
 
   public void hideIgnored(Set<Integer> hideSet, Set<Integer> ignoreList) {
-    if (comment != null) {
-      if (comment.isIgnored(ignoreList)) {
-        hideNode(hideSet);
-      }
-    }
-
-    if (comment==null || !hideSet.contains(comment.getMessageId())) {
-      for (CommentNode child : childs) {
-        child.hideIgnored(hideSet, ignoreList);
-      }
-    }
+    BitSet hidden = list.toBitSet(hideSet);
+    list.hide(index, CommentList.ignoredFilter(ignoreList), hidden);
+    list.addMessageIds(hidden, hideSet);
   }
 
   public void buildList(List<Comment> list) {
-    if (comment!=null) {
-      list.add(comment);
-    }
-
-    for (CommentNode child : childs) {
-      child.buildList(list);
-    }
+    this.list.buildList(index, list);
   }
 
   public void hideNode(Set<Integer> hideSet) {
-    if (comment!=null) {
-      hideSet.add(comment.getMessageId());
-    }
-
-    for (CommentNode child : childs) {
-      child.hideNode(hideSet);
-    }
+    BitSet hidden = list.toBitSet(hideSet);
+    list.hideSubtree(index, hidden);
+    list.addMessageIds(hidden, hideSet);
   }
 
   public Comment getComment() {
-    return comment;
+    return list.getCommentAt(index);
   }
 }
@@ -24,6 +24,7 @@ import org.springframework.stereotype.Service;
 import ru.org.linux.site.Template;
 import ru.org.linux.spring.Configuration;
 import ru.org.linux.spring.dao.MessageText;
+import ru.org.linux.spring.commons.RenderExecutor;
 import ru.org.linux.spring.dao.MsgbaseDao;
 import ru.org.linux.topic.Topic;
 import ru.org.linux.topic.TopicPermissionService;
@@ -35,11 +36,27 @@ import ru.org.linux.util.bbcode.LorCodeService;
 
 import javax.annotation.Nonnull;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Service
 public class CommentPrepareService {
+  private static final Function<Comment, Integer> COMMENT_ID = new Function<Comment, Integer>() {
+    @Override
+    public Integer apply(Comment comment) {
+      return comment.getId();
+    }
+  };
+
+  private static final Function<Comment, Integer> COMMENT_USERID = new Function<Comment, Integer>() {
+    @Override
+    public Integer apply(Comment comment) {
+      return comment.getUserid();
+    }
+  };
+
   @Autowired
   private UserDao userDao;
 
@@ -55,26 +72,53 @@ public class CommentPrepareService {
   @Autowired
   private TopicPermissionService topicPermissionService;
 
+  @Autowired
+  private CommentRenderCache commentRenderCache;
+
+  @Autowired
+  private RenderExecutor renderExecutor;
+
   private PreparedComment prepareComment(
           @Nonnull Comment comment,
           boolean secure
   ) throws UserNotFoundException {
     MessageText messageText = msgbaseDao.getMessageText(comment.getId());
-    return prepareComment(messageText, comment, null, secure, null, null);
+    User author = userDao.getUserCached(comment.getUserid());
+
+    String processedMessage = prepareCommentText(
+            comment,
+            messageText,
+            secure,
+            !topicPermissionService.followAuthorLinks(author)
+    );
+
+    return prepareComment(processedMessage, comment, null, secure, null, null, null, null);
+  }
+
+  /**
+   * Получить пользователя из заранее загруженных, либо из кеша
+   */
+  private User getUser(Map<Integer, User> users, int id) throws UserNotFoundException {
+    User user = users!=null ? users.get(id) : null;
+
+    if (user==null) {
+      user = userDao.getUserCached(id);
+    }
+
+    return user;
   }
 
   private PreparedComment prepareComment(
-          MessageText messageText,
+          String processedMessage,
           @Nonnull Comment comment,
           CommentList comments,
           boolean secure,
           Template tmpl,
-          Topic topic
+          Topic topic,
+          Map<Integer, User> users,
+          Map<Integer, Remark> remarks
   ) throws UserNotFoundException {
-    User author = userDao.getUserCached(comment.getUserid());
-    String processedMessage;
-
-    processedMessage = prepareCommentText(messageText, secure, !topicPermissionService.followAuthorLinks(author));
+    User author = getUser(users, comment.getUserid());
 
     User replyAuthor = null;
     Comment reply = null;
@@ -86,14 +130,13 @@ public class CommentPrepareService {
 
     if (comments != null) {
       if (comment.getReplyTo() != 0) {
-        CommentNode replyNode = comments.getNode(comment.getReplyTo());
+        reply = comments.getComment(comment.getReplyTo());
 
-        if (replyNode!=null) {
-          reply = replyNode.getComment();
+        if (reply!=null) {
           if(tmpl != null) {
             replyPage = comments.getCommentPage(reply, tmpl.getProf());
           }
-          replyAuthor = userDao.getUserCached(reply.getUserid());
+          replyAuthor = getUser(users, reply.getUserid());
         }
 
         if (tmpl!=null) {
@@ -101,7 +144,7 @@ public class CommentPrepareService {
         }
       }
 
-      haveAnswers = comments.getNode(comment.getId()).isHaveAnswers();
+      haveAnswers = comments.isHaveAnswers(comment.getId());
 
       if(tmpl != null && topic != null) {
         final boolean authored = author.getNick().equals(tmpl.getNick());
@@ -135,7 +178,11 @@ public class CommentPrepareService {
 
     Remark remark = null;
     if(tmpl != null && tmpl.isSessionAuthorized() ){
-      remark = userDao.getRemark(tmpl.getCurrentUser(), author);
+      if (remarks != null) {
+        remark = remarks.get(author.getId());
+      } else {
+        remark = userDao.getRemark(tmpl.getCurrentUser(), author);
+      }
     }
 
     return new PreparedComment(comment, author, processedMessage, replyAuthor, haveAnswers,
@@ -145,9 +192,10 @@ public class CommentPrepareService {
   private PreparedRSSComment prepareRSSComment(
           @Nonnull MessageText messageText,
           @Nonnull Comment comment,
-          boolean secure
+          boolean secure,
+          Map<Integer, User> users
   ) throws UserNotFoundException {
-    User author = userDao.getUserCached(comment.getUserid());
+    User author = getUser(users, comment.getUserid());
 
     String processedMessage = prepareCommentTextRSS(messageText, secure);
 
@@ -189,11 +237,19 @@ public class CommentPrepareService {
           @Nonnull List<Comment> list,
           boolean secure
   ) throws UserNotFoundException {
+    Map<Integer, MessageText> texts = msgbaseDao.getMessageText(
+            Lists.newArrayList(Iterables.transform(list, COMMENT_ID))
+    );
+
+    Map<Integer, User> users = userDao.getUsersCachedMap(
+            new HashSet<Integer>(Lists.newArrayList(Iterables.transform(list, COMMENT_USERID)))
+    );
+
     List<PreparedRSSComment> commentsPrepared = new ArrayList<PreparedRSSComment>(list.size());
     for (Comment comment : list) {
-      MessageText messageText = msgbaseDao.getMessageText(comment.getId());
+      MessageText messageText = texts.get(comment.getId());
 
-      commentsPrepared.add(prepareRSSComment(messageText, comment, secure));
+      commentsPrepared.add(prepareRSSComment(messageText, comment, secure, users));
     }
     return commentsPrepared;
   }
@@ -201,7 +257,7 @@ public class CommentPrepareService {
   public List<PreparedComment> prepareCommentList(
           @Nonnull CommentList comments,
           @Nonnull List<Comment> list,
-          boolean secure,
+          final boolean secure,
           @Nonnull Template tmpl,
           @Nonnull Topic topic
   ) throws UserNotFoundException {
@@ -209,22 +265,49 @@ public class CommentPrepareService {
       return ImmutableList.of();
     }
 
-    Map<Integer, MessageText> texts = msgbaseDao.getMessageText(
-            Lists.newArrayList(
-                    Iterables.transform(list, new Function<Comment, Integer>() {
-                      @Override
-                      public Integer apply(Comment comment) {
-                        return comment.getId();
-                      }
-                    })
-            )
+    final Map<Integer, MessageText> texts = msgbaseDao.getMessageText(
+            Lists.newArrayList(Iterables.transform(list, COMMENT_ID))
     );
 
-    List<PreparedComment> commentsPrepared = new ArrayList<PreparedComment>(list.size());
+    /* авторы комментариев и ответов загружаются одним пакетом */
+    Set<Integer> userIds = new HashSet<Integer>();
+    for (Comment comment : list) {
+      userIds.add(comment.getUserid());
+
+      if (comment.getReplyTo() != 0) {
+        Comment reply = comments.getComment(comment.getReplyTo());
+
+        if (reply != null) {
+          userIds.add(reply.getUserid());
+        }
+      }
+    }
+
+    Map<Integer, User> users = userDao.getUsersCachedMap(userIds);
+
+    Map<Integer, Remark> remarks = null;
+    if (tmpl.isSessionAuthorized()) {
+      remarks = userDao.getRemarks(tmpl.getCurrentUser(), userIds);
+    }
+
+    final Set<Integer> nofollow = new HashSet<Integer>();
     for (Comment comment : list) {
-      MessageText text = texts.get(comment.getId());
+      if (!topicPermissionService.followAuthorLinks(getUser(users, comment.getUserid()))) {
+        nofollow.add(comment.getId());
+      }
+    }
 
-      commentsPrepared.add(prepareComment(text, comment, comments, secure, tmpl, topic));
+    /* разбор текстов занимает основное время, на длинных страницах он выполняется параллельно */
+    List<String> processed = renderExecutor.transform(list, new Function<Comment, String>() {
+      @Override
+      public String apply(Comment comment) {
+        return prepareCommentText(comment, texts.get(comment.getId()), secure, nofollow.contains(comment.getId()));
+      }
+    });
+
+    List<PreparedComment> commentsPrepared = new ArrayList<PreparedComment>(list.size());
+    for (int i = 0; i < list.size(); i++) {
+      commentsPrepared.add(prepareComment(processed.get(i), list.get(i), comments, secure, tmpl, topic, users, remarks));
     }
     return commentsPrepared;
   }
@@ -232,13 +315,22 @@ public class CommentPrepareService {
   /**
    * Получить html представление текста комментария
    *
+   * @param comment комментарий
    * @param messageText текст комментария
    * @param secure https соединение?
+   * @param nofollow добавлять rel=nofollow к ссылкам
    * @return строку html комментария
    */
-  private String prepareCommentText(MessageText messageText, final boolean secure, boolean nofollow) {
+  private String prepareCommentText(Comment comment, MessageText messageText, final boolean secure, boolean nofollow) {
     if (messageText.isLorcode()) {
-      return lorCodeService.parseComment(messageText.getText(), secure, nofollow);
+      String html = commentRenderCache.get(comment, secure, nofollow);
+
+      if (html == null) {
+        html = lorCodeService.parseComment(messageText.getText(), secure, nofollow);
+        commentRenderCache.put(comment, secure, nofollow, html);
+      }
+
+      return html;
     } else {
       return "<p>" + messageText.getText() + "</p>";
     }
@@ -0,0 +1,100 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.comment;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import ru.org.linux.spring.commons.CacheProvider;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Кеш html-представления текстов комментариев.
+ *
+ * Два уровня: LRU в памяти JVM и memcached. Ключ содержит id комментария,
+ * количество правок и флаги рендеринга, поэтому после правки комментария
+ * используется новый ключ; старые записи удаляются в {@link #invalidate(Comment)}.
+ */
+@Component
+public class CommentRenderCache {
+  private static final int LOCAL_CACHE_SIZE = 10000;
+  private static final int LOCAL_CACHE_EXPIRE_MINUTES = 60;
+  private static final int MEMCACHED_EXPIRE = 24 * 60 * 60 * 1000;
+
+  @Autowired
+  private CacheProvider cacheProvider;
+
+  private final Cache<String, String> localCache = CacheBuilder.newBuilder()
+          .maximumSize(LOCAL_CACHE_SIZE)
+          .expireAfterAccess(LOCAL_CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES)
+          .<String, String>build();
+
+  private static String makeKey(int msgid, int editCount, boolean secure, boolean nofollow) {
+    return "commentHtml?msgid=" + msgid + "&edit=" + editCount + "&secure=" + secure + "&nofollow=" + nofollow;
+  }
+
+  /**
+   * Получить html комментария из кеша
+   *
+   * @param comment  комментарий
+   * @param secure   https соединение?
+   * @param nofollow добавлять rel=nofollow к ссылкам
+   * @return html или null если в кеше нет
+   */
+  @Nullable
+  public String get(@Nonnull Comment comment, boolean secure, boolean nofollow) {
+    String key = makeKey(comment.getId(), comment.getEditCount(), secure, nofollow);
+
+    String html = localCache.getIfPresent(key);
+
+    if (html == null) {
+      html = (String) cacheProvider.getFromCache(key);
+
+      if (html != null) {
+        localCache.put(key, html);
+      }
+    }
+
+    return html;
+  }
+
+  public void put(@Nonnull Comment comment, boolean secure, boolean nofollow, @Nonnull String html) {
+    String key = makeKey(comment.getId(), comment.getEditCount(), secure, nofollow);
+
+    localCache.put(key, html);
+    cacheProvider.storeToCache(key, html, MEMCACHED_EXPIRE);
+  }
+
+  /**
+   * Удалить из кеша все варианты html комментария с текущим количеством правок
+   *
+   * @param comment комментарий до изменения
+   */
+  public void invalidate(@Nonnull Comment comment) {
+    for (boolean secure : new boolean[] { false, true }) {
+      for (boolean nofollow : new boolean[] { false, true }) {
+        String key = makeKey(comment.getId(), comment.getEditCount(), secure, nofollow);
+
+        localCache.invalidate(key);
+        cacheProvider.removeFromCache(key);
+      }
+    }
+  }
+}
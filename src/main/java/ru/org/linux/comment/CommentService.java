@@ -16,6 +16,7 @@
 
 package ru.org.linux.comment;
 
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableSet;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -25,7 +26,6 @@ import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.validation.Errors;
 import org.springframework.web.bind.WebDataBinder;
-import org.xbill.DNS.TextParseException;
 import ru.org.linux.auth.CaptchaService;
 import ru.org.linux.auth.FloodProtector;
 import ru.org.linux.auth.IPBlockDao;
@@ -34,11 +34,11 @@ import ru.org.linux.csrf.CSRFProtectionService;
 import ru.org.linux.edithistory.EditHistoryDto;
 import ru.org.linux.edithistory.EditHistoryObjectTypeEnum;
 import ru.org.linux.edithistory.EditHistoryService;
-import ru.org.linux.site.MemCachedSettings;
 import ru.org.linux.site.MessageNotFoundException;
 import ru.org.linux.site.ScriptErrorException;
 import ru.org.linux.site.Template;
 import ru.org.linux.spring.commons.CacheProvider;
+import ru.org.linux.spring.commons.SingleFlightCache;
 import ru.org.linux.spring.dao.MessageText;
 import ru.org.linux.spring.dao.MsgbaseDao;
 import ru.org.linux.topic.Topic;
@@ -53,9 +53,9 @@ import ru.org.linux.util.formatter.ToLorCodeTexFormatter;
 import javax.annotation.Nonnull;
 import javax.servlet.http.HttpServletRequest;
 import java.beans.PropertyEditorSupport;
-import java.net.UnknownHostException;
 import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -65,6 +65,13 @@ import java.util.Set;
 public class CommentService {
   private static final Log logger = LogFactory.getLog(CommentService.class);
 
+  /**
+   * Запас времени при поиске изменений списка комментариев: перекрывает
+   * долгие транзакции и расхождение часов JVM и базы (edit_date ставится из JVM).
+   * Удаления из еще более долгих транзакций ловит сверка с числом комментариев топика.
+   */
+  private static final long COMMENT_DELTA_WINDOW = 10 * 60 * 1000;
+
   @Autowired
   private CommentDao commentDao;
 
@@ -89,6 +96,9 @@ public class CommentService {
   @Autowired
   private FloodProtector floodProtector;
 
+  @Autowired
+  private IPBlockDao ipBlockDao;
+
   @Autowired
   private LorCodeService lorCodeService;
 
@@ -107,6 +117,15 @@ public class CommentService {
   @Autowired
   private TopicDao topicDao;
 
+  @Autowired
+  private CommentRenderCache commentRenderCache;
+
+  @Autowired
+  private CacheProvider cacheProvider;
+
+  @Autowired
+  private SingleFlightCache singleFlightCache;
+
   public void requestValidator(WebDataBinder binder) {
     binder.setValidator(new CommentRequestValidator());
     binder.setBindingErrorProcessor(new ExceptionBindingErrorProcessor());
@@ -152,8 +171,6 @@ public class CommentService {
    * @param request         данные запроса от web-клиента
    * @param errors          обработчик ошибок ввода для формы
    * @throws UserNotFoundException
-   * @throws UnknownHostException
-   * @throws TextParseException
    */
   public void checkPostData(
     CommentRequest commentRequest,
@@ -161,9 +178,7 @@ public class CommentService {
     IPBlockInfo ipBlockInfo,
     HttpServletRequest request,
     Errors errors
-  ) throws
-    UnknownHostException,
-    TextParseException {
+  ) {
     if (commentRequest.getMsg() == null) {
       errors.rejectValue("msg", null, "комментарий не задан");
       commentRequest.setMsg("");
@@ -186,10 +201,10 @@ public class CommentService {
 
     user.checkBlocked(errors);
 
-    IPBlockDao.checkBlockIP(ipBlockInfo, errors, user);
+    ipBlockDao.checkBlockIP(ipBlockInfo, errors, user);
 
     if (!commentRequest.isPreviewMode() && !errors.hasErrors()) {
-      floodProtector.checkDuplication(request.getRemoteAddr(), user.getScore() > 100, errors);
+      floodProtector.checkDuplication(request.getRemoteAddr(), user, user.getScore() > 100, errors);
     }
   }
 
@@ -377,6 +392,7 @@ public class CommentService {
     String xForwardedFor
   ) {
     commentDao.edit(oldComment, newComment, commentBody);
+    commentRenderCache.invalidate(oldComment);
 
     /* кастование пользователей */
     Set<User> newUserRefs = lorCodeService.getReplierFromMessage(commentBody);
@@ -471,6 +487,9 @@ public class CommentService {
       comment.getPostdate(),
       editHistoryDtoList.size()
     );
+
+    /* информация о редакторе должна попасть в закешированный список комментариев */
+    topicDao.updateLastModifiedToCurrentTime(original.getTopicId());
   }
 
   /**
@@ -509,6 +528,10 @@ public class CommentService {
     return commentDao.getCommentList(topicId, showDeleted);
   }
 
+  private static String getCommentListCacheId(Topic topic, boolean showDeleted) {
+    return "commentList?msgid=" + topic.getMessageId() + "&showDeleted=" + showDeleted;
+  }
+
   /**
    * Список комментариев топика.
    *
@@ -517,21 +540,76 @@ public class CommentService {
    * @return список комментариев топика
    */
   @Nonnull
-  public CommentList getCommentList(@Nonnull Topic topic, boolean showDeleted) {
-    CacheProvider mcc = MemCachedSettings.getCache();
+  public CommentList getCommentList(@Nonnull final Topic topic, final boolean showDeleted) {
+    final String cacheId = getCommentListCacheId(topic, showDeleted);
+
+    CommentList commentList = (CommentList) cacheProvider.getFromCache(cacheId);
+    final long lastmod = topic.getLastModified().getTime();
+
+    if (commentList == null) {
+      /* комментарии популярного топика загружает один поток */
+      commentList = singleFlightCache.load(cacheId + "&lastmod=" + lastmod, new Supplier<CommentList>() {
+        @Override
+        public CommentList get() {
+          CommentList loaded = new CommentList(getCommentList(topic.getId(), showDeleted), lastmod);
+          cacheProvider.storeToCache(cacheId, loaded);
+          return loaded;
+        }
+      });
+    } else if (commentList.getLastmod() != lastmod) {
+      /* дочитываем только то, что изменилось после построения закешированного списка */
+      List<Comment> delta = commentDao.getCommentListDelta(
+        topic.getId(),
+        commentList.getLastMsgid(),
+        new Timestamp(commentList.getLastmod() - COMMENT_DELTA_WINDOW)
+      );
 
-    String cacheId = "commentList?msgid=" + topic.getMessageId() + "&showDeleted=" + showDeleted;
+      commentList = commentList.applyDelta(delta, showDeleted, lastmod);
 
-    CommentList commentList = (CommentList) mcc.getFromCache(cacheId);
+      if (!showDeleted && commentList.getList().size() != topic.getCommentCount()) {
+        /* изменение не попало в окно, например удаление из долгой транзакции */
+        logger.debug("Comment list delta mismatch for topic " + topic.getId() + ", reloading");
+        commentList = new CommentList(getCommentList(topic.getId(), false), lastmod);
+      }
 
-    if (commentList == null || commentList.getLastmod() != topic.getLastModified().getTime()) {
-      commentList = new CommentList(getCommentList(topic.getId(), showDeleted), topic.getLastModified().getTime());
-      mcc.storeToCache(cacheId, commentList);
+      cacheProvider.storeToCache(cacheId, commentList);
     }
 
     return commentList;
   }
 
+  /**
+   * Номер страницы, на которой показывается комментарий.
+   *
+   * Если актуальный список комментариев топика есть в кеше, страница берется из
+   * его индекса, иначе позиция комментария считается в БД без загрузки всего топика.
+   *
+   * @param topic   топик
+   * @param msgid   id комментария
+   * @param profile настройки пользователя
+   * @return номер страницы или -1 если комментария нет или он удален
+   */
+  public int getCommentPage(@Nonnull Topic topic, int msgid, @Nonnull ProfileProperties profile) {
+    CommentList commentList = (CommentList) cacheProvider.getFromCache(getCommentListCacheId(topic, false));
+
+    int position;
+    int size;
+
+    if (commentList != null && commentList.getLastmod() == topic.getLastModified().getTime()) {
+      position = commentList.getPosition(msgid);
+      size = commentList.getList().size();
+    } else {
+      position = commentDao.getCommentPosition(topic.getId(), msgid);
+      size = topic.getCommentCount();
+    }
+
+    if (position == -1) {
+      return -1;
+    }
+
+    return CommentList.getCommentPage(position, size, profile.getMessages(), profile.isShowNewFirst());
+  }
+
   /**
    * Удаление ответов на комментарии.
    *
@@ -653,20 +731,20 @@ public class CommentService {
       return ImmutableSet.of();
     }
 
-    Set<Integer> hideSet = new HashSet<Integer>();
+    BitSet hidden = new BitSet(comments.getList().size());
 
     /* hide anonymous */
     if ((filterChain & CommentFilter.FILTER_ANONYMOUS) > 0) {
-      comments.getRoot().hideAnonymous(userDao, hideSet);
+      comments.hideAnonymous(userDao, hidden);
     }
 
     /* hide ignored */
     if ((filterChain & CommentFilter.FILTER_IGNORED) > 0) {
       if (ignoreList != null && !ignoreList.isEmpty()) {
-        comments.getRoot().hideIgnored(hideSet, ignoreList);
+        comments.hideIgnored(ignoreList, hidden);
       }
     }
 
-    return hideSet;
+    return comments.getMessageIds(hidden);
   }
 }
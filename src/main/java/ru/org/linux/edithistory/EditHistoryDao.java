@@ -15,10 +15,13 @@
 
 package ru.org.linux.edithistory;
 
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.namedparam.BeanPropertySqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Repository;
 
@@ -26,6 +29,7 @@ import javax.sql.DataSource;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
@@ -33,11 +37,13 @@ public class EditHistoryDao {
   private static final String queryEditInfo = "SELECT * FROM edit_info WHERE msgid=? AND object_type = ?::edit_event_type ORDER BY id DESC";
 
   private JdbcTemplate jdbcTemplate;
+  private NamedParameterJdbcTemplate namedJdbcTemplate;
   private SimpleJdbcInsert editInsert;
 
   @Autowired
   public void setDataSource(DataSource dataSource) {
     jdbcTemplate = new JdbcTemplate(dataSource);
+    namedJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
 
       editInsert =
       new SimpleJdbcInsert(dataSource)
@@ -69,27 +75,7 @@ public class EditHistoryDao {
     jdbcTemplate.query(queryEditInfo, new RowCallbackHandler() {
       @Override
       public void processRow(ResultSet resultSet) throws SQLException {
-        EditHistoryDto editHistoryDto = new EditHistoryDto();
-        editHistoryDto.setId(resultSet.getInt("id"));
-        editHistoryDto.setMsgid(resultSet.getInt("msgid"));
-        editHistoryDto.setEditor(resultSet.getInt("editor"));
-        editHistoryDto.setOldmessage(resultSet.getString("oldmessage"));
-        editHistoryDto.setEditdate(resultSet.getTimestamp("editdate"));
-        editHistoryDto.setOldtitle(resultSet.getString("oldtitle"));
-        editHistoryDto.setOldtags(resultSet.getString("oldtags"));
-        editHistoryDto.setObjectType(resultSet.getString("object_type"));
-
-        editHistoryDto.setOldimage(resultSet.getInt("oldimage"));
-        if (resultSet.wasNull()) {
-          editHistoryDto.setOldimage(null);
-        }
-
-        editHistoryDto.setOldminor(resultSet.getBoolean("oldminor"));
-        if (resultSet.wasNull()) {
-          editHistoryDto.setOldminor(null);
-        }
-
-        editInfoDTOs.add(editHistoryDto);
+        editInfoDTOs.add(mapEditInfo(resultSet));
       }
     },
       id,
@@ -98,6 +84,59 @@ public class EditHistoryDao {
     return editInfoDTOs;
   }
 
+  /**
+   * Получить информацию о редактировании нескольких топиков/комментариев одним запросом.
+   *
+   * @param ids id топиков или комментариев
+   * @param objectTypeEnum тип: топик или комментарий
+   * @return списки изменений по id, в том же порядке, что и {@link #getEditInfo(int, EditHistoryObjectTypeEnum)}
+   */
+  public ImmutableListMultimap<Integer, EditHistoryDto> getEditInfo(Collection<Integer> ids, EditHistoryObjectTypeEnum objectTypeEnum) {
+    final ImmutableListMultimap.Builder<Integer, EditHistoryDto> editInfo = ImmutableListMultimap.builder();
+
+    if (ids.isEmpty()) {
+      return editInfo.build();
+    }
+
+    namedJdbcTemplate.query(
+      "SELECT * FROM edit_info WHERE msgid IN (:list) AND object_type = :type::edit_event_type ORDER BY id DESC",
+      ImmutableMap.of("list", ids, "type", objectTypeEnum.toString()),
+      new RowCallbackHandler() {
+        @Override
+        public void processRow(ResultSet resultSet) throws SQLException {
+          EditHistoryDto editHistoryDto = mapEditInfo(resultSet);
+          editInfo.put(editHistoryDto.getMsgid(), editHistoryDto);
+        }
+      }
+    );
+
+    return editInfo.build();
+  }
+
+  private static EditHistoryDto mapEditInfo(ResultSet resultSet) throws SQLException {
+    EditHistoryDto editHistoryDto = new EditHistoryDto();
+    editHistoryDto.setId(resultSet.getInt("id"));
+    editHistoryDto.setMsgid(resultSet.getInt("msgid"));
+    editHistoryDto.setEditor(resultSet.getInt("editor"));
+    editHistoryDto.setOldmessage(resultSet.getString("oldmessage"));
+    editHistoryDto.setEditdate(resultSet.getTimestamp("editdate"));
+    editHistoryDto.setOldtitle(resultSet.getString("oldtitle"));
+    editHistoryDto.setOldtags(resultSet.getString("oldtags"));
+    editHistoryDto.setObjectType(resultSet.getString("object_type"));
+
+    editHistoryDto.setOldimage(resultSet.getInt("oldimage"));
+    if (resultSet.wasNull()) {
+      editHistoryDto.setOldimage(null);
+    }
+
+    editHistoryDto.setOldminor(resultSet.getBoolean("oldminor"));
+    if (resultSet.wasNull()) {
+      editHistoryDto.setOldminor(null);
+    }
+
+    return editHistoryDto;
+  }
+
   /**
    *
    * @param editHistoryDto
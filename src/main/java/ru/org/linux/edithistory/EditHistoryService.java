@@ -15,6 +15,7 @@
 
 package ru.org.linux.edithistory;
 
+import com.google.common.collect.ImmutableListMultimap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import ru.org.linux.comment.Comment;
@@ -28,6 +29,7 @@ import ru.org.linux.user.UserNotFoundException;
 import ru.org.linux.util.bbcode.LorCodeService;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 @Service
@@ -207,6 +209,10 @@ public class EditHistoryService {
     return editHistoryDao.getEditInfo(id, objectTypeEnum);
   }
 
+  public ImmutableListMultimap<Integer, EditHistoryDto> getEditInfo(Collection<Integer> ids, EditHistoryObjectTypeEnum objectTypeEnum) {
+    return editHistoryDao.getEditInfo(ids, objectTypeEnum);
+  }
+
   public void insert(EditHistoryDto editHistoryDto) {
     editHistoryDao.insert(editHistoryDto);
   }
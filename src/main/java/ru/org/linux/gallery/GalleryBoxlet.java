@@ -20,22 +20,22 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.servlet.ModelAndView;
 import ru.org.linux.spring.boxlets.AbstractBoxlet;
+import ru.org.linux.spring.boxlets.BoxletDataService;
 
 import javax.servlet.http.HttpServletRequest;
 import java.util.List;
 
 @Controller
 public class GalleryBoxlet extends AbstractBoxlet {
-  private static final int COUNT_ITEMS = 3;
   @Autowired
-  private ImageDao imageDao;
+  private BoxletDataService boxletDataService;
 
   @Override
   @RequestMapping("/gallery.boxlet")
   protected ModelAndView getData(HttpServletRequest request) throws Exception {
     ModelAndView mav = new ModelAndView();
     mav.setViewName("boxlets/gallery");
-    List<PreparedGalleryItem> list = imageDao.prepare(imageDao.getGalleryItems(COUNT_ITEMS));
+    List<PreparedGalleryItem> list = boxletDataService.getGallery();
     mav.addObject("items", list);
     return mav;
   }
@@ -1,5 +1,8 @@
 package ru.org.linux.gallery;
 
+import ru.org.linux.util.ImageInfo;
+
+import javax.annotation.Nullable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -11,11 +14,36 @@ public class Image {
   private final String original;
   private final String icon;
 
+  /* размеры, сохраненные при загрузке; null - еще не сохранены */
+  private final ImageInfo originalInfo;
+  private final ImageInfo mediumInfo;
+  private final ImageInfo iconInfo;
+
   public Image(int id, int topicId, String original, String icon) {
+    this(id, topicId, original, icon, null, null, null);
+  }
+
+  /**
+   * @param originalInfo размеры оригинала или null, если они не сохранены
+   * @param mediumInfo   размеры среднего изображения или null, если его нет
+   * @param iconInfo     размеры иконки
+   */
+  public Image(
+          int id,
+          int topicId,
+          String original,
+          String icon,
+          @Nullable ImageInfo originalInfo,
+          @Nullable ImageInfo mediumInfo,
+          @Nullable ImageInfo iconInfo
+  ) {
     this.id = id;
     this.topicId = topicId;
     this.original = original;
     this.icon = icon;
+    this.originalInfo = originalInfo;
+    this.mediumInfo = mediumInfo;
+    this.iconInfo = iconInfo;
   }
 
   public int getId() {
@@ -34,6 +62,28 @@ public class Image {
     return icon;
   }
 
+  /**
+   * Сохранены ли размеры изображения; если нет, их нужно читать из файлов
+   */
+  public boolean isInfoStored() {
+    return originalInfo != null && iconInfo != null;
+  }
+
+  @Nullable
+  public ImageInfo getOriginalInfo() {
+    return originalInfo;
+  }
+
+  @Nullable
+  public ImageInfo getMediumInfo() {
+    return mediumInfo;
+  }
+
+  @Nullable
+  public ImageInfo getIconInfo() {
+    return iconInfo;
+  }
+
   public String getMedium() {
     return getMediumName(original);
   }
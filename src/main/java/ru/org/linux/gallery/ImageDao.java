@@ -16,11 +16,14 @@
 package ru.org.linux.gallery;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 import ru.org.linux.section.Section;
 import ru.org.linux.section.SectionService;
@@ -34,23 +37,32 @@ import ru.org.linux.util.ImageInfo;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.sql.DataSource;
+import java.io.File;
 import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 @Repository
 public class ImageDao {
   private static final Log logger = LogFactory.getLog(ImageDao.class);
 
+  private static final String queryImageColumns =
+          "images.id, images.topic, images.original, images.icon, images.width, images.height, images.size, " +
+          "images.medium_width, images.medium_height, images.icon_width, images.icon_height";
+
   @Autowired
   private SectionService sectionService;
 
   private JdbcTemplate jdbcTemplate;
+  private NamedParameterJdbcTemplate namedJdbcTemplate;
 
   @Autowired
   public void setDataSource(DataSource dataSource) {
     jdbcTemplate = new JdbcTemplate(dataSource);
+    namedJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
   }
 
   @Autowired
@@ -68,7 +80,7 @@ public class ImageDao {
     final Section gallery = sectionService.getSection(Section.SECTION_GALLERY);
 
     String sql = "SELECT topics.id as msgid, " +
-      " topics.stat1, topics.title, images.icon, images.original, userid, urlname, images.id as imageid " +
+      " topics.stat1, topics.title, userid, urlname, " + queryImageColumns + " " +
       "FROM topics " +
       " JOIN groups ON topics.groupid = groups.id " +
       " JOIN images ON topics.id = images.topic "+
@@ -83,14 +95,7 @@ public class ImageDao {
           item.setStat(rs.getInt("stat1"));
           item.setTitle(rs.getString("title"));
 
-          Image image = new Image(
-                  rs.getInt("imageid"),
-                  rs.getInt("msgid"),
-                  rs.getString("original"),
-                  rs.getString("icon")
-          );
-
-          item.setImage(image);
+          item.setImage(ImageRowMapper.INSTANCE.mapRow(rs, rowNum));
 
           item.setUserid(rs.getInt("userid"));
           item.setStat(rs.getInt("stat1"));
@@ -104,14 +109,18 @@ public class ImageDao {
   }
 
   public List<PreparedGalleryItem> prepare(List<GalleryItem> items) {
-    String htmlPath = configuration.getHTMLPathPrefix();
-
     ImmutableList.Builder<PreparedGalleryItem> builder = ImmutableList.builder();
 
     for (GalleryItem item : items) {
       try {
-        ImageInfo iconInfo = new ImageInfo(htmlPath + item.getImage().getIcon());
-        ImageInfo fullInfo = new ImageInfo(htmlPath + item.getImage().getOriginal());
+        Image image = item.getImage();
+
+        if (!image.isInfoStored()) {
+          image = readInfo(image);
+        }
+
+        ImageInfo iconInfo = image.getIconInfo();
+        ImageInfo fullInfo = image.getOriginalInfo();
 
         builder.add(new PreparedGalleryItem(
                 item,
@@ -129,11 +138,49 @@ public class ImageDao {
     return builder.build();
   }
 
+  /**
+   * Прочитать размеры изображения из файлов.
+   * Используется для изображений, размеры которых еще не сохранены в БД.
+   *
+   * @param image изображение
+   * @return изображение с размерами
+   */
+  @Nonnull
+  public Image readInfo(@Nonnull Image image) throws BadImageException, IOException {
+    String htmlPath = configuration.getHTMLPathPrefix();
+
+    File originalFile = new File(htmlPath + image.getOriginal());
+    ImageInfo originalInfo = new ImageInfo(originalFile, ImageInfo.detectImageType(originalFile));
+    ImageInfo iconInfo = new ImageInfo(htmlPath + image.getIcon());
+
+    ImageInfo mediumInfo = null;
+
+    try {
+      File mediumFile = new File(htmlPath, image.getMedium());
+
+      if (mediumFile.exists()) {
+        mediumInfo = new ImageInfo(mediumFile, "jpg");
+      }
+    } catch (IllegalArgumentException ex) {
+      /* изображения вне галереи не имеют среднего размера */
+    }
+
+    return new Image(
+            image.getId(),
+            image.getTopicId(),
+            image.getOriginal(),
+            image.getIcon(),
+            originalInfo,
+            mediumInfo,
+            iconInfo
+    );
+  }
+
   @Nullable
   public Image imageForTopic(@Nonnull Topic topic) {
     List<Image> found = jdbcTemplate.query(
-            "SELECT id, topic, original, icon FROM images WHERE topic=? AND NOT deleted",
-            new ImageRowMapper(),
+            "SELECT " + queryImageColumns + " FROM images WHERE topic=? AND NOT deleted",
+            ImageRowMapper.INSTANCE,
             topic.getId()
     );
 
@@ -146,27 +193,147 @@ public class ImageDao {
     }
   }
 
+  /**
+   * Изображения нескольких топиков одним запросом
+   *
+   * @param topicIds id топиков
+   * @return изображения по id топика; топиков без изображения в ответе нет
+   */
+  public Map<Integer, Image> imagesForTopics(Collection<Integer> topicIds) {
+    if (topicIds.isEmpty()) {
+      return ImmutableMap.of();
+    }
+
+    List<Image> found = namedJdbcTemplate.query(
+            "SELECT " + queryImageColumns + " FROM images WHERE topic IN (:list) AND NOT deleted",
+            ImmutableMap.of("list", topicIds),
+            ImageRowMapper.INSTANCE
+    );
+
+    Map<Integer, Image> images = Maps.newHashMapWithExpectedSize(found.size());
+
+    for (Image image : found) {
+      if (images.put(image.getTopicId(), image) != null) {
+        throw new RuntimeException("Too many images for topic="+image.getTopicId());
+      }
+    }
+
+    return images;
+  }
+
   @Nonnull
   public Image getImage(int id) {
     return jdbcTemplate.queryForObject(
-            "SELECT id, topic, original, icon FROM images WHERE id=?",
-            new ImageRowMapper(),
+            "SELECT " + queryImageColumns + " FROM images WHERE id=?",
+            ImageRowMapper.INSTANCE,
             id
     );
   }
 
-  public void saveImage(int topicId, String original, String icon) {
-    jdbcTemplate.update("INSERT INTO images (topic, original, icon) VALUES (?,?,?)", topicId, original, icon);
+  /**
+   * Сохранить изображение топика вместе с размерами файлов
+   *
+   * @param topicId      id топика
+   * @param original     путь к оригиналу
+   * @param icon         путь к иконке
+   * @param originalInfo размеры оригинала
+   * @param mediumInfo   размеры среднего изображения
+   * @param iconInfo     размеры иконки
+   */
+  public void saveImage(
+          int topicId,
+          String original,
+          String icon,
+          @Nonnull ImageInfo originalInfo,
+          @Nullable ImageInfo mediumInfo,
+          @Nonnull ImageInfo iconInfo
+  ) {
+    jdbcTemplate.update(
+            "INSERT INTO images (topic, original, icon, width, height, size, medium_width, medium_height, icon_width, icon_height) " +
+                    "VALUES (?,?,?,?,?,?,?,?,?,?)",
+            topicId,
+            original,
+            icon,
+            originalInfo.getWidth(),
+            originalInfo.getHeight(),
+            originalInfo.getSize(),
+            mediumInfo != null ? mediumInfo.getWidth() : null,
+            mediumInfo != null ? mediumInfo.getHeight() : null,
+            iconInfo.getWidth(),
+            iconInfo.getHeight()
+    );
+  }
+
+  /**
+   * Изображения, размеры которых не сохранены в БД
+   *
+   * @param afterId  id, после которого начинать
+   * @param limit    сколько изображений выбрать
+   * @return изображения в порядке id
+   */
+  public List<Image> getImagesWithoutInfo(int afterId, int limit) {
+    return jdbcTemplate.query(
+            "SELECT " + queryImageColumns + " FROM images WHERE width IS NULL AND id>? ORDER BY id LIMIT ?",
+            ImageRowMapper.INSTANCE,
+            afterId,
+            limit
+    );
+  }
+
+  /**
+   * Сохранить размеры файлов изображения
+   *
+   * @param image изображение с размерами
+   */
+  public void updateInfo(@Nonnull Image image) {
+    ImageInfo mediumInfo = image.getMediumInfo();
+
+    jdbcTemplate.update(
+            "UPDATE images SET width=?, height=?, size=?, medium_width=?, medium_height=?, icon_width=?, icon_height=? WHERE id=?",
+            image.getOriginalInfo().getWidth(),
+            image.getOriginalInfo().getHeight(),
+            image.getOriginalInfo().getSize(),
+            mediumInfo != null ? mediumInfo.getWidth() : null,
+            mediumInfo != null ? mediumInfo.getHeight() : null,
+            image.getIconInfo().getWidth(),
+            image.getIconInfo().getHeight(),
+            image.getId()
+    );
   }
 
   private static class ImageRowMapper implements RowMapper<Image> {
+    private static final ImageRowMapper INSTANCE = new ImageRowMapper();
+
     @Override
     public Image mapRow(ResultSet rs, int i) throws SQLException {
+      String original = rs.getString("original");
+      String icon = rs.getString("icon");
+
+      ImageInfo originalInfo = null;
+      ImageInfo mediumInfo = null;
+      ImageInfo iconInfo = null;
+
+      int width = rs.getInt("width");
+
+      if (!rs.wasNull()) {
+        originalInfo = new ImageInfo(original, width, rs.getInt("height"), rs.getInt("size"));
+        iconInfo = new ImageInfo(icon, rs.getInt("icon_width"), rs.getInt("icon_height"), 0);
+
+        int mediumWidth = rs.getInt("medium_width");
+
+        if (!rs.wasNull()) {
+          mediumInfo = new ImageInfo(null, mediumWidth, rs.getInt("medium_height"), 0);
+        }
+      }
+
       return new Image(
               rs.getInt("id"),
               rs.getInt("topic"),
-              rs.getString("original"),
-              rs.getString("icon")
+              original,
+              icon,
+              originalInfo,
+              mediumInfo,
+              iconInfo
       );
     }
   }
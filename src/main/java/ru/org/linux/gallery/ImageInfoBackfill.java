@@ -0,0 +1,83 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.gallery;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.org.linux.util.BadImageException;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Сохранение в БД размеров изображений, загруженных до того, как размеры
+ * стали сохраняться при загрузке.
+ *
+ * Изображения обрабатываются пачками по расписанию, пока не останется изображений
+ * без размеров. Изображения с отсутствующими или испорченными файлами пропускаются
+ * до перезапуска приложения; для них размеры по-прежнему читаются из файлов при показе.
+ */
+@Component
+public class ImageInfoBackfill {
+  private static final Log logger = LogFactory.getLog(ImageInfoBackfill.class);
+
+  private static final int BATCH_SIZE = 100;
+
+  @Autowired
+  private ImageDao imageDao;
+
+  private volatile int lastId = 0;
+  private volatile boolean done = false;
+
+  @Scheduled(fixedDelay = 60 * 1000)
+  public void backfill() {
+    if (done) {
+      return;
+    }
+
+    try {
+      List<Image> images = imageDao.getImagesWithoutInfo(lastId, BATCH_SIZE);
+
+      if (images.isEmpty()) {
+        logger.info("Image info backfill finished");
+        done = true;
+        return;
+      }
+
+      int updated = 0;
+
+      for (Image image : images) {
+        lastId = image.getId();
+
+        try {
+          imageDao.updateInfo(imageDao.readInfo(image));
+          updated++;
+        } catch (BadImageException ex) {
+          logger.warn("Bad image id=" + image.getId() + ": " + ex.getMessage());
+        } catch (IOException ex) {
+          logger.warn("Can't read image id=" + image.getId() + ": " + ex.getMessage());
+        }
+      }
+
+      logger.info("Image info backfill: " + updated + " of " + images.size() + " images updated, last id=" + lastId);
+    } catch (RuntimeException ex) {
+      logger.warn("Image info backfill failed", ex);
+    }
+  }
+}
@@ -19,7 +19,7 @@ import org.apache.commons.io.FileUtils;
 import org.springframework.validation.Errors;
 import ru.org.linux.util.BadImageException;
 import ru.org.linux.util.ImageInfo;
-import ru.org.linux.util.UtilException;
+import ru.org.linux.util.ImageResizer;
 
 import java.io.File;
 import java.io.IOException;
@@ -34,10 +34,15 @@ public class Screenshot {
   private final File iconFile;
   private final String extension;
 
+  /* размеры файлов; определяются один раз при загрузке и сохраняются в images */
+  private ImageInfo mainInfo;
+  private ImageInfo mediumInfo;
+  private ImageInfo iconInfo;
+
   private static final int ICON_WIDTH = 200;
   private static final int MEDIUM_WIDTH = 500;
 
-  public static Screenshot createScreenshot(File file, Errors errors, String dir) throws IOException, BadImageException, UtilException {
+  public static Screenshot createScreenshot(File file, Errors errors, String dir) throws IOException, BadImageException {
     boolean error = false;
 
     if (!file.isFile()) {
@@ -78,6 +83,7 @@ public class Screenshot {
         Screenshot scrn = new Screenshot(name, dir, extension);
 
         scrn.doResize(file);
+        scrn.readInfo(info);
 
         return scrn;
       } finally {
@@ -107,10 +113,20 @@ public class Screenshot {
     FileUtils.moveFile(iconFile, dest.iconFile);
     FileUtils.moveFile(mediumFile, dest.mediumFile);
 
+    dest.mainInfo = mainInfo;
+    dest.mediumInfo = mediumInfo;
+    dest.iconInfo = iconInfo;
+
     return dest;
   }
 
-  private void doResize(File uploadedFile) throws IOException, UtilException {
+  private void readInfo(ImageInfo uploadedInfo) throws IOException, BadImageException {
+    mainInfo = new ImageInfo(mainFile.getName(), uploadedInfo.getWidth(), uploadedInfo.getHeight(), (int) mainFile.length());
+    mediumInfo = new ImageInfo(mediumFile, "jpg");
+    iconInfo = new ImageInfo(iconFile, "jpg");
+  }
+
+  private void doResize(File uploadedFile) throws IOException, BadImageException {
     if (mainFile.exists()) {
       mainFile.delete();
     }
@@ -120,11 +136,12 @@ public class Screenshot {
     boolean error = true;
 
     try {
-      ImageInfo.resizeImage(mainFile.getAbsolutePath(), iconFile.getAbsolutePath(), ICON_WIDTH);
-      ImageInfo.resizeImage(mainFile.getAbsolutePath(), mediumFile.getAbsolutePath(), MEDIUM_WIDTH);
+      ImageResizer.resize(
+              mainFile,
+              new File[] { mediumFile, iconFile },
+              new int[] { MEDIUM_WIDTH, ICON_WIDTH }
+      );
       error = false;
-    } catch (InterruptedException e) {
-      Thread.currentThread().interrupt();
     } finally {
       if (error) {
         if (mainFile.exists()) {
@@ -136,7 +153,7 @@ public class Screenshot {
         }
 
         if (mediumFile.exists()) {
-          iconFile.delete();
+          mediumFile.delete();
         }
       }
     }
@@ -149,4 +166,16 @@ public class Screenshot {
   public File getIconFile() {
     return iconFile;
   }
+
+  public ImageInfo getMainInfo() {
+    return mainInfo;
+  }
+
+  public ImageInfo getMediumInfo() {
+    return mediumInfo;
+  }
+
+  public ImageInfo getIconInfo() {
+    return iconInfo;
+  }
 }
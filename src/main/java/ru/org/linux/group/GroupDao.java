@@ -15,12 +15,17 @@
 
 package ru.org.linux.group;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataAccessException;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 import ru.org.linux.section.Section;
 
@@ -28,15 +33,21 @@ import javax.sql.DataSource;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 @Repository
 public class GroupDao {
+  private static final String queryGroupColumns = "SELECT sections.moderate, vote, section, havelink, linktext, title, urlname, image, groups.restrict_topics, restrict_comments,stat1,stat3,groups.id, groups.info, groups.longinfo, groups.resolvable FROM groups, sections ";
+
   private final JdbcTemplate jdbcTemplate;
+  private final NamedParameterJdbcTemplate namedJdbcTemplate;
 
   @Autowired
   public GroupDao(DataSource ds) {
     jdbcTemplate = new JdbcTemplate(ds);
+    namedJdbcTemplate = new NamedParameterJdbcTemplate(ds);
   }
 
   /**
@@ -49,7 +60,7 @@ public class GroupDao {
   public Group getGroup(int id) throws BadGroupException {
     try {
       return jdbcTemplate.queryForObject(
-        "SELECT sections.moderate, vote, section, havelink, linktext, title, urlname, image, groups.restrict_topics, restrict_comments,stat1,stat3,groups.id, groups.info, groups.longinfo, groups.resolvable FROM groups, sections WHERE groups.id=? AND groups.section=sections.id",
+        queryGroupColumns + "WHERE groups.id=? AND groups.section=sections.id",
         new RowMapper<Group>() {
           @Override
           public Group mapRow(ResultSet resultSet, int i) throws SQLException {
@@ -62,6 +73,41 @@ public class GroupDao {
       throw new BadGroupException("Группа " + id + " не существует", ex);
     }
   }
+  /**
+   * Получить несколько групп одним запросом.
+   *
+   * @param ids идентификаторы групп (допускаются повторы)
+   * @return группы по идентификаторам
+   * @throws BadGroupException если какой-то группы не существует
+   */
+  public Map<Integer, Group> getGroups(Collection<Integer> ids) throws BadGroupException {
+    if (ids.isEmpty()) {
+      return ImmutableMap.of();
+    }
+
+    final Map<Integer, Group> groups = Maps.newHashMapWithExpectedSize(ids.size());
+
+    namedJdbcTemplate.query(
+      queryGroupColumns + "WHERE groups.id IN (:list) AND groups.section=sections.id",
+      ImmutableMap.of("list", ImmutableSet.copyOf(ids)),
+      new RowCallbackHandler() {
+        @Override
+        public void processRow(ResultSet resultSet) throws SQLException {
+          Group group = Group.buildGroup(resultSet);
+          groups.put(group.getId(), group);
+        }
+      }
+    );
+
+    for (Integer id : ids) {
+      if (!groups.containsKey(id)) {
+        throw new BadGroupException("Группа " + id + " не существует");
+      }
+    }
+
+    return groups;
+  }
+
 
   /**
    * Получить спусок групп в указанной секции.
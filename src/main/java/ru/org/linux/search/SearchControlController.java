@@ -25,13 +25,14 @@ import org.springframework.web.servlet.ModelAndView;
 import ru.org.linux.topic.TopicDao;
 
 import javax.servlet.ServletRequest;
-import java.sql.Timestamp;
 import java.util.Calendar;
 
 @Controller
 public class SearchControlController {
   private SearchQueueSender searchQueueSender;
   private TopicDao messageDao;
+  private SearchIndexBatcher searchIndexBatcher;
+  private SearchReindexService searchReindexService;
 
   @Autowired
   @Required
@@ -44,26 +45,42 @@ public class SearchControlController {
     this.messageDao = messageDao;
   }
 
+  @Autowired
+  public void setSearchIndexBatcher(SearchIndexBatcher searchIndexBatcher) {
+    this.searchIndexBatcher = searchIndexBatcher;
+  }
+
+  @Autowired
+  public void setSearchReindexService(SearchReindexService searchReindexService) {
+    this.searchReindexService = searchReindexService;
+  }
+
   @RequestMapping(value="/admin/search-reindex", method=RequestMethod.POST, params = "action=all")
   @PreAuthorize("hasRole('ROLE_ADMIN')")
   public ModelAndView reindexAll(ServletRequest request) throws Exception {
+    if (searchReindexService.getState() != SearchReindexService.State.IDLE) {
+      return new ModelAndView("action-done", "message", "Reindex is already running");
+    }
 
-    Timestamp startDate = messageDao.getTimeFirstTopic();
+    searchReindexService.start();
 
-    Calendar start = Calendar.getInstance();
-    start.setTime(startDate);
+    return new ModelAndView("action-done", "message", "Started full reindex");
+  }
 
-    start.set(Calendar.DAY_OF_MONTH, 1);
-    start.set(Calendar.HOUR, 0);
-    start.set(Calendar.MINUTE, 0);
+  @RequestMapping(value="/admin/search-reindex", method=RequestMethod.POST, params = "action=resume")
+  @PreAuthorize("hasRole('ROLE_ADMIN')")
+  public ModelAndView resumeReindex(ServletRequest request) throws Exception {
+    searchReindexService.resume();
 
-    for  (Calendar i = Calendar.getInstance(); i.after(start); i.add(Calendar.MONTH, -1)) {
-      searchQueueSender.updateMonth(i.get(Calendar.YEAR), i.get(Calendar.MONTH)+1);
-    }
+    return new ModelAndView("action-done", "message", "Resumed full reindex");
+  }
 
-    searchQueueSender.updateMonth(1970, 1);
+  @RequestMapping(value="/admin/search-reindex", method=RequestMethod.POST, params = "action=pause")
+  @PreAuthorize("hasRole('ROLE_ADMIN')")
+  public ModelAndView pauseReindex(ServletRequest request) throws Exception {
+    searchReindexService.pause();
 
-    return new ModelAndView("action-done", "message", "Scheduled reindex");
+    return new ModelAndView("action-done", "message", "Pausing full reindex");
   }
 
   @RequestMapping(value="/admin/search-reindex", method=RequestMethod.POST, params = "action=current")
@@ -82,6 +99,11 @@ public class SearchControlController {
   @RequestMapping(value="/admin/search-reindex", method=RequestMethod.GET)
   @PreAuthorize("hasRole('ROLE_ADMIN')")
   public ModelAndView reindexAll()  {
-    return new ModelAndView("search-reindex");
+    ModelAndView mv = new ModelAndView("search-reindex");
+
+    mv.addObject("indexer", searchIndexBatcher);
+    mv.addObject("reindex", searchReindexService);
+
+    return mv;
   }
 }
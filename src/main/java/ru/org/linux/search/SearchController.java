@@ -20,10 +20,8 @@ import com.google.common.collect.ImmutableMap.Builder;
 import com.google.common.collect.ImmutableSortedMap;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.response.FacetField;
 import org.apache.solr.client.solrj.response.FacetField.Count;
-import org.apache.solr.client.solrj.response.QueryResponse;
 import org.apache.solr.common.SolrDocument;
 import org.apache.solr.common.SolrDocumentList;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -38,6 +36,7 @@ import org.springframework.web.bind.annotation.RequestMethod;
 import ru.org.linux.group.BadGroupException;
 import ru.org.linux.group.Group;
 import ru.org.linux.group.GroupDao;
+import ru.org.linux.search.SearchResultCache.SearchResult;
 import ru.org.linux.search.SearchViewer.SearchInterval;
 import ru.org.linux.search.SearchViewer.SearchOrder;
 import ru.org.linux.search.SearchViewer.SearchRange;
@@ -59,7 +58,6 @@ import java.util.Map;
 @Controller
 public class SearchController {
   private static final Log logger = LogFactory.getLog(SearchQueueListener.class);
-  private SolrServer solrServer;
   @Autowired
   private SectionService sectionService;
   private UserDao userDao;
@@ -70,9 +68,7 @@ public class SearchController {
   private MsgbaseDao msgbaseDao;
 
   @Autowired
-  public void setSolrServer(SolrServer solrServer) {
-    this.solrServer = solrServer;
-  }
+  private SearchResultCache searchResultCache;
 
   @Autowired
   public void setUserDao(UserDao userDao) {
@@ -145,8 +141,6 @@ public class SearchController {
         return "redirect:/search.jsp";
       }
 
-      SearchViewer sv = new SearchViewer(query);
-
       if (query.getGroup() != 0) {
         Group group = groupDao.getGroup(query.getGroup());
 
@@ -155,18 +149,18 @@ public class SearchController {
         }
       }
 
-      QueryResponse response = sv.performSearch(solrServer);
+      SearchResult response = searchResultCache.search(query);
 
       long current = System.currentTimeMillis();
 
-      SolrDocumentList list = response.getResults();
+      SolrDocumentList list = response.getDocuments();
       Collection<SearchItem> res = new ArrayList<SearchItem>(list.size());
 
       for (SolrDocument doc : list) {
         res.add(new SearchItem(doc, userDao, msgbaseDao, lorCodeService, request.isSecure()));
       }
 
-      FacetField sectionFacet = response.getFacetField("section");
+      FacetField sectionFacet = response.getSectionFacet();
 
       if (sectionFacet != null && sectionFacet.getValueCount() > 1) {
         params.put("sectionFacet", buildSectionFacet(sectionFacet));
@@ -176,7 +170,7 @@ public class SearchController {
         query.setSection(first.getName());
       }
 
-      FacetField groupFacet = response.getFacetField("group_id");
+      FacetField groupFacet = response.getGroupFacet();
 
       if (groupFacet != null && groupFacet.getValueCount() > 1) {
         params.put("groupFacet", buildGroupFacet(query.getSection(), groupFacet));
@@ -185,7 +179,7 @@ public class SearchController {
       long time = System.currentTimeMillis() - current;
 
       params.put("result", res);
-      params.put("searchTime", response.getElapsedTime());
+      params.put("searchTime", response.getSearchTime());
       params.put("numFound", list.getNumFound());
 
       if (list.getNumFound() > query.getOffset() + SearchViewer.SEARCH_ROWS) {
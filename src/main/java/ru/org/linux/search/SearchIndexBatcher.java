@@ -0,0 +1,585 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.search;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.request.UpdateRequest;
+import org.apache.solr.common.SolrInputDocument;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.org.linux.comment.Comment;
+import ru.org.linux.comment.CommentList;
+import ru.org.linux.comment.CommentService;
+import ru.org.linux.site.MessageNotFoundException;
+import ru.org.linux.spring.dao.MessageText;
+import ru.org.linux.spring.dao.MsgbaseDao;
+import ru.org.linux.topic.Topic;
+import ru.org.linux.topic.TopicDao;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пакетная индексация в solr.
+ *
+ * Изменения топиков и комментариев из очереди JMS не индексируются сразу, а
+ * записываются в таблицу search_queue и раз в {@link #FLUSH_INTERVAL} мс отправляются
+ * одним пакетом: повторные изменения одного сообщения схлопываются, тексты загружаются
+ * одним запросом на пачку, документы уходят в solr с commitWithin вместо явного commit.
+ *
+ * Сообщение JMS подтверждается после записи в таблицу, а запись удаляется только
+ * после того, как solr принял документ, поэтому при аварийном завершении или
+ * перезапуске изменения не теряются и индексируются после старта.
+ *
+ * Если пакет не удалось проиндексировать, его сообщения индексируются по одному,
+ * и в очереди остаются только неудачные. Сообщение, которое не удалось
+ * проиндексировать {@link #MAX_ATTEMPTS} раз, удаляется из очереди. При ошибке
+ * связи с solr весь остаток остается в очереди без подсчета попыток.
+ */
+@Component
+public class SearchIndexBatcher {
+  private static final Log logger = LogFactory.getLog(SearchIndexBatcher.class);
+
+  private static final int FLUSH_INTERVAL = 2000;
+
+  /**
+   * Через сколько миллисекунд solr должен сделать изменения видимыми
+   */
+  static final int COMMIT_WITHIN = 10000;
+
+  /**
+   * Сколько документов отправлять в solr одним запросом
+   */
+  static final int BATCH_SIZE = 500;
+
+  /**
+   * Сколько записей очереди индексировать одним пакетом
+   */
+  static final int QUEUE_BATCH_SIZE = 2000;
+
+  /**
+   * По сколько топиков (вместе с комментариями) индексировать при переиндексации без очереди
+   */
+  static final int TOPICS_PER_BATCH = 100;
+
+  /**
+   * Сколько раз пытаться проиндексировать сообщение, прежде чем удалить его из очереди
+   */
+  static final int MAX_ATTEMPTS = 5;
+
+  @Autowired
+  private CommentService commentService;
+
+  @Autowired
+  private MsgbaseDao msgbaseDao;
+
+  @Autowired
+  private SolrServer solrServer;
+
+  @Autowired
+  private TopicDao topicDao;
+
+  @Autowired
+  private SearchQueueDao searchQueueDao;
+
+  /* неудачные попытки индексации сообщений, которые стоят в очереди */
+  private final Map<Integer, Integer> topicFailures = new HashMap<Integer, Integer>();
+  private final Map<Integer, Integer> commentFailures = new HashMap<Integer, Integer>();
+
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong indexed = new AtomicLong();
+  private final AtomicLong deleted = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private volatile int lastBatchSize;
+  private volatile int maxBatchSize;
+
+  public void addTopic(int msgid, boolean withComments) {
+    searchQueueDao.addTopic(msgid, withComments);
+  }
+
+  public void addComments(Collection<Integer> msgids) {
+    List<Integer> valid = new ArrayList<Integer>(msgids.size());
+
+    for (Integer msgid : msgids) {
+      if (msgid == 0) {
+        logger.warn("Skipping MSGID=0!!!");
+        continue;
+      }
+
+      valid.add(msgid);
+    }
+
+    if (!valid.isEmpty()) {
+      searchQueueDao.addComments(valid);
+    }
+  }
+
+  /**
+   * Учесть неудачную попытку индексации сообщения
+   *
+   * @return true если попытки исчерпаны и сообщение больше не индексируется
+   */
+  private boolean failed(Map<Integer, Integer> failureCounts, int msgid) {
+    Integer count = failureCounts.get(msgid);
+    int attempts = count == null ? 1 : count + 1;
+
+    if (attempts >= MAX_ATTEMPTS) {
+      failureCounts.remove(msgid);
+      dropped.incrementAndGet();
+      return true;
+    }
+
+    failureCounts.put(msgid, attempts);
+    return false;
+  }
+
+  private void succeeded(Collection<Integer> topics, Collection<Integer> comments) {
+    if (!topicFailures.isEmpty()) {
+      topicFailures.keySet().removeAll(topics);
+    }
+
+    if (!commentFailures.isEmpty()) {
+      commentFailures.keySet().removeAll(comments);
+    }
+  }
+
+  @Scheduled(fixedDelay = FLUSH_INTERVAL)
+  public synchronized void flush() {
+    List<SearchQueueDao.Entry> entries;
+
+    do {
+      entries = searchQueueDao.getPending(QUEUE_BATCH_SIZE);
+
+      if (entries.isEmpty() || !flush(entries)) {
+        return;
+      }
+    } while (entries.size() == QUEUE_BATCH_SIZE);
+  }
+
+  /**
+   * Проиндексировать записи очереди
+   *
+   * @return true если все записи удалены из очереди
+   */
+  private boolean flush(List<SearchQueueDao.Entry> entries) {
+    /* id топика -> переиндексировать вместе с комментариями */
+    Map<Integer, Boolean> topics = new LinkedHashMap<Integer, Boolean>();
+    Set<Integer> comments = new LinkedHashSet<Integer>();
+
+    /* id сообщения -> id записей очереди */
+    ListMultimap<Integer, Integer> topicEntries = ArrayListMultimap.create();
+    ListMultimap<Integer, Integer> commentEntries = ArrayListMultimap.create();
+
+    for (SearchQueueDao.Entry entry : entries) {
+      if (entry.isComment()) {
+        comments.add(entry.getMsgid());
+        commentEntries.put(entry.getMsgid(), entry.getId());
+      } else {
+        Boolean current = topics.get(entry.getMsgid());
+        topics.put(entry.getMsgid(), entry.isWithComments() || (current != null && current));
+        topicEntries.put(entry.getMsgid(), entry.getId());
+      }
+    }
+
+    coalesced.addAndGet(entries.size() - topics.size() - comments.size());
+
+    try {
+      index(topics, comments);
+    } catch (Exception ex) {
+      failures.incrementAndGet();
+      logger.warn("Search index update failed, retrying one by one: " + topics.size() + " topics, " + comments.size() + " comments", ex);
+      return indexOneByOne(topics, comments, topicEntries, commentEntries);
+    }
+
+    List<Integer> ids = new ArrayList<Integer>(entries.size());
+    for (SearchQueueDao.Entry entry : entries) {
+      ids.add(entry.getId());
+    }
+
+    searchQueueDao.delete(ids);
+    succeeded(topics.keySet(), comments);
+
+    return true;
+  }
+
+  /**
+   * Последняя индексация очереди при остановке
+   */
+  @PreDestroy
+  public void stop() {
+    flush();
+  }
+
+  /**
+   * Индексировать сообщения неудачного пакета по одному, чтобы не индексируемые
+   * сообщения не мешали остальным
+   *
+   * @return true если все записи удалены из очереди
+   */
+  private boolean indexOneByOne(
+          Map<Integer, Boolean> topics,
+          Set<Integer> comments,
+          ListMultimap<Integer, Integer> topicEntries,
+          ListMultimap<Integer, Integer> commentEntries
+  ) {
+    boolean done = true;
+
+    try {
+      for (Map.Entry<Integer, Boolean> entry : topics.entrySet()) {
+        Set<Integer> single = Collections.singleton(entry.getKey());
+
+        try {
+          index(Collections.singletonMap(entry.getKey(), entry.getValue()), Collections.<Integer>emptySet());
+          succeeded(single, Collections.<Integer>emptySet());
+        } catch (RuntimeException ex) {
+          if (failed(topicFailures, entry.getKey())) {
+            logger.error("Can't index topic " + entry.getKey() + ", dropping it from queue after " + MAX_ATTEMPTS + " attempts", ex);
+          } else {
+            logger.warn("Can't index topic " + entry.getKey() + ", will retry: " + ex.toString());
+            done = false;
+            continue;
+          }
+        }
+
+        searchQueueDao.delete(topicEntries.get(entry.getKey()));
+      }
+
+      for (Integer msgid : comments) {
+        Set<Integer> single = Collections.singleton(msgid);
+
+        try {
+          index(Collections.<Integer, Boolean>emptyMap(), single);
+          succeeded(Collections.<Integer>emptySet(), single);
+        } catch (RuntimeException ex) {
+          if (failed(commentFailures, msgid)) {
+            logger.error("Can't index comment " + msgid + ", dropping it from queue after " + MAX_ATTEMPTS + " attempts", ex);
+          } else {
+            logger.warn("Can't index comment " + msgid + ", will retry: " + ex.toString());
+            done = false;
+            continue;
+          }
+        }
+
+        searchQueueDao.delete(commentEntries.get(msgid));
+      }
+    } catch (IOException ex) {
+      logger.warn("Solr is not available, will retry: " + ex.toString());
+      return false;
+    } catch (SolrServerException ex) {
+      logger.warn("Solr is not available, will retry: " + ex.toString());
+      return false;
+    }
+
+    return done;
+  }
+
+  private void index(Map<Integer, Boolean> topicIds, Set<Integer> commentIds) throws IOException, SolrServerException {
+    long startTime = System.nanoTime();
+
+    IndexBatch batch = new IndexBatch();
+
+    for (Map.Entry<Integer, Boolean> entry : topicIds.entrySet()) {
+      batch.addTopic(entry.getKey(), entry.getValue());
+    }
+
+    for (Integer msgid : commentIds) {
+      batch.addComment(msgid);
+    }
+
+    batch.send();
+
+    int size = batch.docs.size() + batch.delete.size();
+
+    batches.incrementAndGet();
+    indexed.addAndGet(batch.docs.size());
+    deleted.addAndGet(batch.delete.size());
+    lastBatchSize = size;
+    if (size > maxBatchSize) {
+      maxBatchSize = size;
+    }
+
+    logger.info("Indexed " + batch.docs.size() + " documents, deleted " + batch.delete.size() +
+            " in " + (System.nanoTime() - startTime) / 1000000 + " millis");
+  }
+
+  /**
+   * Переиндексировать топики целиком сразу, без очереди. Используется при полной переиндексации.
+   * Топики индексируются пачками по {@link #TOPICS_PER_BATCH}, чтобы не держать в памяти
+   * документы всех топиков сразу.
+   *
+   * @param topicIds id топиков
+   */
+  public void indexTopicsNow(Collection<Integer> topicIds) throws IOException, SolrServerException {
+    for (List<Integer> chunk : Iterables.partition(topicIds, TOPICS_PER_BATCH)) {
+      IndexBatch batch = new IndexBatch();
+
+      for (Integer msgid : chunk) {
+        batch.addTopic(msgid, true);
+      }
+
+      batch.send();
+
+      indexed.addAndGet(batch.docs.size());
+      deleted.addAndGet(batch.delete.size());
+    }
+  }
+
+  /**
+   * Размер очереди: изменения топиков и комментариев, ожидающие индексации
+   */
+  public int getQueueSize() {
+    return searchQueueDao.getSize();
+  }
+
+  public long getBatches() {
+    return batches.get();
+  }
+
+  public long getIndexed() {
+    return indexed.get();
+  }
+
+  public long getDeleted() {
+    return deleted.get();
+  }
+
+  /**
+   * Сколько изменений схлопнуто с уже стоящими в очереди
+   */
+  public long getCoalesced() {
+    return coalesced.get();
+  }
+
+  public long getFailures() {
+    return failures.get();
+  }
+
+  /**
+   * Сколько сообщений выброшено из очереди после {@link #MAX_ATTEMPTS} неудачных попыток
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+  public int getLastBatchSize() {
+    return lastBatchSize;
+  }
+
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  /**
+   * Один пакет изменений: документы собираются здесь, тексты загружаются при отправке
+   */
+  private class IndexBatch {
+    private final Map<Integer, Topic> topics = new HashMap<Integer, Topic>();
+    private final Set<Integer> indexedComments = new HashSet<Integer>();
+
+    private final List<Topic> topicDocs = new ArrayList<Topic>();
+    private final List<Comment> commentDocs = new ArrayList<Comment>();
+
+    private final List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>();
+    private final List<String> delete = new ArrayList<String>();
+
+    private Topic getTopic(int msgid) {
+      Topic topic = topics.get(msgid);
+
+      if (topic == null) {
+        try {
+          topic = topicDao.getById(msgid);
+        } catch (MessageNotFoundException e) {
+          logger.warn("Topic " + msgid + " not found, skipping");
+          return null;
+        }
+
+        topics.put(msgid, topic);
+      }
+
+      return topic;
+    }
+
+    private void addTopic(int msgid, boolean withComments) {
+      Topic topic = getTopic(msgid);
+
+      if (topic == null) {
+        return;
+      }
+
+      if (topic.isDeleted()) {
+        delete.add(Integer.toString(topic.getId()));
+      } else {
+        topicDocs.add(topic);
+      }
+
+      if (withComments) {
+        CommentList commentList = commentService.getCommentList(topic, true);
+
+        for (Comment comment : commentList.getList()) {
+          indexedComments.add(comment.getId());
+
+          if (topic.isDeleted() || comment.isDeleted()) {
+            delete.add(Integer.toString(comment.getId()));
+          } else {
+            commentDocs.add(comment);
+          }
+        }
+      }
+    }
+
+    private void addComment(int msgid) {
+      /* уже переиндексирован вместе с топиком */
+      if (indexedComments.contains(msgid)) {
+        return;
+      }
+
+      Comment comment;
+
+      try {
+        comment = commentService.getById(msgid);
+      } catch (MessageNotFoundException e) {
+        logger.warn("Comment " + msgid + " not found, skipping");
+        return;
+      }
+
+      indexedComments.add(msgid);
+
+      if (comment.isDeleted()) {
+        logger.info("Deleting comment " + comment.getId() + " from solr");
+        delete.add(Integer.toString(comment.getId()));
+      } else if (getTopic(comment.getTopicId()) != null) {
+        commentDocs.add(comment);
+      }
+    }
+
+    private void send() throws IOException, SolrServerException {
+      for (List<Topic> chunk : Iterables.partition(topicDocs, BATCH_SIZE)) {
+        Map<Integer, MessageText> texts = msgbaseDao.getMessageText(ids(chunk));
+
+        for (Topic topic : chunk) {
+          MessageText text = texts.get(topic.getId());
+          docs.add(processTopic(topic, text != null ? text.getText() : ""));
+        }
+      }
+
+      for (List<Comment> chunk : Iterables.partition(commentDocs, BATCH_SIZE)) {
+        List<Integer> ids = new ArrayList<Integer>(chunk.size());
+        for (Comment comment : chunk) {
+          ids.add(comment.getId());
+        }
+
+        Map<Integer, MessageText> texts = msgbaseDao.getMessageText(ids);
+
+        for (Comment comment : chunk) {
+          MessageText text = texts.get(comment.getId());
+          docs.add(processComment(topics.get(comment.getTopicId()), comment, text != null ? text.getText() : ""));
+        }
+      }
+
+      for (List<SolrInputDocument> chunk : Iterables.partition(docs, BATCH_SIZE)) {
+        UpdateRequest rq = new UpdateRequest();
+        rq.setCommitWithin(COMMIT_WITHIN);
+        rq.add(chunk);
+        rq.process(solrServer);
+      }
+
+      for (List<String> chunk : Iterables.partition(delete, BATCH_SIZE)) {
+        UpdateRequest rq = new UpdateRequest();
+        rq.setCommitWithin(COMMIT_WITHIN);
+        rq.deleteById(chunk);
+        rq.process(solrServer);
+      }
+    }
+
+    private List<Integer> ids(List<Topic> chunk) {
+      List<Integer> ids = new ArrayList<Integer>(chunk.size());
+
+      for (Topic topic : chunk) {
+        ids.add(topic.getId());
+      }
+
+      return ids;
+    }
+  }
+
+  static SolrInputDocument processTopic(Topic topic, String message) {
+    SolrInputDocument doc = new SolrInputDocument();
+
+    doc.addField("id", topic.getId());
+
+    doc.addField("section_id", topic.getSectionId());
+    doc.addField("section", topic.getSectionId());
+    doc.addField("user_id", topic.getUid());
+    doc.addField("topic_user_id", topic.getUid());
+    doc.addField("topic_id", topic.getMessageId());
+    doc.addField("group_id", topic.getGroupId());
+
+    doc.addField("title", StringEscapeUtils.unescapeHtml(topic.getTitle()));
+    doc.addField("topic_title", topic.getTitle());
+    doc.addField("message", message);
+    Date postdate = topic.getPostdate();
+    doc.addField("postdate", new Timestamp(postdate.getTime()));
+
+    doc.addField("is_comment", false);
+
+    return doc;
+  }
+
+  static SolrInputDocument processComment(Topic topic, Comment comment, String message) {
+    SolrInputDocument doc = new SolrInputDocument();
+
+    doc.addField("id", comment.getId());
+
+    doc.addField("section_id", topic.getSectionId());
+    doc.addField("section", topic.getSectionId());
+    doc.addField("user_id", comment.getUserid());
+    doc.addField("topic_user_id", topic.getUid());
+    doc.addField("topic_id", comment.getTopicId());
+    doc.addField("group_id", topic.getGroupId());
+    String topicTitle = topic.getTitle();
+    doc.addField("topic_title", StringEscapeUtils.unescapeHtml(topicTitle));
+
+    String commentTitle = comment.getTitle();
+
+    if (commentTitle != null &&
+        !commentTitle.isEmpty() &&
+        !commentTitle.equals(topicTitle) &&
+        !commentTitle.startsWith("Re:")) {
+      doc.addField("title", StringEscapeUtils.unescapeHtml(commentTitle));
+    }
+
+    doc.addField("message", message);
+    Date postdate = comment.getPostdate();
+    doc.addField("postdate", new Timestamp(postdate.getTime()));
+
+    doc.addField("is_comment", true);
+
+    return doc;
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.search;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Очередь сообщений, ожидающих индексации в solr. Запись удаляется только после
+ * того, как solr принял документ, поэтому очередь переживает перезапуск сервера.
+ */
+@Repository
+public class SearchQueueDao {
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  public void setDataSource(DataSource dataSource) {
+    jdbcTemplate = new JdbcTemplate(dataSource);
+  }
+
+  public void addTopic(int msgid, boolean withComments) {
+    jdbcTemplate.update(
+            "INSERT INTO search_queue (msgid, is_comment, with_comments) VALUES (?, 'f', ?)",
+            msgid, withComments
+    );
+  }
+
+  public void addComments(Collection<Integer> msgids) {
+    List<Object[]> batch = new ArrayList<Object[]>(msgids.size());
+
+    for (Integer msgid : msgids) {
+      batch.add(new Object[] { msgid });
+    }
+
+    jdbcTemplate.batchUpdate("INSERT INTO search_queue (msgid, is_comment) VALUES (?, 't')", batch);
+  }
+
+  /**
+   * @param limit сколько записей вернуть
+   * @return самые старые записи очереди
+   */
+  public List<Entry> getPending(int limit) {
+    return jdbcTemplate.query(
+            "SELECT id, msgid, is_comment, with_comments FROM search_queue ORDER BY id LIMIT ?",
+            new RowMapper<Entry>() {
+              @Override
+              public Entry mapRow(ResultSet rs, int rowNum) throws SQLException {
+                return new Entry(
+                        rs.getInt("id"),
+                        rs.getInt("msgid"),
+                        rs.getBoolean("is_comment"),
+                        rs.getBoolean("with_comments")
+                );
+              }
+            },
+            limit
+    );
+  }
+
+  /**
+   * Удалить обработанные записи
+   *
+   * @param ids id записей очереди
+   */
+  public void delete(Collection<Integer> ids) {
+    List<Object[]> batch = new ArrayList<Object[]>(ids.size());
+
+    for (Integer id : ids) {
+      batch.add(new Object[] { id });
+    }
+
+    jdbcTemplate.batchUpdate("DELETE FROM search_queue WHERE id=?", batch);
+  }
+
+  public int getSize() {
+    return jdbcTemplate.queryForInt("SELECT count(*) FROM search_queue");
+  }
+
+  /**
+   * Запись очереди: топик (возможно, вместе с комментариями) или комментарий
+   */
+  public static class Entry {
+    private final int id;
+    private final int msgid;
+    private final boolean comment;
+    private final boolean withComments;
+
+    public Entry(int id, int msgid, boolean comment, boolean withComments) {
+      this.id = id;
+      this.msgid = msgid;
+      this.comment = comment;
+      this.withComments = withComments;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    public int getMsgid() {
+      return msgid;
+    }
+
+    public boolean isComment() {
+      return comment;
+    }
+
+    public boolean isWithComments() {
+      return withComments;
+    }
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.search;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+
+import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Состояние полной переиндексации: диапазоны id топиков и отметки о завершении.
+ * Позволяет продолжить переиндексацию после перезапуска.
+ */
+@Repository
+public class SearchReindexDao {
+  private JdbcTemplate jdbcTemplate;
+
+  @Autowired
+  public void setDataSource(DataSource dataSource) {
+    jdbcTemplate = new JdbcTemplate(dataSource);
+  }
+
+  /**
+   * Разбить id топиков на диапазоны и записать их как необработанные.
+   * Предыдущее состояние удаляется.
+   *
+   * @param partitionSize размер диапазона id
+   * @return количество диапазонов
+   */
+  public int createPartitions(int partitionSize) {
+    jdbcTemplate.update("DELETE FROM search_reindex");
+
+    Integer maxId = jdbcTemplate.queryForObject("SELECT max(id) FROM topics", Integer.class);
+
+    if (maxId == null) {
+      return 0;
+    }
+
+    List<Object[]> batch = new ArrayList<Object[]>();
+
+    for (int start = 0; start <= maxId; start += partitionSize) {
+      batch.add(new Object[] { start, start + partitionSize - 1 });
+    }
+
+    jdbcTemplate.batchUpdate("INSERT INTO search_reindex (start_id, end_id) VALUES (?, ?)", batch);
+
+    return batch.size();
+  }
+
+  /**
+   * @return необработанные диапазоны, новые топики первыми
+   */
+  public List<Partition> getPendingPartitions() {
+    return jdbcTemplate.query(
+            "SELECT start_id, end_id FROM search_reindex WHERE NOT done ORDER BY start_id DESC",
+            new RowMapper<Partition>() {
+              @Override
+              public Partition mapRow(ResultSet rs, int rowNum) throws SQLException {
+                return new Partition(rs.getInt("start_id"), rs.getInt("end_id"));
+              }
+            }
+    );
+  }
+
+  public int getPartitionCount() {
+    return jdbcTemplate.queryForInt("SELECT count(*) FROM search_reindex");
+  }
+
+  public int getDonePartitionCount() {
+    return jdbcTemplate.queryForInt("SELECT count(*) FROM search_reindex WHERE done");
+  }
+
+  public void markDone(Partition partition, int topics) {
+    jdbcTemplate.update(
+            "UPDATE search_reindex SET done='t', topics=?, finished=CURRENT_TIMESTAMP WHERE start_id=?",
+            topics, partition.getStart()
+    );
+  }
+
+  public void clear() {
+    jdbcTemplate.update("DELETE FROM search_reindex");
+  }
+
+  /**
+   * id топиков в диапазоне
+   */
+  public List<Integer> getTopicIds(Partition partition) {
+    return jdbcTemplate.queryForList(
+            "SELECT id FROM topics WHERE id BETWEEN ? AND ?",
+            Integer.class,
+            partition.getStart(), partition.getEnd()
+    );
+  }
+
+  /**
+   * Диапазон id топиков [start, end]
+   */
+  public static class Partition {
+    private final int start;
+    private final int end;
+
+    public Partition(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    public int getStart() {
+      return start;
+    }
+
+    public int getEnd() {
+      return end;
+    }
+
+    @Override
+    public String toString() {
+      return start + "-" + end;
+    }
+  }
+}
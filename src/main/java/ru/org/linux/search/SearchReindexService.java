@@ -0,0 +1,267 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.search;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import ru.org.linux.search.SearchReindexDao.Partition;
+import ru.org.linux.spring.Configuration;
+
+import javax.annotation.PreDestroy;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Полная переиндексация поиска.
+ *
+ * Пространство id топиков делится на диапазоны, которые обрабатываются
+ * несколькими потоками; тексты загружаются пачками через {@link SearchIndexBatcher}.
+ * Обработанные диапазоны отмечаются в БД, поэтому после паузы или перезапуска
+ * переиндексация продолжается с необработанных диапазонов.
+ */
+@Component
+public class SearchReindexService {
+  private static final Log logger = LogFactory.getLog(SearchReindexService.class);
+
+  /**
+   * Размер диапазона id топиков
+   */
+  private static final int PARTITION_SIZE = 5000;
+
+  /**
+   * Сколько топиков индексировать одним пакетом
+   */
+  private static final int TOPICS_PER_BATCH = 100;
+
+  public enum State { IDLE, RUNNING, PAUSING }
+
+  @Autowired
+  private SearchReindexDao searchReindexDao;
+
+  @Autowired
+  private SearchIndexBatcher searchIndexBatcher;
+
+  @Autowired
+  private Configuration configuration;
+
+  private volatile State state = State.IDLE;
+  private volatile boolean paused;
+
+  private ExecutorService executor;
+  private final AtomicInteger activeWorkers = new AtomicInteger();
+
+  private final AtomicInteger partitions = new AtomicInteger();
+  private final AtomicLong topics = new AtomicLong();
+  private final AtomicInteger errors = new AtomicInteger();
+  private volatile long startTime;
+  private volatile String lastError;
+
+  /**
+   * Начать переиндексацию заново
+   */
+  public synchronized void start() {
+    if (state != State.IDLE) {
+      throw new IllegalStateException("Reindex is already running");
+    }
+
+    int count = searchReindexDao.createPartitions(PARTITION_SIZE);
+    logger.info("Starting full reindex, " + count + " partitions");
+
+    resume();
+  }
+
+  /**
+   * Продолжить переиндексацию с необработанных диапазонов
+   */
+  public synchronized void resume() {
+    if (state != State.IDLE) {
+      return;
+    }
+
+    List<Partition> pending = searchReindexDao.getPendingPartitions();
+
+    if (pending.isEmpty()) {
+      logger.info("Nothing to reindex");
+      return;
+    }
+
+    final Queue<Partition> queue = new ConcurrentLinkedQueue<Partition>(pending);
+
+    paused = false;
+    state = State.RUNNING;
+    partitions.set(0);
+    topics.set(0);
+    errors.set(0);
+    lastError = null;
+    startTime = System.currentTimeMillis();
+
+    int threads = Math.min(configuration.getSearchReindexThreads(), pending.size());
+
+    executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      private final AtomicInteger counter = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "search-reindex-" + counter.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    activeWorkers.set(threads);
+
+    for (int i = 0; i < threads; i++) {
+      executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            work(queue);
+          } finally {
+            workerFinished();
+          }
+        }
+      });
+    }
+
+    executor.shutdown();
+
+    logger.info("Reindex started: " + pending.size() + " partitions, " + threads + " threads");
+  }
+
+  /**
+   * Остановить переиндексацию после обработки текущих диапазонов
+   */
+  public synchronized void pause() {
+    paused = true;
+
+    if (state == State.RUNNING) {
+      state = State.PAUSING;
+      logger.info("Pausing reindex");
+    }
+  }
+
+  /**
+   * Забыть состояние переиндексации
+   */
+  public synchronized void reset() {
+    if (state != State.IDLE) {
+      throw new IllegalStateException("Reindex is running");
+    }
+
+    searchReindexDao.clear();
+  }
+
+  private void work(Queue<Partition> queue) {
+    while (!paused) {
+      Partition partition = queue.poll();
+
+      if (partition == null) {
+        return;
+      }
+
+      try {
+        List<Integer> ids = searchReindexDao.getTopicIds(partition);
+
+        for (List<Integer> chunk : Lists.partition(ids, TOPICS_PER_BATCH)) {
+          searchIndexBatcher.indexTopicsNow(chunk);
+          topics.addAndGet(chunk.size());
+        }
+
+        searchReindexDao.markDone(partition, ids.size());
+        partitions.incrementAndGet();
+      } catch (Exception ex) {
+        /* диапазон остается необработанным и будет повторен при следующем запуске */
+        errors.incrementAndGet();
+        lastError = partition + ": " + ex;
+        logger.warn("Reindex of partition " + partition + " failed", ex);
+      }
+    }
+  }
+
+  /**
+   * Состояние меняется под той же блокировкой, что и в pause(), иначе пауза,
+   * совпавшая с завершением последнего потока, оставила бы состояние PAUSING навсегда
+   */
+  private synchronized void workerFinished() {
+    if (activeWorkers.decrementAndGet() == 0) {
+      logger.info("Reindex " + (paused ? "paused" : "finished") + ": " + partitions.get() + " partitions, " +
+              topics.get() + " topics, " + errors.get() + " errors in " +
+              (System.currentTimeMillis() - startTime) / 1000 + " sec");
+
+      state = State.IDLE;
+    }
+  }
+
+  @PreDestroy
+  public void stop() throws InterruptedException {
+    paused = true;
+
+    ExecutorService current = executor;
+
+    if (current != null) {
+      current.awaitTermination(30, TimeUnit.SECONDS);
+    }
+  }
+
+  public State getState() {
+    return state;
+  }
+
+  public int getTotalPartitions() {
+    return searchReindexDao.getPartitionCount();
+  }
+
+  public int getDonePartitions() {
+    return searchReindexDao.getDonePartitionCount();
+  }
+
+  /**
+   * Диапазонов обработано с момента запуска
+   */
+  public int getPartitions() {
+    return partitions.get();
+  }
+
+  /**
+   * Топиков переиндексировано с момента запуска
+   */
+  public long getTopics() {
+    return topics.get();
+  }
+
+  public int getErrors() {
+    return errors.get();
+  }
+
+  public String getLastError() {
+    return lastError;
+  }
+
+  /**
+   * @return топиков в секунду с момента запуска
+   */
+  public long getRate() {
+    long time = (System.currentTimeMillis() - startTime) / 1000;
+
+    return time == 0 ? 0 : topics.get() / time;
+  }
+}
@@ -74,6 +74,13 @@ public class SearchRequest {
     this.section = section;
   }
 
+  /**
+   * @return задан ли фильтр по разделу
+   */
+  public boolean isSectionSelected() {
+    return section != null && !section.isEmpty() && !"0".equals(section);
+  }
+
   public SearchOrder getSort() {
     return sort;
   }
@@ -0,0 +1,181 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.search;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.FacetField;
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.common.SolrDocumentList;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import ru.org.linux.spring.commons.CacheProvider;
+
+import java.io.Serializable;
+
+/**
+ * Кеш результатов поиска.
+ *
+ * Страница результатов кешируется по нормализованному запросу (текст, фильтры,
+ * сортировка, смещение). Количество результатов по разделам и группам не зависит
+ * от сортировки и смещения и кешируется отдельно, поэтому при листании страниц
+ * и переключении раздела Solr не пересчитывает facets.
+ */
+@Component
+public class SearchResultCache {
+  private static final int RESULT_EXPIRE = 2 * 60 * 1000;
+  private static final int FACETS_EXPIRE = 5 * 60 * 1000;
+
+  @Autowired
+  private CacheProvider cacheProvider;
+
+  @Autowired
+  private SolrServer solrServer;
+
+  /**
+   * Выполнить поиск, используя кешированные результаты и facets
+   *
+   * @param query запрос
+   * @return результаты поиска
+   */
+  public SearchResult search(SearchRequest query) throws SolrServerException {
+    String resultKey = "searchResult?" + hash(getResultKey(query));
+    String facetsKey = "searchFacets?" + hash(getFacetsKey(query));
+
+    SolrDocumentList documents = (SolrDocumentList) cacheProvider.getFromCache(resultKey);
+    SearchFacets facets = (SearchFacets) cacheProvider.getFromCache(facetsKey);
+
+    if (documents != null && facets != null) {
+      return new SearchResult(documents, facets, 0);
+    }
+
+    SearchViewer sv = new SearchViewer(query);
+
+    QueryResponse response;
+
+    if (documents == null) {
+      response = sv.performSearch(solrServer, facets == null);
+
+      documents = response.getResults();
+      cacheProvider.storeToCache(resultKey, documents, RESULT_EXPIRE);
+    } else {
+      response = sv.performFacetSearch(solrServer);
+    }
+
+    if (facets == null) {
+      facets = new SearchFacets(response.getFacetField("section"), response.getFacetField("group_id"));
+      cacheProvider.storeToCache(facetsKey, facets, FACETS_EXPIRE);
+    }
+
+    return new SearchResult(documents, facets, response.getElapsedTime());
+  }
+
+  private static String hash(String key) {
+    return Hashing.md5().hashString(key, Charsets.UTF_8).toString();
+  }
+
+  private static String normalizeQuery(String q) {
+    return q.trim().replaceAll("\\s+", " ");
+  }
+
+  /**
+   * Ключ facets: условия, которые влияют на количество результатов по разделам и группам.
+   * Фильтры по разделу и группе при выбранном разделе исключаются из подсчета
+   * (см. {@link SearchViewer}), поэтому в ключ не входят.
+   */
+  static String getFacetsKey(SearchRequest query) {
+    StringBuilder key = new StringBuilder();
+
+    key.append(query.getRange()).append('|');
+    key.append(query.getInterval()).append('|');
+
+    if (query.getUser() != null) {
+      key.append(query.getUser().getId()).append(query.isUsertopic() ? 't' : 'a');
+    }
+
+    key.append('|');
+
+    if (query.isSectionSelected()) {
+      key.append('s');
+    } else {
+      key.append(query.getGroup());
+    }
+
+    key.append('|').append(normalizeQuery(query.getQ()));
+
+    return key.toString();
+  }
+
+  /**
+   * Ключ страницы результатов: все условия запроса, сортировка и смещение
+   */
+  static String getResultKey(SearchRequest query) {
+    StringBuilder key = new StringBuilder();
+
+    key.append(query.getSort()).append('|');
+    key.append(query.getOffset()).append('|');
+    key.append(query.isSectionSelected() ? query.getSection() : "").append('|');
+    key.append(query.getGroup()).append('|');
+    key.append(getFacetsKey(query));
+
+    return key.toString();
+  }
+
+  private static class SearchFacets implements Serializable {
+    private static final long serialVersionUID = -3541725375124598413L;
+
+    private final FacetField sectionFacet;
+    private final FacetField groupFacet;
+
+    private SearchFacets(FacetField sectionFacet, FacetField groupFacet) {
+      this.sectionFacet = sectionFacet;
+      this.groupFacet = groupFacet;
+    }
+  }
+
+  public static class SearchResult {
+    private final SolrDocumentList documents;
+    private final SearchFacets facets;
+    private final long searchTime;
+
+    private SearchResult(SolrDocumentList documents, SearchFacets facets, long searchTime) {
+      this.documents = documents;
+      this.facets = facets;
+      this.searchTime = searchTime;
+    }
+
+    public SolrDocumentList getDocuments() {
+      return documents;
+    }
+
+    public FacetField getSectionFacet() {
+      return facets.sectionFacet;
+    }
+
+    public FacetField getGroupFacet() {
+      return facets.groupFacet;
+    }
+
+    /**
+     * @return время выполнения запроса в Solr, 0 если результат полностью взят из кеша
+     */
+    public long getSearchTime() {
+      return searchTime;
+    }
+  }
+}
@@ -99,10 +99,31 @@ public class SearchViewer {
   }
 
   public QueryResponse performSearch(SolrServer search) throws SolrServerException {
+    return performSearch(search, true);
+  }
+
+  /**
+   * Поиск страницы результатов
+   *
+   * @param search сервер Solr
+   * @param facets считать ли количество результатов по разделам и группам
+   */
+  public QueryResponse performSearch(SolrServer search, boolean facets) throws SolrServerException {
+    return search.query(buildQuery(SEARCH_ROWS, facets));
+  }
+
+  /**
+   * Только количество результатов по разделам и группам, без самих результатов
+   */
+  public QueryResponse performFacetSearch(SolrServer search) throws SolrServerException {
+    return search.query(buildQuery(0, true));
+  }
+
+  private SolrQuery buildQuery(int rows, boolean facets) {
     SolrQuery params = new SolrQuery();
     // set search query params
     params.set("q", query.getQ());
-    params.set("rows", SEARCH_ROWS);
+    params.set("rows", rows);
     params.set("start", query.getOffset());
 
     params.set("qt", "edismax");
@@ -115,17 +136,19 @@ public class SearchViewer {
       params.add("fq", query.getInterval().getRange());
     }
 
-    params.setFacetMinCount(1);
-    params.setFacet(true);
-    
-    String section = query.getSection();
+    if (facets) {
+      params.setFacetMinCount(1);
+      params.setFacet(true);
+    }
 
-    if (section != null && !section.isEmpty() && !"0".equals(section)){
+    if (query.isSectionSelected()) {
       params.add("fq", "{!tag=dt}section:"+query.getSection());
-      params.addFacetField("{!ex=dt}section");
 
-      params.addFacetField("{!ex=dt}group_id");
-    } else {
+      if (facets) {
+        params.addFacetField("{!ex=dt}section");
+        params.addFacetField("{!ex=dt}group_id");
+      }
+    } else if (facets) {
       params.addFacetField("section");
       params.addFacetField("group_id");
     }
@@ -146,6 +169,6 @@ public class SearchViewer {
 
     params.set("sort", query.getSort().getParam());
 
-    return search.query(params);
+    return params;
   }
 }
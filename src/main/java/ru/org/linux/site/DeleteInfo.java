@@ -49,6 +49,20 @@ public class DeleteInfo implements Serializable {
     }
   }
 
+  /**
+   * @return причина удаления без размера штрафа
+   */
+  public String getRawReason() {
+    return reason;
+  }
+
+  /**
+   * @return штраф или null если штраф не задан
+   */
+  public Integer getRawBonus() {
+    return bonus;
+  }
+
   public Timestamp getDelDate() {
     return delDate;
   }
@@ -15,38 +15,14 @@
 
 package ru.org.linux.site;
 
-import java.io.IOException;
-import java.net.InetSocketAddress;
-
-import net.spy.memcached.MemcachedClient;
-
-import ru.org.linux.spring.commons.CacheProvider;
-import ru.org.linux.spring.commons.MemCachedProvider;
-
+/**
+ * Общие настройки ключей кеша. Сам клиент memcached настраивается в Spring,
+ * см. {@link ru.org.linux.spring.commons.MemCachedProvider}
+ */
 public class MemCachedSettings {
-  private static final MemCachedSettings me;static {
-    try {
-      me = new MemCachedSettings();
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
-  }
-
-  private final MemcachedClient mc;
-  private final MemCachedProvider provider = new MemCachedProvider();
-
   private static String mainUrl = "uninitialized/";
 
-  private MemCachedSettings() throws IOException {
-    mc = new MemcachedClient(new InetSocketAddress("127.0.0.1", 11211));
-  }
-
-  public static MemcachedClient getMemCachedClient() {
-    return me.mc;
-  }
-
-  public static CacheProvider getCache() {
-    return me.provider;
+  private MemCachedSettings() {
   }
 
   public static String getId(String suffix) {
@@ -24,10 +24,6 @@ import ru.org.linux.auth.AccessViolationException;
 import ru.org.linux.auth.AuthUtil;
 import ru.org.linux.csrf.CSRFProtectionService;
 import ru.org.linux.spring.Configuration;
-import ru.org.linux.storage.FileStorage;
-import ru.org.linux.storage.Storage;
-import ru.org.linux.storage.StorageException;
-import ru.org.linux.storage.StorageNotFoundException;
 import ru.org.linux.user.*;
 import ru.org.linux.util.LorHttpUtils;
 import ru.org.linux.util.StringUtil;
@@ -38,9 +34,6 @@ import javax.servlet.ServletRequest;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.util.Properties;
 
 public final class Template {
@@ -49,11 +42,11 @@ public final class Template {
   private final Configuration configuration;
   private User currentUser = null;
 
-  private final Storage storage;
+  private final ProfileDao profileDao;
 
   public Template(WebApplicationContext ctx) {
     configuration = (Configuration)ctx.getBean("configuration");
-    storage = new FileStorage(configuration.getPathPrefix() + "linux-storage/");
+    profileDao = ctx.getBean(ProfileDao.class);
     userProfile = AuthUtil.getCurrentProfile();
 
     if(AuthUtil.isSessionAuthorized()) {
@@ -70,20 +63,7 @@ public final class Template {
     return getNick();
   }
 
-  private Profile readProfile() throws ClassNotFoundException, IOException, StorageException {
-    InputStream df = null;
-    try {
-      df = storage.getReadStream("profile", getNick());
-
-      return new Profile(df);
-    } finally {
-      if (df!=null) {
-        df.close();
-      }
-    }
-  }
-
-  public void writeProfile(String name) throws IOException, AccessViolationException, StorageException {
+  public void writeProfile(String name) throws AccessViolationException {
     if (name.charAt(0) == '_') {
       throw new AccessViolationException("нельзя менять специальный профиль");
     }
@@ -96,15 +76,13 @@ public final class Template {
       throw new AccessViolationException("нельзя менять профиль по умолчанию");
     }
 
-    OutputStream df = null;
-    try {
-      df = storage.getWriteStream("profile", name);
-      userProfile.write(df);
-    } finally {
-      if (df!=null) {
-        df.close();
-      }
+    User user = getCurrentUser();
+
+    if (user == null || !name.equals(user.getNick())) {
+      throw new AccessViolationException("нельзя менять чужой профиль");
     }
+
+    profileDao.writeProfile(user, userProfile);
   }
 
   public String getStyle() {
@@ -142,6 +142,107 @@ public class Configuration {
     return Boolean.valueOf(property);
   }
 
+  /**
+   * Интервал между сообщениями с одного IP-адреса для защиты от флуда.
+   *
+   * @return интервал в миллисекундах
+   */
+  public int getFloodIpInterval() {
+    return getIntProperty("flood.ip.interval", 30000);
+  }
+
+  /**
+   * Сколько сообщений подряд можно отправить с одного IP-адреса без ожидания.
+   *
+   * @return размер пачки сообщений
+   */
+  public int getFloodIpBurst() {
+    return getIntProperty("flood.ip.burst", 1);
+  }
+
+  /**
+   * Интервал между сообщениями одного пользователя для защиты от флуда.
+   *
+   * @return интервал в миллисекундах
+   */
+  public int getFloodUserInterval() {
+    return getIntProperty("flood.user.interval", 30000);
+  }
+
+  /**
+   * Сколько сообщений подряд может отправить пользователь без ожидания.
+   *
+   * @return размер пачки сообщений
+   */
+  public int getFloodUserBurst() {
+    return getIntProperty("flood.user.burst", 1);
+  }
+
+  /**
+   * Интервал между сообщениями для пользователей с большим скором.
+   *
+   * @return интервал в миллисекундах
+   */
+  public int getFloodTrustedInterval() {
+    return getIntProperty("flood.trusted.interval", 3000);
+  }
+
+  /**
+   * Максимальное количество IP-адресов и пользователей, отслеживаемых защитой от флуда.
+   *
+   * @return количество записей
+   */
+  public int getFloodMaxEntries() {
+    return getIntProperty("flood.maxEntries", 100000);
+  }
+
+  /**
+   * Сколько потоков используется для полной переиндексации поиска.
+   *
+   * @return количество потоков
+   */
+  public int getSearchReindexThreads() {
+    return getIntProperty("search.reindex.threads", 4);
+  }
+
+  /**
+   * Сколько потоков используется для параллельной подготовки длинных страниц
+   * комментариев; 0 - страницы готовятся в потоке запроса.
+   *
+   * @return количество потоков
+   */
+  public int getRenderThreads() {
+    return getIntProperty("render.threads", 0);
+  }
+
+  /**
+   * С какого количества элементов страница готовится параллельно;
+   * столько же элементов приходится минимум на каждый поток пула.
+   *
+   * @return количество элементов
+   */
+  public int getRenderParallelThreshold() {
+    return getIntProperty("render.parallel.threshold", 50);
+  }
+
+  /**
+   * Сколько поток запроса ждет потоки пула, прежде чем
+   * подготовить оставшиеся элементы сам (в миллисекундах).
+   *
+   * @return время ожидания
+   */
+  public int getRenderTimeout() {
+    return getIntProperty("render.timeout", 1000);
+  }
+
+  private int getIntProperty(String name, int defaultValue) {
+    String property = properties.getProperty(name);
+    if (property == null) {
+      return defaultValue;
+    }
+    return Integer.parseInt(property.trim());
+  }
+
   /**
    * какое минимальное значение скора должно быть, чтобы пользователь мог редактировать комментарии.
    *
@@ -120,7 +120,7 @@ public class SameIPController {
     mv.addObject("allowPosting", allowPosting);
     mv.addObject("captchaRequired", captchaRequired);
 
-    mv.getModel().put("tor", IPBlockDao.getTor(ip));
+    mv.getModel().put("tor", ipBlockDao.getTor(ip));
 
     return mv;
   }
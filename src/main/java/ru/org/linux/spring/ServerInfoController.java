@@ -16,9 +16,12 @@
 package ru.org.linux.spring;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.servlet.ModelAndView;
+import ru.org.linux.auth.FloodProtector;
+import ru.org.linux.spring.commons.NearCacheProvider;
 import ru.org.linux.user.User;
 import ru.org.linux.user.UserDao;
 
@@ -29,6 +32,12 @@ public class ServerInfoController {
   @Autowired
   private UserDao userDao;
 
+  @Autowired
+  private NearCacheProvider nearCacheProvider;
+
+  @Autowired
+  private FloodProtector floodProtector;
+
   @RequestMapping("/about")
   public ModelAndView serverInfo() {
     List<User> moderators = userDao.getModerators();
@@ -42,4 +51,14 @@ public class ServerInfoController {
 
     return mv;
   }
+
+  @RequestMapping("/admin/cache-stats")
+  @PreAuthorize("hasRole('ROLE_ADMIN')")
+  public ModelAndView cacheStats() {
+    ModelAndView mv = new ModelAndView("cache-stats", "statistics", nearCacheProvider.getStatistics());
+
+    mv.getModel().put("floodProtector", floodProtector);
+
+    return mv;
+  }
 }
@@ -19,41 +19,20 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.servlet.ModelAndView;
-import ru.org.linux.section.Section;
-import ru.org.linux.section.SectionNotFoundException;
-import ru.org.linux.section.SectionService;
-import ru.org.linux.topic.ArchiveDao;
 import ru.org.linux.topic.ArchiveDao.ArchiveDTO;
 
-import javax.annotation.PostConstruct;
 import javax.servlet.http.HttpServletRequest;
 import java.util.List;
 
 @Controller
 public class ArchiveBoxlet extends AbstractBoxlet {
   @Autowired
-  private ArchiveDao archiveDao;
-
-  @Autowired
-  private SectionService sectionService;
-
-  private Section sectionNews;
-
-  /**
-   * Инициализация бокслета.
-   * Метод вызывается автоматически сразу после создания бина.
-   *
-   * @throws SectionNotFoundException
-   */
-  @PostConstruct
-  private void initializeBoxlet() throws SectionNotFoundException {
-    sectionNews = sectionService.getSection(Section.SECTION_NEWS);
-  }
+  private BoxletDataService boxletDataService;
 
   @Override
   @RequestMapping("/archive.boxlet")
   protected ModelAndView getData(HttpServletRequest request) throws Exception {
-    List<ArchiveDTO> list = archiveDao.getArchiveDTO(sectionNews, 13);
+    List<ArchiveDTO> list = boxletDataService.getArchive();
 
     return new ModelAndView("boxlets/archive", "items", list);
   }
@@ -0,0 +1,250 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring.boxlets;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.org.linux.gallery.ImageDao;
+import ru.org.linux.gallery.PreparedGalleryItem;
+import ru.org.linux.section.Section;
+import ru.org.linux.section.SectionService;
+import ru.org.linux.tag.TagCloudDao;
+import ru.org.linux.tag.TagCloudDao.TagDTO;
+import ru.org.linux.topic.ArchiveDao;
+import ru.org.linux.topic.ArchiveDao.ArchiveDTO;
+import ru.org.linux.topic.TopTenDao;
+import ru.org.linux.topic.TopTenDao.TopTenMessageDTO;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Данные бокслетов, которые показываются почти на каждой странице.
+ *
+ * Данные перечитываются из БД по расписанию и заменяют предыдущий неизменяемый
+ * снимок целиком; запросы бокслетов читают только текущий снимок. Данные, которые
+ * зависят от настроек пользователя (количество страниц топика, размер облака тегов),
+ * вычисляются из снимка при первом обращении и запоминаются до следующего обновления.
+ */
+@Service
+public class BoxletDataService {
+  private static final Log logger = LogFactory.getLog(BoxletDataService.class);
+
+  private static final int ARCHIVE_MONTHS = 13;
+  private static final int GALLERY_ITEMS = 3;
+
+  /* максимальный размер облака в настройках профиля */
+  private static final int MAX_TAGS = 100;
+
+  @Autowired
+  private TopTenDao topTenDao;
+
+  @Autowired
+  private TagCloudDao tagCloudDao;
+
+  @Autowired
+  private ArchiveDao archiveDao;
+
+  @Autowired
+  private ImageDao imageDao;
+
+  @Autowired
+  private SectionService sectionService;
+
+  private volatile TopTenSnapshot topTen = null;
+  private volatile TagCloudSnapshot tagCloud = null;
+  private volatile ImmutableList<ArchiveDTO> archive = null;
+  private volatile ImmutableList<PreparedGalleryItem> gallery = null;
+
+  @Scheduled(fixedDelay = 60 * 1000)
+  public void refreshTopTen() {
+    try {
+      topTen = loadTopTen();
+    } catch (RuntimeException ex) {
+      logger.warn("Top10 refresh failed", ex);
+    }
+  }
+
+  @Scheduled(fixedDelay = 10 * 60 * 1000)
+  public void refreshTagCloud() {
+    try {
+      tagCloud = loadTagCloud();
+    } catch (RuntimeException ex) {
+      logger.warn("Tag cloud refresh failed", ex);
+    }
+  }
+
+  @Scheduled(fixedDelay = 10 * 60 * 1000)
+  public void refreshArchive() {
+    try {
+      archive = loadArchive();
+    } catch (RuntimeException ex) {
+      logger.warn("Archive refresh failed", ex);
+    }
+  }
+
+  @Scheduled(fixedDelay = 60 * 1000)
+  public void refreshGallery() {
+    try {
+      gallery = loadGallery();
+    } catch (RuntimeException ex) {
+      logger.warn("Gallery refresh failed", ex);
+    }
+  }
+
+  private TopTenSnapshot loadTopTen() {
+    return new TopTenSnapshot(ImmutableList.copyOf(topTenDao.getMessages()));
+  }
+
+  private TagCloudSnapshot loadTagCloud() {
+    return new TagCloudSnapshot(ImmutableList.copyOf(tagCloudDao.getTopTags(MAX_TAGS)));
+  }
+
+  private ImmutableList<ArchiveDTO> loadArchive() {
+    Section sectionNews = sectionService.getSection(Section.SECTION_NEWS);
+
+    return ImmutableList.copyOf(archiveDao.getArchiveDTO(sectionNews, ARCHIVE_MONTHS));
+  }
+
+  private ImmutableList<PreparedGalleryItem> loadGallery() {
+    return ImmutableList.copyOf(imageDao.prepare(imageDao.getGalleryItems(GALLERY_ITEMS)));
+  }
+
+  /**
+   * Наиболее обсуждаемые темы месяца
+   *
+   * @param messagesPerPage количество комментариев на странице в профиле пользователя
+   * @return темы с количеством страниц
+   */
+  public List<TopTenMessageDTO> getTopTen(int messagesPerPage) {
+    TopTenSnapshot current = topTen;
+
+    if (current == null) {
+      current = loadTopTen();
+      topTen = current;
+    }
+
+    return current.get(messagesPerPage);
+  }
+
+  /**
+   * Облако тегов
+   *
+   * @param count количество тегов в профиле пользователя
+   * @return теги с весами в алфавитном порядке
+   */
+  public List<TagDTO> getTagCloud(int count) {
+    TagCloudSnapshot current = tagCloud;
+
+    if (current == null) {
+      current = loadTagCloud();
+      tagCloud = current;
+    }
+
+    return current.get(count);
+  }
+
+  /**
+   * Количество новостей за последние месяцы
+   */
+  public List<ArchiveDTO> getArchive() {
+    ImmutableList<ArchiveDTO> current = archive;
+
+    if (current == null) {
+      current = loadArchive();
+      archive = current;
+    }
+
+    return current;
+  }
+
+  /**
+   * Последние изображения галереи
+   */
+  public List<PreparedGalleryItem> getGallery() {
+    ImmutableList<PreparedGalleryItem> current = gallery;
+
+    if (current == null) {
+      current = loadGallery();
+      gallery = current;
+    }
+
+    return current;
+  }
+
+  private static class TopTenSnapshot {
+    private final ImmutableList<TopTenMessageDTO> messages;
+    private final ConcurrentMap<Integer, ImmutableList<TopTenMessageDTO>> byPageSize =
+            new ConcurrentHashMap<Integer, ImmutableList<TopTenMessageDTO>>();
+
+    private TopTenSnapshot(ImmutableList<TopTenMessageDTO> messages) {
+      this.messages = messages;
+    }
+
+    private ImmutableList<TopTenMessageDTO> get(int messagesPerPage) {
+      ImmutableList<TopTenMessageDTO> list = byPageSize.get(messagesPerPage);
+
+      if (list == null) {
+        ImmutableList.Builder<TopTenMessageDTO> builder = ImmutableList.builder();
+
+        for (TopTenMessageDTO message : messages) {
+          TopTenMessageDTO dto = new TopTenMessageDTO();
+          dto.setUrl(message.getUrl());
+          dto.setTitle(message.getTitle());
+          dto.setLastmod(message.getLastmod());
+          dto.setAnswers(message.getAnswers());
+
+          int pages = dto.getAnswers() / messagesPerPage;
+          pages = (dto.getAnswers() % messagesPerPage > 0) ? pages + 1 : pages;
+          dto.setPages(pages);
+
+          builder.add(dto);
+        }
+
+        list = builder.build();
+        byPageSize.put(messagesPerPage, list);
+      }
+
+      return list;
+    }
+  }
+
+  private static class TagCloudSnapshot {
+    private final ImmutableList<TagDTO> topTags;
+    private final ConcurrentMap<Integer, ImmutableList<TagDTO>> byCount =
+            new ConcurrentHashMap<Integer, ImmutableList<TagDTO>>();
+
+    private TagCloudSnapshot(ImmutableList<TagDTO> topTags) {
+      this.topTags = topTags;
+    }
+
+    private ImmutableList<TagDTO> get(int count) {
+      ImmutableList<TagDTO> cloud = byCount.get(count);
+
+      if (cloud == null) {
+        cloud = ImmutableList.copyOf(TagCloudDao.makeCloud(topTags, count));
+        byCount.put(count, cloud);
+      }
+
+      return cloud;
+    }
+  }
+}
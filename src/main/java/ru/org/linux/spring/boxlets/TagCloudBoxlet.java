@@ -20,7 +20,6 @@ import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.servlet.ModelAndView;
 import ru.org.linux.site.Template;
-import ru.org.linux.tag.TagCloudDao;
 import ru.org.linux.tag.TagCloudDao.TagDTO;
 import ru.org.linux.user.ProfileProperties;
 
@@ -30,7 +29,7 @@ import java.util.List;
 @Controller
 public class TagCloudBoxlet extends AbstractBoxlet {
   @Autowired
-  private TagCloudDao tagDao;
+  private BoxletDataService boxletDataService;
 
   @Override
   @RequestMapping("/tagcloud.boxlet")
@@ -38,7 +37,7 @@ public class TagCloudBoxlet extends AbstractBoxlet {
     ProfileProperties profile = Template.getTemplate(request).getProf();
     final int i = profile.getTags();
 
-    List<TagDTO> list = tagDao.getTags(i);
+    List<TagDTO> list = boxletDataService.getTagCloud(i);
     ModelAndView mav = new ModelAndView("boxlets/tagcloud", "tags", list);
     mav.addObject("count", i);
     return mav;
@@ -16,56 +16,31 @@
 package ru.org.linux.spring.boxlets;
 
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
 
-import org.apache.commons.collections.Closure;
-import org.apache.commons.collections.CollectionUtils;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.servlet.ModelAndView;
 
 import ru.org.linux.site.Template;
-import ru.org.linux.topic.TopTenDao.TopTenMessageDTO;
 import ru.org.linux.user.ProfileProperties;
-import ru.org.linux.topic.TopTenDao;
 
 @Controller
 public class TopTenBoxlet extends AbstractBoxlet {
-  private TopTenDao topTenDao;
-
-  public TopTenDao getTopTenDao() {
-    return topTenDao;
-  }
-
   @Autowired
-  public void setTopTenDao(TopTenDao topTenDao) {
-    this.topTenDao = topTenDao;
-  }
+  private BoxletDataService boxletDataService;
 
   @Override
   @RequestMapping("/top10.boxlet")
   protected ModelAndView getData(HttpServletRequest request) {
     ProfileProperties profile = Template.getTemplate(request).getProf();
-    final int itemsPerPage = profile.getMessages();
     String style = profile.getStyle();
 
-    List<TopTenMessageDTO> list = topTenDao.getMessages();
-    CollectionUtils.forAllDo(list, new Closure() {
-      @Override
-      public void execute(Object o) {
-        TopTenMessageDTO dto = (TopTenMessageDTO) o;
-        int tmp = dto.getAnswers() / itemsPerPage;
-        tmp = (dto.getAnswers() % itemsPerPage > 0) ? tmp + 1 : tmp;
-        dto.setPages(tmp);
-      }
-    });
-
     Map<String, Object> params = new HashMap<String, Object>();
-    params.put("messages", list);
+    params.put("messages", boxletDataService.getTopTen(profile.getMessages()));
     params.put("style", style);
 
     return new ModelAndView("boxlets/top10", params);
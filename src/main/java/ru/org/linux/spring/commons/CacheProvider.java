@@ -15,8 +15,21 @@
 
 package ru.org.linux.spring.commons;
 
+import java.util.Collection;
+import java.util.Map;
+
 public interface CacheProvider {
   Object getFromCache(String key);
+
+  /**
+   * Получить сразу несколько значений
+   *
+   * @param keys ключи
+   * @return найденные значения; отсутствующих в кеше ключей в ответе нет
+   */
+  Map<String, Object> getFromCache(Collection<String> keys);
+
   <T> void storeToCache(String key, T value, int expire);
-  <T> void storeToCache(String key, T value);  
+  <T> void storeToCache(String key, T value);
+  void removeFromCache(String key);
 }
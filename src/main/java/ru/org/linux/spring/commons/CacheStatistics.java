@@ -0,0 +1,92 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring.commons;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Счетчики обращений к кешу для одного префикса ключей
+ */
+public class CacheStatistics {
+  private final String prefix;
+
+  private final AtomicLong nearHits = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong remoteTime = new AtomicLong();
+
+  public CacheStatistics(String prefix) {
+    this.prefix = prefix;
+  }
+
+  void nearHit() {
+    nearHits.incrementAndGet();
+  }
+
+  /**
+   * Обращение к удаленному кешу
+   *
+   * @param hit   значение найдено
+   * @param nanos время обращения в наносекундах
+   */
+  void remote(boolean hit, long nanos) {
+    if (hit) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+
+    remoteTime.addAndGet(nanos);
+  }
+
+  public String getPrefix() {
+    return prefix;
+  }
+
+  public long getNearHits() {
+    return nearHits.get();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getRequests() {
+    return nearHits.get() + hits.get() + misses.get();
+  }
+
+  /**
+   * @return доля найденных значений (в любом уровне кеша), от 0 до 1
+   */
+  public double getHitRate() {
+    long requests = getRequests();
+
+    return requests == 0 ? 0 : (double) (nearHits.get() + hits.get()) / requests;
+  }
+
+  /**
+   * @return среднее время обращения к удаленному кешу в микросекундах
+   */
+  public long getAverageRemoteTime() {
+    long remote = hits.get() + misses.get();
+
+    return remote == 0 ? 0 : remoteTime.get() / remote / 1000;
+  }
+}
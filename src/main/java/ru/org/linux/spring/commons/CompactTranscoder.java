@@ -0,0 +1,80 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring.commons;
+
+import net.spy.memcached.CachedData;
+import net.spy.memcached.transcoders.SerializingTranscoder;
+import ru.org.linux.comment.CommentList;
+import ru.org.linux.comment.CommentListCodec;
+
+import java.io.IOException;
+
+/**
+ * Transcoder для memcached, который записывает {@link CommentList} в компактном
+ * формате {@link CommentListCodec} вместо сериализации Java. Большие значения сжимаются.
+ * Остальные типы обрабатываются стандартным SerializingTranscoder.
+ */
+public class CompactTranscoder extends SerializingTranscoder {
+  private static final int COMPRESSED = 2;
+  private static final int COMMENT_LIST = 0x4000;
+
+  @Override
+  public CachedData encode(Object o) {
+    if (o instanceof CommentList) {
+      byte[] data = CommentListCodec.encode((CommentList) o);
+      int flags = COMMENT_LIST;
+
+      if (data.length > compressionThreshold) {
+        byte[] compressed = compress(data);
+
+        if (compressed.length < data.length) {
+          data = compressed;
+          flags |= COMPRESSED;
+        }
+      }
+
+      return new CachedData(flags, data, getMaxSize());
+    }
+
+    return super.encode(o);
+  }
+
+  @Override
+  public Object decode(CachedData d) {
+    int flags = d.getFlags();
+
+    if ((flags & COMMENT_LIST) != 0) {
+      byte[] data = d.getData();
+
+      if ((flags & COMPRESSED) != 0) {
+        data = decompress(data);
+      }
+
+      if (data == null) {
+        return null;
+      }
+
+      try {
+        return CommentListCodec.decode(data);
+      } catch (IOException ex) {
+        getLogger().warn("Can't decode cached comment list", ex);
+        return null;
+      }
+    }
+
+    return super.decode(d);
+  }
+}
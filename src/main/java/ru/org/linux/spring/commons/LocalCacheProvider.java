@@ -0,0 +1,136 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring.commons;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кеш в памяти JVM. Замена memcached для тестов и установок из одного узла.
+ *
+ * Значения не копируются, поэтому закешированные объекты нельзя изменять.
+ */
+public class LocalCacheProvider implements CacheProvider {
+  private static final int DEFAULT_SIZE = 10000;
+
+  private final Cache<String, Entry> cache;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  public LocalCacheProvider() {
+    this(DEFAULT_SIZE);
+  }
+
+  /**
+   * @param size максимальное количество записей
+   */
+  public LocalCacheProvider(int size) {
+    cache = CacheBuilder.newBuilder().maximumSize(size).<String, Entry>build();
+  }
+
+  @Override
+  public Object getFromCache(String key) {
+    Entry entry = cache.getIfPresent(key);
+
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+
+    if (entry.isExpired(System.currentTimeMillis())) {
+      cache.invalidate(key);
+      misses.incrementAndGet();
+      return null;
+    }
+
+    hits.incrementAndGet();
+    return entry.value;
+  }
+
+  @Override
+  public Map<String, Object> getFromCache(Collection<String> keys) {
+    Map<String, Object> result = Maps.newHashMapWithExpectedSize(keys.size());
+
+    for (String key : keys) {
+      Object value = getFromCache(key);
+
+      if (value != null) {
+        result.put(key, value);
+      }
+    }
+
+    return result;
+  }
+
+  @Override
+  public <T> void storeToCache(String key, T value, int expire) {
+    long expireAt = expire > 0 ? System.currentTimeMillis() + expire : 0;
+
+    cache.put(key, new Entry(value, expireAt));
+  }
+
+  @Override
+  public <T> void storeToCache(String key, T value) {
+    storeToCache(key, value, 0);
+  }
+
+  @Override
+  public void removeFromCache(String key) {
+    cache.invalidate(key);
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return доля попаданий в кеш, от 0 до 1
+   */
+  public double getHitRate() {
+    long h = hits.get();
+    long total = h + misses.get();
+
+    return total == 0 ? 0 : (double) h / total;
+  }
+
+  public long getSize() {
+    return cache.size();
+  }
+
+  private static class Entry {
+    private final Object value;
+    private final long expireAt;
+
+    private Entry(Object value, long expireAt) {
+      this.value = value;
+      this.expireAt = expireAt;
+    }
+
+    private boolean isExpired(long now) {
+      return expireAt != 0 && expireAt <= now;
+    }
+  }
+}
@@ -15,24 +15,98 @@
 
 package ru.org.linux.spring.commons;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import net.spy.memcached.*;
+import net.spy.memcached.internal.BulkFuture;
 import ru.org.linux.site.MemCachedSettings;
 
-import net.spy.memcached.OperationTimeoutException;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Кеш в memcached.
+ *
+ * Серверы задаются списком "host:port host:port ..." и выбираются по ключу
+ * консистентным хешированием (ketama), поэтому добавление или отказ сервера
+ * затрагивает только его часть ключей. Чтение асинхронное с таймаутом: если
+ * memcached не ответил вовремя, считаем что в кеше ничего нет.
+ */
 public class MemCachedProvider implements CacheProvider {
   private static final Log logger = LogFactory.getLog(MemCachedProvider.class);
 
+  private static final long DEFAULT_TIMEOUT = 500;
+
+  private String servers = "127.0.0.1:11211";
+  private long timeout = DEFAULT_TIMEOUT;
+
+  private MemcachedClient client;
+
+  /**
+   * @param servers список серверов memcached через пробел или запятую, например "10.0.0.1:11211 10.0.0.2:11211"
+   */
+  public void setServers(String servers) {
+    this.servers = servers;
+  }
+
+  /**
+   * @param timeout таймаут операций в миллисекундах
+   */
+  public void setTimeout(long timeout) {
+    this.timeout = timeout;
+  }
+
+  public void init() throws IOException {
+    ConnectionFactory connectionFactory = new ConnectionFactoryBuilder()
+            .setLocatorType(ConnectionFactoryBuilder.Locator.CONSISTENT)
+            .setHashAlg(DefaultHashAlgorithm.KETAMA_HASH)
+            .setFailureMode(FailureMode.Redistribute)
+            .setOpTimeout(timeout)
+            .setDaemon(true)
+            .setTranscoder(new CompactTranscoder())
+            .build();
+
+    client = new MemcachedClient(connectionFactory, AddrUtil.getAddresses(servers));
+  }
+
+  private boolean isAvailable() {
+    return !client.getAvailableServers().isEmpty();
+  }
+
+  private <T> T waitFor(Future<T> future, String operation) {
+    try {
+      return future.get(timeout, TimeUnit.MILLISECONDS);
+    } catch (TimeoutException ex) {
+      future.cancel(false);
+      logger.info("Memcached " + operation + " timed out");
+      return null;
+    } catch (InterruptedException ex) {
+      future.cancel(false);
+      Thread.currentThread().interrupt();
+      return null;
+    } catch (ExecutionException ex) {
+      logger.info("Memcached " + operation + " failed", ex);
+      return null;
+    }
+  }
+
   @Override
   public Object getFromCache(String key) {
     String s = MemCachedSettings.getId(key);
     try {
-      if (MemCachedSettings.getMemCachedClient().getAvailableServers().isEmpty()) {
+      if (!isAvailable()) {
         return null;
       }
 
-      return MemCachedSettings.getMemCachedClient().get(s);
+      return waitFor(client.asyncGet(s), "GET");
     } catch (IllegalStateException ex) {
       logger.info("Memcached GET failed", ex);
       return null;
@@ -42,15 +116,56 @@ public class MemCachedProvider implements CacheProvider {
     }
   }
 
+  @Override
+  public Map<String, Object> getFromCache(Collection<String> keys) {
+    if (keys.isEmpty()) {
+      return ImmutableMap.of();
+    }
+
+    Map<String, String> ids = Maps.newHashMapWithExpectedSize(keys.size());
+
+    for (String key : keys) {
+      ids.put(MemCachedSettings.getId(key), key);
+    }
+
+    try {
+      if (!isAvailable()) {
+        return ImmutableMap.of();
+      }
+
+      BulkFuture<Map<String, Object>> future = client.asyncGetBulk(ids.keySet());
+
+      /* при таймауте берем то, что успели получить */
+      Map<String, Object> found = future.getSome(timeout, TimeUnit.MILLISECONDS);
+
+      Map<String, Object> result = Maps.newHashMapWithExpectedSize(found.size());
+
+      for (Map.Entry<String, Object> entry : found.entrySet()) {
+        result.put(ids.get(entry.getKey()), entry.getValue());
+      }
+
+      return result;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return ImmutableMap.of();
+    } catch (ExecutionException ex) {
+      logger.info("Memcached GET BULK failed", ex);
+      return ImmutableMap.of();
+    } catch (IllegalStateException ex) {
+      logger.info("Memcached GET BULK failed", ex);
+      return ImmutableMap.of();
+    }
+  }
+
   @Override
   public <T> void storeToCache(String key, T value, int expire) {
     String s = MemCachedSettings.getId(key);
     try {
-      if (MemCachedSettings.getMemCachedClient().getAvailableServers().isEmpty()) {
+      if (!isAvailable()) {
         return;
       }
 
-      MemCachedSettings.getMemCachedClient().set(s, expire/1000, value);
+      client.set(s, expire/1000, value);
     } catch (IllegalArgumentException ex) {
       logger.info("Memcached SET failed", ex);
     } catch (IllegalStateException ex) {
@@ -65,8 +180,24 @@ public class MemCachedProvider implements CacheProvider {
     storeToCache(key, value, 0);
   }
 
+  @Override
+  public void removeFromCache(String key) {
+    String s = MemCachedSettings.getId(key);
+    try {
+      if (!isAvailable()) {
+        return;
+      }
+
+      client.delete(s);
+    } catch (IllegalStateException ex) {
+      logger.info("Memcached DELETE failed", ex);
+    } catch (OperationTimeoutException ex) {
+      logger.info("Memcached DELETE failed", ex);
+    }
+  }
+
   public void destroy() {
     logger.debug("Shutting down memcached");
-    MemCachedSettings.getMemCachedClient().shutdown();
+    client.shutdown();
   }
 }
@@ -0,0 +1,204 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring.commons;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import net.sf.ehcache.Ehcache;
+import net.sf.ehcache.Element;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Кеш в памяти JVM (ehcache) перед удаленным кешем.
+ *
+ * Значения из удаленного кеша хранятся локально короткое время, которое задается
+ * по префиксу ключа (часть до '?'). Это убирает сетевое обращение и десериализацию
+ * для ключей, которые читаются много раз в секунду. Изменения, сделанные на других
+ * узлах, становятся видны не позже чем через это время.
+ *
+ * Для каждого префикса считаются попадания в локальный и удаленный кеш, промахи
+ * и время обращения к удаленному кешу.
+ */
+public class NearCacheProvider implements CacheProvider {
+  private static final int DEFAULT_NEAR_TTL = 5;
+
+  private final CacheProvider remote;
+  private final Ehcache near;
+
+  private Map<String, Integer> nearTtl = ImmutableMap.of();
+  private int defaultNearTtl = DEFAULT_NEAR_TTL;
+
+  private final ConcurrentMap<String, CacheStatistics> statistics = new ConcurrentHashMap<String, CacheStatistics>();
+
+  public NearCacheProvider(CacheProvider remote, Ehcache near) {
+    this.remote = remote;
+    this.near = near;
+  }
+
+  /**
+   * @param nearTtl время хранения в локальном кеше (в секундах) по префиксу ключа; 0 - не хранить
+   */
+  public void setNearTtl(Map<String, Integer> nearTtl) {
+    this.nearTtl = ImmutableMap.copyOf(nearTtl);
+  }
+
+  /**
+   * @param defaultNearTtl время хранения в локальном кеше (в секундах) для остальных ключей
+   */
+  public void setDefaultNearTtl(int defaultNearTtl) {
+    this.defaultNearTtl = defaultNearTtl;
+  }
+
+  private static String getPrefix(String key) {
+    int index = key.indexOf('?');
+
+    return index == -1 ? key : key.substring(0, index);
+  }
+
+  private CacheStatistics statisticsFor(String prefix) {
+    CacheStatistics stat = statistics.get(prefix);
+
+    if (stat == null) {
+      CacheStatistics created = new CacheStatistics(prefix);
+      stat = statistics.putIfAbsent(prefix, created);
+
+      if (stat == null) {
+        stat = created;
+      }
+    }
+
+    return stat;
+  }
+
+  private int getNearTtl(String prefix) {
+    Integer ttl = nearTtl.get(prefix);
+
+    return ttl != null ? ttl : defaultNearTtl;
+  }
+
+  private void storeNear(String key, String prefix, Object value, int expire) {
+    int ttl = getNearTtl(prefix);
+
+    if (expire > 0) {
+      ttl = Math.min(ttl, expire / 1000);
+    }
+
+    if (ttl <= 0) {
+      return;
+    }
+
+    Element element = new Element(key, value);
+    element.setTimeToLive(ttl);
+
+    near.put(element);
+  }
+
+  @Override
+  public Object getFromCache(String key) {
+    String prefix = getPrefix(key);
+    CacheStatistics stat = statisticsFor(prefix);
+
+    Element element = near.get(key);
+
+    if (element != null) {
+      stat.nearHit();
+      return element.getObjectValue();
+    }
+
+    long start = System.nanoTime();
+    Object value = remote.getFromCache(key);
+    stat.remote(value != null, System.nanoTime() - start);
+
+    if (value != null) {
+      storeNear(key, prefix, value, 0);
+    }
+
+    return value;
+  }
+
+  @Override
+  public Map<String, Object> getFromCache(Collection<String> keys) {
+    Map<String, Object> result = Maps.newHashMapWithExpectedSize(keys.size());
+    List<String> missed = new ArrayList<String>(keys.size());
+
+    for (String key : keys) {
+      Element element = near.get(key);
+
+      if (element != null) {
+        statisticsFor(getPrefix(key)).nearHit();
+        result.put(key, element.getObjectValue());
+      } else {
+        missed.add(key);
+      }
+    }
+
+    if (!missed.isEmpty()) {
+      long start = System.nanoTime();
+      Map<String, Object> found = remote.getFromCache(missed);
+      long time = (System.nanoTime() - start) / missed.size();
+
+      for (String key : missed) {
+        String prefix = getPrefix(key);
+        Object value = found.get(key);
+
+        statisticsFor(prefix).remote(value != null, time);
+
+        if (value != null) {
+          storeNear(key, prefix, value, 0);
+          result.put(key, value);
+        }
+      }
+    }
+
+    return result;
+  }
+
+  @Override
+  public <T> void storeToCache(String key, T value, int expire) {
+    remote.storeToCache(key, value, expire);
+    storeNear(key, getPrefix(key), value, expire);
+  }
+
+  @Override
+  public <T> void storeToCache(String key, T value) {
+    storeToCache(key, value, 0);
+  }
+
+  @Override
+  public void removeFromCache(String key) {
+    near.remove(key);
+    remote.removeFromCache(key);
+  }
+
+  /**
+   * @return счетчики по префиксам ключей, упорядоченные по префиксу
+   */
+  public List<CacheStatistics> getStatistics() {
+    List<CacheStatistics> list = new ArrayList<CacheStatistics>(statistics.values());
+
+    Collections.sort(list, new Comparator<CacheStatistics>() {
+      @Override
+      public int compare(CacheStatistics o1, CacheStatistics o2) {
+        return o1.getPrefix().compareTo(o2.getPrefix());
+      }
+    });
+
+    return list;
+  }
+}
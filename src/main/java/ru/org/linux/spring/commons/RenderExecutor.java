@@ -0,0 +1,189 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring.commons;
+
+import com.google.common.base.Function;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import ru.org.linux.spring.Configuration;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Общий пул потоков для параллельной подготовки длинных страниц.
+ *
+ * Элементы списка разбираются по одному из общего счетчика потоком запроса и
+ * несколькими потоками пула, поэтому поток запроса никогда не простаивает: если
+ * пул занят и задачи не принимаются, весь список обрабатывается последовательно.
+ * Элементы, которые взяли потоки пула, но не успели обработать до истечения срока,
+ * обрабатываются повторно в потоке запроса. Порядок результатов совпадает с порядком
+ * элементов.
+ */
+@Component
+public class RenderExecutor {
+  private static final Log logger = LogFactory.getLog(RenderExecutor.class);
+
+  /* сколько задач на поток может ждать в очереди */
+  private static final int QUEUE_PER_THREAD = 4;
+
+  @Autowired
+  private Configuration configuration;
+
+  private int threads;
+  private int threshold;
+  private long timeout;
+
+  private ThreadPoolExecutor executor = null;
+
+  @PostConstruct
+  public void init() {
+    threads = configuration.getRenderThreads();
+    threshold = Math.max(configuration.getRenderParallelThreshold(), 2);
+    timeout = configuration.getRenderTimeout();
+
+    if (threads > 0) {
+      executor = new ThreadPoolExecutor(
+              threads,
+              threads,
+              0L,
+              TimeUnit.MILLISECONDS,
+              new ArrayBlockingQueue<Runnable>(threads * QUEUE_PER_THREAD),
+              new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                  Thread thread = new Thread(r, "render-" + counter.incrementAndGet());
+                  thread.setDaemon(true);
+                  return thread;
+                }
+              },
+              new ThreadPoolExecutor.AbortPolicy()
+      );
+    }
+  }
+
+  @PreDestroy
+  public void stop() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Применить функцию к каждому элементу списка.
+   * Функция вызывается из нескольких потоков и не должна зависеть от состояния запроса.
+   *
+   * @param input    элементы
+   * @param function обработка элемента
+   * @return результаты в порядке элементов
+   */
+  public <F, T> List<T> transform(List<F> input, Function<? super F, T> function) {
+    int size = input.size();
+
+    if (executor == null || size < threshold) {
+      List<T> result = new ArrayList<T>(size);
+
+      for (F item : input) {
+        result.add(function.apply(item));
+      }
+
+      return result;
+    }
+
+    Batch<F, T> batch = new Batch<F, T>(input, function);
+
+    int helpers = Math.min(threads, size / threshold);
+
+    for (int i = 0; i < helpers; i++) {
+      try {
+        executor.execute(batch);
+      } catch (RejectedExecutionException ex) {
+        /* пул перегружен: оставшееся делает поток запроса */
+        break;
+      }
+    }
+
+    batch.run();
+
+    return batch.finish(timeout);
+  }
+
+  private static class Batch<F, T> implements Runnable {
+    private final List<F> input;
+    private final Function<? super F, T> function;
+
+    private final AtomicInteger next = new AtomicInteger();
+    private final AtomicReferenceArray<T> results;
+    private final CountDownLatch done;
+
+    private Batch(List<F> input, Function<? super F, T> function) {
+      this.input = input;
+      this.function = function;
+
+      results = new AtomicReferenceArray<T>(input.size());
+      done = new CountDownLatch(input.size());
+    }
+
+    @Override
+    public void run() {
+      int i;
+
+      while ((i = next.getAndIncrement()) < input.size()) {
+        try {
+          results.set(i, function.apply(input.get(i)));
+        } catch (RuntimeException ex) {
+          /* элемент будет обработан еще раз в потоке запроса, там ошибка и будет выброшена */
+          logger.debug("Render failed in pool thread", ex);
+        } finally {
+          done.countDown();
+        }
+      }
+    }
+
+    private List<T> finish(long timeout) {
+      try {
+        if (!done.await(timeout, TimeUnit.MILLISECONDS)) {
+          logger.debug("Render deadline exceeded, finishing in request thread");
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+      }
+
+      List<T> result = new ArrayList<T>(input.size());
+
+      for (int i = 0; i < input.size(); i++) {
+        T value = results.get(i);
+
+        if (value == null) {
+          value = function.apply(input.get(i));
+        }
+
+        result.add(value);
+      }
+
+      return result;
+    }
+  }
+}
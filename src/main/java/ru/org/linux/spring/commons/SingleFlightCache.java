@@ -0,0 +1,185 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring.commons;
+
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.Serializable;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Загрузка значений в кеш без одновременного пересчета одного ключа.
+ *
+ * Когда популярный ключ устаревает, все запросы одновременно получают промах и
+ * выполняют одинаковый запрос к БД. Здесь значение для ключа пересчитывает только
+ * один поток узла: остальные получают устаревшее значение, если оно еще есть в кеше,
+ * или ждут результата этого потока.
+ *
+ * Значение хранится в кеше дольше своего срока жизни, чтобы его можно было отдать
+ * во время пересчета. Кроме того, незадолго до окончания срока значение пересчитывается
+ * с вероятностью, растущей к концу срока и пропорциональной времени пересчета
+ * (probabilistic early expiration), поэтому популярные ключи обычно обновляются
+ * до того, как устареют.
+ */
+@Component
+public class SingleFlightCache {
+  /* во сколько раз устаревшее значение хранится дольше срока жизни */
+  private static final int STALE_FACTOR = 2;
+
+  /* коэффициент раннего пересчета; 0 - не пересчитывать заранее */
+  private static final double BETA = 1.0;
+
+  private static final Random random = new Random();
+
+  @Autowired
+  private CacheProvider cacheProvider;
+
+  private final ConcurrentMap<String, FutureTask<?>> inFlight = new ConcurrentHashMap<String, FutureTask<?>>();
+
+  /**
+   * Получить значение из кеша или загрузить его
+   *
+   * @param key    ключ кеша
+   * @param expire срок жизни значения (в миллисекундах), больше 0
+   * @param loader загрузка значения
+   * @return значение
+   */
+  public <T> T get(final String key, final int expire, final Supplier<T> loader) {
+    Object cached = cacheProvider.getFromCache(key);
+    final Entry entry = cached instanceof Entry ? (Entry) cached : null;
+
+    long now = System.currentTimeMillis();
+
+    if (entry != null && !needsRefresh(entry, now)) {
+      return (T) entry.value;
+    }
+
+    Supplier<T> refresh = new Supplier<T>() {
+      @Override
+      public T get() {
+        long start = System.currentTimeMillis();
+
+        T value = loader.get();
+
+        long end = System.currentTimeMillis();
+
+        cacheProvider.storeToCache(key, new Entry(value, end + expire, end - start), expire * STALE_FACTOR);
+
+        return value;
+      }
+    };
+
+    if (entry != null && inFlight.containsKey(key)) {
+      /* пока значение пересчитывает другой поток, отдаем устаревшее */
+      return (T) entry.value;
+    }
+
+    return load(key, refresh);
+  }
+
+  /**
+   * Загрузить значение так, чтобы одновременные загрузки одного ключа на узле
+   * выполнялись один раз. Сохранять результат в кеш должен сам loader.
+   *
+   * @param key    ключ
+   * @param loader загрузка значения
+   * @return значение
+   */
+  public <T> T load(String key, Supplier<T> loader) {
+    FutureTask<T> task = new FutureTask<T>(new SupplierCallable<T>(loader));
+
+    FutureTask<T> running = (FutureTask<T>) inFlight.putIfAbsent(key, task);
+
+    if (running == null) {
+      try {
+        task.run();
+      } finally {
+        inFlight.remove(key, task);
+      }
+
+      running = task;
+    }
+
+    try {
+      return running.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while loading " + key, ex);
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+
+      throw new UncheckedExecutionException(cause);
+    }
+  }
+
+  private static boolean needsRefresh(Entry entry, long now) {
+    if (now >= entry.expireAt) {
+      return true;
+    }
+
+    double r;
+
+    synchronized (random) {
+      r = random.nextDouble();
+    }
+
+    /* -ln(r) >= 0, в среднем 1 */
+    return now - entry.delta * BETA * Math.log(r) >= entry.expireAt;
+  }
+
+  private static class SupplierCallable<T> implements Callable<T> {
+    private final Supplier<T> supplier;
+
+    private SupplierCallable(Supplier<T> supplier) {
+      this.supplier = supplier;
+    }
+
+    @Override
+    public T call() {
+      return supplier.get();
+    }
+  }
+
+  private static class Entry implements Serializable {
+    private static final long serialVersionUID = 6052846307924557031L;
+
+    private final Object value;
+    private final long expireAt;
+    private final long delta;
+
+    private Entry(Object value, long expireAt, long delta) {
+      this.value = value;
+      this.expireAt = expireAt;
+      this.delta = delta;
+    }
+  }
+}
@@ -26,6 +26,8 @@ import ru.org.linux.user.User;
 import javax.sql.DataSource;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /**
@@ -90,6 +92,28 @@ public class DeleteInfoDao {
     jdbcTemplate.update(INSERT_DELETE_INFO, msgid, deleter.getId(), reason, scoreBonus);
   }
 
+  /**
+   * Записать одинаковую причину удаления для нескольких сообщений одним пакетом
+   *
+   * @param msgids id удаленных сообщений
+   * @param deleter кто удалил
+   * @param reason причина удаления
+   * @param scoreBonus штраф
+   */
+  public void insert(Collection<Integer> msgids, User deleter, String reason, int scoreBonus) {
+    if (msgids.isEmpty()) {
+      return;
+    }
+
+    List<Object[]> batch = new ArrayList<Object[]>(msgids.size());
+
+    for (Integer msgid : msgids) {
+      batch.add(new Object[] { msgid, deleter.getId(), reason, scoreBonus });
+    }
+
+    jdbcTemplate.batchUpdate(INSERT_DELETE_INFO, batch);
+  }
+
   public List<DeleteInfoStat> getRecentStats() {
     return jdbcTemplate.query(
             "select * from( select reason, count(*), sum(bonus) from del_info where deldate>CURRENT_TIMESTAMP-'1 day'::interval and bonus is not null group by reason) as s where sum!=0 order by reason",
@@ -15,12 +15,21 @@
 
 package ru.org.linux.spring.dao;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 
 import javax.sql.DataSource;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * Информация о UA пользователей
@@ -31,10 +40,12 @@ public class UserAgentDao {
   private static final String queryUserAgentById = "SELECT name FROM user_agents WHERE id=?";
 
   private JdbcTemplate jdbcTemplate;
+  private NamedParameterJdbcTemplate namedJdbcTemplate;
 
   @Autowired
   public void setDataSource(DataSource dataSource) {
     jdbcTemplate = new JdbcTemplate(dataSource);
+    namedJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
   }
 
   /**
@@ -52,4 +63,40 @@ public class UserAgentDao {
       return null;
     }
   }
+
+  /**
+   * получить несколько UA одним запросом
+   * @param ids id UA (0 пропускается)
+   * @return названия UA по id; отсутствующих в ответе нет
+   */
+  public Map<Integer, String> getUserAgents(Collection<Integer> ids) {
+    ImmutableSet.Builder<Integer> builder = ImmutableSet.builder();
+
+    for (Integer id : ids) {
+      if (id != 0) {
+        builder.add(id);
+      }
+    }
+
+    ImmutableSet<Integer> list = builder.build();
+
+    if (list.isEmpty()) {
+      return ImmutableMap.of();
+    }
+
+    final Map<Integer, String> userAgents = Maps.newHashMapWithExpectedSize(list.size());
+
+    namedJdbcTemplate.query(
+            "SELECT id, name FROM user_agents WHERE id IN (:list)",
+            ImmutableMap.of("list", list),
+            new RowCallbackHandler() {
+              @Override
+              public void processRow(ResultSet rs) throws SQLException {
+                userAgents.put(rs.getInt("id"), rs.getString("name"));
+              }
+            }
+    );
+
+    return userAgents;
+  }
 }
@@ -28,6 +28,15 @@ public interface ITagActionHandler {
    */
   void replaceTag(int oldTagId, String oldTagName, int newTagId, String newTagName);
 
+  /**
+   * Изменение названия тега.
+   *
+   * @param tagId       идентификационный номер тега
+   * @param oldTagName  старое название тега
+   * @param newTagName  новое название тега
+   */
+  void changeTag(int tagId, String oldTagName, String newTagName);
+
   /**
    * Удаление существующего тега.
    *
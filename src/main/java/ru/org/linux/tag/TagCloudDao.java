@@ -18,12 +18,10 @@ package ru.org.linux.tag;
 import java.io.Serializable;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-import org.apache.commons.collections.Closure;
-import org.apache.commons.collections.CollectionUtils;
-import org.apache.commons.lang.mutable.MutableDouble;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
@@ -42,41 +40,66 @@ public class TagCloudDao {
   }
 
   public List<TagDTO> getTags(int tagcount) {
+    return makeCloud(getTopTags(tagcount), tagcount);
+  }
+
+  /**
+   * Самые популярные теги без весов
+   *
+   * @param tagcount количество тегов
+   * @return теги в порядке убывания популярности
+   */
+  public List<TagDTO> getTopTags(int tagcount) {
     String sql = "select value,counter from tags_values where counter>0 order by counter desc limit ?";
-    final MutableDouble maxc = new MutableDouble(1);
-    final MutableDouble minc = new MutableDouble(-1);
-    List<TagDTO> result = jdbcTemplate.query(sql, new RowMapper<TagDTO>() {
+    return jdbcTemplate.query(sql, new RowMapper<TagDTO>() {
       @Override
       public TagDTO mapRow(ResultSet rs, int rowNum) throws SQLException {
         TagDTO result = new TagDTO();
         result.setValue(rs.getString("value"));
-        double counter = Math.log(rs.getInt("counter"));
-        result.setCounter(counter);
+        result.setCounter(Math.log(rs.getInt("counter")));
+        return result;
+      }
+    }, tagcount);
+  }
 
-        if (maxc.doubleValue() < counter){
-          maxc.setValue(counter);
-        }
+  /**
+   * Облако из первых тегов списка {@link #getTopTags(int)}. Исходный список не изменяется.
+   *
+   * @param topTags  теги в порядке убывания популярности
+   * @param tagcount количество тегов в облаке
+   * @return теги с весами в алфавитном порядке
+   */
+  public static List<TagDTO> makeCloud(List<TagDTO> topTags, int tagcount) {
+    double maxc = 1;
+    double minc = -1;
 
-        if (minc.doubleValue() < 0 || counter < minc.doubleValue()){
-          minc.setValue(counter);
-        }
+    List<TagDTO> result = new ArrayList<TagDTO>(Math.min(tagcount, topTags.size()));
 
-        return result;
+    for (TagDTO top : topTags.subList(0, Math.min(tagcount, topTags.size()))) {
+      TagDTO tag = new TagDTO();
+      tag.setValue(top.getValue());
+      tag.setCounter(top.getCounter());
+
+      double counter = tag.getCounter();
+
+      if (maxc < counter){
+        maxc = counter;
+      }
+
+      if (minc < 0 || counter < minc){
+        minc = counter;
       }
-    }, tagcount);
 
-    if (minc.doubleValue() < 0){
-      minc.setValue(0);
+      result.add(tag);
     }
 
-    CollectionUtils.forAllDo(result, new Closure() {
-      @Override
-      public void execute(Object o) {
-        TagDTO tag = (TagDTO) o;
-        tag.setWeight((int) Math.round(10*(tag.getCounter() - minc.doubleValue())
-          / (maxc.doubleValue() - minc.doubleValue())));
-      }
-    });
+    if (minc < 0){
+      minc = 0;
+    }
+
+    for (TagDTO tag : result) {
+      tag.setWeight((int) Math.round(10*(tag.getCounter() - minc) / (maxc - minc)));
+    }
 
     Collections.sort(result);
 
@@ -223,6 +223,9 @@ public class TagService {
         errors.rejectValue("tagName", "", "Тег с таким именем уже существует!");
       } catch (TagNotFoundException ignored) {
         tagDao.changeTag(oldTagId, tagName);
+        for (ITagActionHandler actionHandler : actionHandlers) {
+          actionHandler.changeTag(oldTagId, oldTagName, tagName);
+        }
         StringBuilder logStr = new StringBuilder()
           .append("Изменено название тега. Старое значение: '")
           .append(oldTagName)
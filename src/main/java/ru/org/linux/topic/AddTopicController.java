@@ -246,7 +246,7 @@ public class AddTopicController {
 
     user.checkBlocked(errors);
 
-    IPBlockDao.checkBlockIP(ipBlockInfo, errors, user);
+    ipBlockDao.checkBlockIP(ipBlockInfo, errors, user);
 
     if (group!=null && !groupPermissionService.isTopicPostingAllowed(group, user)) {
       errors.reject(null, "Недостаточно прав для постинга тем в эту группу");
@@ -292,7 +292,10 @@ public class AddTopicController {
                 0,
                 0,
                 "gallery/preview/" + scrn.getMainFile().getName(),
-                "gallery/preview/" + scrn.getIconFile().getName()
+                "gallery/preview/" + scrn.getIconFile().getName(),
+                scrn.getMainInfo(),
+                scrn.getMediumInfo(),
+                scrn.getIconInfo()
         );
       }
 
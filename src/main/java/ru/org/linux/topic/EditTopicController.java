@@ -286,7 +286,7 @@ public class EditTopicController {
 
     User user = tmpl.getCurrentUser();
 
-    IPBlockDao.checkBlockIP(ipBlockInfo, errors, user);
+    ipBlockDao.checkBlockIP(ipBlockInfo, errors, user);
 
     boolean tagsEditable = permissionService.isTagsEditable(preparedTopic, user);
     boolean editable = permissionService.isEditable(preparedTopic, user);
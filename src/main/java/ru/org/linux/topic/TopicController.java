@@ -502,14 +502,11 @@ public class TopicController {
 
     StringBuilder hash = new StringBuilder();
 
-    CommentList comments = commentService.getCommentList(topic, false);
-    CommentNode node = comments.getNode(cid);
-    if (node == null) {
+    int pagenum = commentService.getCommentPage(topic, cid, tmpl.getProf());
+    if (pagenum == -1) {
       throw new MessageNotFoundException(topic, cid, "Сообщение #" + cid + " было удалено или не существует");
     }
 
-    int pagenum = comments.getCommentPage(node.getComment(), tmpl.getProf());
-
     if (pagenum > 0) {
       redirectUrl = topic.getLinkPage(pagenum);
     }
@@ -559,14 +556,11 @@ public class TopicController {
     StringBuilder hash = new StringBuilder();
 
     if (cid != null) {
-      CommentList comments = commentService.getCommentList(topic, false);
-      CommentNode node = comments.getNode(cid);
-      if (node == null) {
+      int pagenum = commentService.getCommentPage(topic, cid, tmpl.getProf());
+      if (pagenum == -1) {
         throw new MessageNotFoundException(topic, cid, "Сообщение #" + cid + " было удалено или не существует");
       }
 
-      int pagenum = comments.getCommentPage(node.getComment(), tmpl.getProf());
-
       if (pagenum > 0) {
         redirectUrl = topic.getLinkPage(pagenum);
       }
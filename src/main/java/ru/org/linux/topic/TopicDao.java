@@ -112,6 +112,9 @@ public class TopicDao {
   @Autowired
   private ImageDao imageDao;
 
+  @Autowired
+  private TopicFeedVersions topicFeedVersions;
+
   /**
    * Запрос получения полной информации о топике
    */
@@ -267,6 +270,8 @@ public class TopicDao {
     }
 
     deleteInfoDao.insert(message.getId(), user, reason, -bonus);
+
+    topicFeedVersions.invalidate(message);
   }
 
   @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
@@ -279,6 +284,8 @@ public class TopicDao {
 
     jdbcTemplate.update(updateUndeleteMessage, message.getId());
     jdbcTemplate.update(updateUneleteInfo, message.getId());
+
+    topicFeedVersions.invalidate(message);
   }
 
   private int allocateMsgid() {
@@ -338,6 +345,9 @@ public class TopicDao {
             msgid, text, true
     );
 
+    // запись о последнем комментарии для трекера
+    jdbcTemplate.update("INSERT INTO topic_last_comment (topic) VALUES (?)", msgid);
+
     String logmessage = "Написана тема " + msgid + ' ' + LorHttpUtils.getRequestIP(request);
     logger.info(logmessage);
 
@@ -374,7 +384,10 @@ public class TopicDao {
       imageDao.saveImage(
               msgid,
               "gallery/" + screenShot.getMainFile().getName(),
-              "gallery/" + screenShot.getIconFile().getName()
+              "gallery/" + screenShot.getIconFile().getName(),
+              screenShot.getMainInfo(),
+              screenShot.getMediumInfo(),
+              screenShot.getIconInfo()
       );
     }
 
@@ -412,6 +425,8 @@ public class TopicDao {
       userEventService.addUserTagEvent(userIdListByTags, msgid);
     }
 
+    topicFeedVersions.invalidate(topicFeedVersions.getTopicScopes(group.getSectionId(), group.getId(), msgid));
+
     return msgid;
   }
 
@@ -552,6 +567,9 @@ public class TopicDao {
           boolean multiselect,
           Map<Integer, Integer> editorBonus
   )  {
+    /* старые теги и группа: топик должен пропасть из их лент */
+    Set<String> feedScopes = topicFeedVersions.getTopicScopes(oldMsg);
+
     boolean modified = updateMessage(oldMsg, newMsg, user, newTags, newText);
 
     try {
@@ -573,6 +591,16 @@ public class TopicDao {
       commit(oldMsg, user, bonus, editorBonus);
     }
 
+    if (modified || commit) {
+      feedScopes.addAll(topicFeedVersions.getTopicScopes(
+              oldMsg.getSectionId(),
+              commit && changeGroupId != null ? changeGroupId : oldMsg.getGroupId(),
+              oldMsg.getId()
+      ));
+
+      topicFeedVersions.invalidate(feedScopes);
+    }
+
     if (modified) {
       logger.info("сообщение " + oldMsg.getId() + " исправлено " + user.getNick());
     }
@@ -602,6 +630,8 @@ public class TopicDao {
 
   public void uncommit(Topic msg) {
     jdbcTemplate.update("UPDATE topics SET moderate='f',commitby=NULL,commitdate=NULL WHERE id=?", msg.getId());
+
+    topicFeedVersions.invalidate(msg);
   }
 
   public Topic getPreviousMessage(Topic message, User currentUser) {
@@ -762,6 +792,8 @@ public class TopicDao {
             notop,
             msg.getId()
     );
+
+    topicFeedVersions.invalidate(msg);
   }
 
   @Transactional(rollbackFor = Exception.class, propagation = Propagation.REQUIRED)
@@ -778,6 +810,10 @@ public class TopicDao {
 
     jdbcTemplate.update("UPDATE topics SET groupid=?,lastmod=CURRENT_TIMESTAMP WHERE id=?", newGrp.getId(), msg.getId());
 
+    Set<String> feedScopes = topicFeedVersions.getTopicScopes(msg.getSectionId(), oldId, msg.getId());
+    feedScopes.addAll(topicFeedVersions.getTopicScopes(newGrp.getSectionId(), newGrp.getId(), msg.getId()));
+    topicFeedVersions.invalidate(feedScopes);
+
     if (!newGrp.isLinksAllowed()) {
       jdbcTemplate.update("UPDATE topics SET linktext=null, url=null WHERE id=?", msg.getId());
 
@@ -820,19 +856,19 @@ public class TopicDao {
    * @throws UserNotFoundException генерирует исключение если пользователь отсутствует
    */
   public List<Integer> deleteAllByUser(User user, final User moderator) {
-    final List<Integer> deletedTopicIds = new ArrayList<Integer>();
     // Удаляем все топики
-    jdbcTemplate.query("SELECT id FROM topics WHERE userid=? AND not deleted FOR UPDATE",
-      new RowCallbackHandler() {
-        @Override
-        public void processRow(ResultSet rs) throws SQLException {
-          int mid = rs.getInt("id");
-          jdbcTemplate.update("UPDATE topics SET deleted='t',sticky='f' WHERE id=?", mid);
-          deleteInfoDao.insert(mid, moderator, "Блокировка пользователя с удалением сообщений", 0);
-          deletedTopicIds.add(mid);
-        }
-      },
-      user.getId());
+    List<Integer> deletedTopicIds = jdbcTemplate.queryForList(
+            "UPDATE topics SET deleted='t',sticky='f' WHERE userid=? AND not deleted RETURNING id",
+            Integer.class,
+            user.getId()
+    );
+
+    deleteInfoDao.insert(deletedTopicIds, moderator, "Блокировка пользователя с удалением сообщений", 0);
+
+    if (!deletedTopicIds.isEmpty()) {
+      topicFeedVersions.invalidateAll();
+    }
+
     return deletedTopicIds;
   }
 
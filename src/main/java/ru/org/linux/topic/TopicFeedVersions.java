@@ -0,0 +1,202 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.topic;
+
+import com.google.common.collect.ImmutableList;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.org.linux.spring.commons.CacheProvider;
+
+import java.util.*;
+
+/**
+ * Версии кешированных лент топиков.
+ *
+ * Лента зависит от области: тега, группы, разделов или всего сайта. Версия каждой
+ * области хранится в кеше и входит в ключ ленты; при изменении топика версии его
+ * раздела, группы, тегов и всего сайта меняются, и ленты этих областей перестают
+ * находиться в кеше. Поэтому ленты можно хранить долго и при этом сразу показывать
+ * новые топики. Версии меняются после завершения транзакции, чтобы параллельный
+ * запрос не сохранил старую ленту под новой версией.
+ */
+@Component
+public class TopicFeedVersions {
+  private static final String GLOBAL = "global";
+  private static final String ALL = "all";
+
+  private static final Random random = new Random();
+
+  @Autowired
+  private CacheProvider cacheProvider;
+
+  @Autowired
+  private TopicTagDao topicTagDao;
+
+  private static String getKey(String scope) {
+    return "feedVersion?" + scope;
+  }
+
+  private static String newVersion() {
+    synchronized (random) {
+      return Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+    }
+  }
+
+  /**
+   * Области, от которых зависит лента
+   *
+   * @param topicListDto условия выборки ленты
+   * @return области; общая версия сайта включается всегда
+   */
+  static List<String> getScopes(TopicListDto topicListDto) {
+    List<String> scopes = new ArrayList<String>();
+
+    scopes.add(GLOBAL);
+
+    if (topicListDto.getTag() != 0) {
+      scopes.add("tag=" + topicListDto.getTag());
+    } else if (topicListDto.getGroup() != 0) {
+      scopes.add("group=" + topicListDto.getGroup());
+    } else if (!topicListDto.getSections().isEmpty()) {
+      for (int section : new TreeSet<Integer>(topicListDto.getSections())) {
+        scopes.add("section=" + section);
+      }
+    } else {
+      scopes.add(ALL);
+    }
+
+    return scopes;
+  }
+
+  /**
+   * Текущие версии областей ленты для ключа кеша
+   *
+   * @param topicListDto условия выборки ленты
+   * @return строка версий
+   */
+  public String getVersion(TopicListDto topicListDto) {
+    List<String> scopes = getScopes(topicListDto);
+    List<String> keys = new ArrayList<String>(scopes.size());
+
+    for (String scope : scopes) {
+      keys.add(getKey(scope));
+    }
+
+    Map<String, Object> found = cacheProvider.getFromCache(keys);
+
+    StringBuilder version = new StringBuilder();
+
+    for (String key : keys) {
+      String value = (String) found.get(key);
+
+      if (value == null) {
+        /* версия вытеснена из кеша: начинаем новую, старые ленты не будут найдены */
+        value = newVersion();
+        cacheProvider.storeToCache(key, value);
+      }
+
+      if (version.length() > 0) {
+        version.append('.');
+      }
+
+      version.append(value);
+    }
+
+    return version.toString();
+  }
+
+  /**
+   * Области, которые затрагивает изменение топика.
+   * Теги читаются сразу, поэтому для правки тегов области нужно получить до и после правки.
+   *
+   * @param sectionId раздел топика
+   * @param groupId   группа топика
+   * @param msgid     id топика
+   * @return области
+   */
+  public Set<String> getTopicScopes(int sectionId, int groupId, int msgid) {
+    Set<String> scopes = new HashSet<String>();
+
+    scopes.add(ALL);
+    scopes.add("section=" + sectionId);
+    scopes.add("group=" + groupId);
+
+    for (int tag : topicTagDao.getTagIds(msgid)) {
+      scopes.add("tag=" + tag);
+    }
+
+    return scopes;
+  }
+
+  public Set<String> getTopicScopes(Topic topic) {
+    return getTopicScopes(topic.getSectionId(), topic.getGroupId(), topic.getId());
+  }
+
+  /**
+   * Сбросить ленты, в которые входит топик
+   */
+  public void invalidate(Topic topic) {
+    invalidate(getTopicScopes(topic));
+  }
+
+  /**
+   * Сбросить ленты тегов (переименование, замена и удаление тега)
+   *
+   * @param tagIds id тегов
+   */
+  public void invalidateTags(int... tagIds) {
+    List<String> scopes = new ArrayList<String>(tagIds.length);
+
+    for (int tagId : tagIds) {
+      scopes.add("tag=" + tagId);
+    }
+
+    invalidate(scopes);
+  }
+
+  /**
+   * Сбросить все ленты (массовые изменения)
+   */
+  public void invalidateAll() {
+    invalidate(ImmutableList.of(GLOBAL));
+  }
+
+  /**
+   * Сбросить ленты областей; в транзакции - после ее завершения
+   *
+   * @param scopes области
+   */
+  public void invalidate(final Collection<String> scopes) {
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+        @Override
+        public void afterCommit() {
+          bump(scopes);
+        }
+      });
+    } else {
+      bump(scopes);
+    }
+  }
+
+  private void bump(Collection<String> scopes) {
+    for (String scope : scopes) {
+      cacheProvider.storeToCache(getKey(scope), newVersion());
+    }
+  }
+}
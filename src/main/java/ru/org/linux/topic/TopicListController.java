@@ -184,10 +184,13 @@ public class TopicListController {
       group,
       topicListForm.getTag(),
       topicListForm.getOffset(),
+      PageCursor.parse(topicListForm.getBefore()),
       topicListForm.getYear(),
       topicListForm.getMonth()
     );
 
+    modelAndView.addObject("nextCursor", topicListService.getNextCursor(section, messages));
+
     modelAndView.addObject(
       "messages",
       prepareService.prepareMessagesForUser(messages, request.isSecure(), tmpl.getCurrentUser())
@@ -15,25 +15,50 @@
 
 package ru.org.linux.topic;
 
+import java.sql.Timestamp;
 import java.util.List;
 
 public interface TopicListDao {
   enum CommitMode {
-    COMMITED_ONLY(" AND sections.moderate AND commitdate is not null "),
-    UNCOMMITED_ONLY(" AND (NOT topics.moderate) AND sections.moderate "),
-    POSTMODERATED_ONLY(" AND NOT sections.moderate"),
-    COMMITED_AND_POSTMODERATED(" AND (topics.moderate OR NOT sections.moderate) "),
-    ALL(" ");
+    COMMITED_ONLY(" AND sections.moderate AND commitdate is not null ", "commitdate"),
+    UNCOMMITED_ONLY(" AND (NOT topics.moderate) AND sections.moderate ", "postdate"),
+    POSTMODERATED_ONLY(" AND NOT sections.moderate", "postdate"),
+    COMMITED_AND_POSTMODERATED(" AND (topics.moderate OR NOT sections.moderate) ", "COALESCE(commitdate, postdate)"),
+    ALL(" ", "COALESCE(commitdate, postdate)");
 
     final String queryPiece;
+    final String sortColumn;
 
-    CommitMode(String queryPiece) {
+    CommitMode(String queryPiece, String sortColumn) {
       this.queryPiece = queryPiece;
+      this.sortColumn = sortColumn;
     }
 
     public String getQueryPiece() {
       return queryPiece;
     }
+
+    /**
+     * @return выражение SQL, по убыванию которого сортируется список
+     */
+    public String getSortColumn() {
+      return sortColumn;
+    }
+
+    /**
+     * Значение выражения сортировки для топика, см. {@link #getSortColumn()}
+     */
+    public Timestamp getSortDate(Topic topic) {
+      switch (this) {
+        case COMMITED_ONLY:
+          return topic.getCommitDate();
+        case UNCOMMITED_ONLY:
+        case POSTMODERATED_ONLY:
+          return topic.getPostdate();
+        default:
+          return topic.getCommitDate() != null ? topic.getCommitDate() : topic.getPostdate();
+      }
+    }
   }
 
   /**
@@ -44,6 +69,14 @@ public interface TopicListDao {
    */
   List<Topic> getTopics(TopicListDto topicListDto);
 
+  /**
+   * Получение топиков по списку id.
+   *
+   * @param ids id топиков
+   * @return найденные топики в порядке списка id
+   */
+  List<Topic> getTopicsByIds(List<Integer> ids);
+
   /**
    *
    * @param sectionId
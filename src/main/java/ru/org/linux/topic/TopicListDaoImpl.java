@@ -15,12 +15,16 @@
 
 package ru.org.linux.topic;
 
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
+import ru.org.linux.util.PageCursor;
 
 import javax.sql.DataSource;
 import java.sql.ResultSet;
@@ -28,7 +32,9 @@ import java.sql.SQLException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 @Repository
 public class TopicListDaoImpl implements TopicListDao {
@@ -37,54 +43,113 @@ public class TopicListDaoImpl implements TopicListDao {
 
   private static final RowMapper<TopicListDto.DeletedTopic> rowMapperForDeletedTopics = getRowMapperForDeletedTopics();
 
+  private static final String queryColumns =
+    "SELECT " +
+    "postdate, topics.id as msgid, topics.userid, topics.title, " +
+    "topics.groupid as guid, topics.url, topics.linktext, ua_id, " +
+    "urlname, havelink, section, topics.sticky, topics.postip, " +
+    "postdate<(CURRENT_TIMESTAMP-sections.expire) as expired, deleted, lastmod, commitby, " +
+    "commitdate, topics.stat1, postscore, topics.moderate, notop, " +
+    "topics.resolved, restrict_comments, minor ";
+
+  private static final RowMapper<Topic> topicRowMapper = new RowMapper<Topic>() {
+    @Override
+    public Topic mapRow(ResultSet resultSet, int i) throws SQLException {
+      return new Topic(resultSet);
+    }
+  };
+
   private JdbcTemplate jdbcTemplate;
+  private NamedParameterJdbcTemplate namedJdbcTemplate;
 
 
   @Autowired
   public void setDataSource(DataSource ds) {
     jdbcTemplate = new JdbcTemplate(ds);
+    namedJdbcTemplate = new NamedParameterJdbcTemplate(ds);
   }
 
   @Override
   public List<Topic> getTopics(TopicListDto topicListDto) {
     logger.debug("TopicListDao.getTopics(); topicListDto = " + topicListDto.toString());
+
     String where = makeConditions(topicListDto);
     String sort = makeSortOrder(topicListDto);
     String limit = makeLimitAndOffset(topicListDto);
 
     StringBuilder query = new StringBuilder();
+    List<Object> queryParameters = new ArrayList<Object>();
 
     query
-      .append("SELECT ")
-      .append("postdate, topics.id as msgid, topics.userid, topics.title, ")
-      .append("topics.groupid as guid, topics.url, topics.linktext, ua_id, ")
-      .append("urlname, havelink, section, topics.sticky, topics.postip, ")
-      .append("postdate<(CURRENT_TIMESTAMP-sections.expire) as expired, deleted, lastmod, commitby, ")
-      .append("commitdate, topics.stat1, postscore, topics.moderate, notop, ")
-      .append("topics.resolved, restrict_comments, minor ")
-      .append("FROM topics ")
-      .append("INNER JOIN groups ON (groups.id=topics.groupid) ")
-      .append("INNER JOIN sections ON (sections.id=groups.section) ");
-    if (topicListDto.isUserFavs()) {
-      query.append("INNER JOIN memories ON (memories.topic = topics.id) ");
+      .append(queryColumns)
+      .append(makeFrom(topicListDto))
+      .append("WHERE ")
+      .append(where);
+
+    PageCursor cursor = topicListDto.getCursor();
+
+    if (cursor != null && !topicListDto.isUserFavs()) {
+      /* дата передается параметром: строковое представление Timestamp зависит от часового пояса JVM */
+      query
+        .append(" AND (")
+        .append(topicListDto.getCommitMode().getSortColumn())
+        .append(", topics.id) < (?, ?)");
+
+      queryParameters.add(cursor.getDate());
+      queryParameters.add(cursor.getId());
     }
+
     query
-      .append("WHERE ")
-      .append(where)
       .append(sort)
       .append(limit);
 
     logger.trace("SQL query: " + query.toString());
 
-    return jdbcTemplate.query(
-      query.toString(),
-      new RowMapper<Topic>() {
-        @Override
-        public Topic mapRow(ResultSet resultSet, int i) throws SQLException {
-          return new Topic(resultSet);
-        }
-      }
+    return jdbcTemplate.query(query.toString(), queryParameters.toArray(), topicRowMapper);
+  }
+
+  @Override
+  public List<Topic> getTopicsByIds(List<Integer> ids) {
+    if (ids.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    List<Topic> found = namedJdbcTemplate.query(
+      queryColumns + makeFrom(new TopicListDto()) + "WHERE topics.id IN (:list)",
+      ImmutableMap.of("list", ids),
+      topicRowMapper
     );
+
+    Map<Integer, Topic> byId = Maps.newHashMapWithExpectedSize(found.size());
+
+    for (Topic topic : found) {
+      byId.put(topic.getId(), topic);
+    }
+
+    List<Topic> result = new ArrayList<Topic>(ids.size());
+
+    for (int id : ids) {
+      Topic topic = byId.get(id);
+
+      if (topic != null) {
+        result.add(topic);
+      }
+    }
+
+    return result;
+  }
+
+  private static String makeFrom(TopicListDto topicListDto) {
+    StringBuilder from = new StringBuilder()
+      .append("FROM topics ")
+      .append("INNER JOIN groups ON (groups.id=topics.groupid) ")
+      .append("INNER JOIN sections ON (sections.id=groups.section) ");
+
+    if (topicListDto.isUserFavs()) {
+      from.append("INNER JOIN memories ON (memories.topic = topics.id) ");
+    }
+
+    return from.toString();
   }
 
   @Override
@@ -218,6 +283,7 @@ public class TopicListDaoImpl implements TopicListDao {
         .append(topicListDto.getTag())
         .append(')');
     }
+
     return where.toString();
   }
 
@@ -232,16 +298,8 @@ public class TopicListDaoImpl implements TopicListDao {
       return "ORDER BY memories.id DESC";
     }
 
-    switch (topicListDto.getCommitMode()) {
-      case COMMITED_ONLY:
-        return " ORDER BY commitdate DESC";
-      case UNCOMMITED_ONLY:
-        return " ORDER BY postdate DESC";
-      case POSTMODERATED_ONLY:
-        return " ORDER BY postdate DESC";
-      default:
-        return " ORDER BY COALESCE(commitdate, postdate) DESC";
-    }
+    /* id нужен для однозначного порядка при выборке после позиции */
+    return " ORDER BY " + topicListDto.getCommitMode().getSortColumn() + " DESC, topics.id DESC";
   }
 
   /**
@@ -256,7 +314,7 @@ public class TopicListDaoImpl implements TopicListDao {
       limitStr += " LIMIT " + topicListDto.getLimit().toString();
     }
 
-    if (topicListDto.getOffset() != null) {
+    if (topicListDto.getOffset() != null && topicListDto.getCursor() == null) {
       limitStr += " OFFSET " + topicListDto.getOffset().toString();
     }
     return limitStr;
@@ -15,6 +15,8 @@
 
 package ru.org.linux.topic;
 
+import ru.org.linux.util.PageCursor;
+
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Date;
@@ -38,6 +40,7 @@ public class TopicListDto {
   private int tag = 0;
   private Integer limit = null;
   private Integer offset = null;
+  private PageCursor cursor = null;
   private DateLimitType dateLimitType = DateLimitType.NONE;
   private Date fromDate;
   private Date toDate;
@@ -89,6 +92,17 @@ public class TopicListDto {
     this.offset = offset;
   }
 
+  /**
+   * @return позиция, после которой выбирать топики; если задана, offset не используется
+   */
+  public PageCursor getCursor() {
+    return cursor;
+  }
+
+  public void setCursor(PageCursor cursor) {
+    this.cursor = cursor;
+  }
+
   public DateLimitType getDateLimitType() {
     return dateLimitType;
   }
@@ -165,6 +179,7 @@ public class TopicListDto {
       .append("; tag=").append(tag)
       .append("; limit=").append(limit)
       .append("; offset=").append(offset)
+      .append("; cursor=").append(cursor)
       .append("; dateLimitType=").append(dateLimitType)
       .append("; fromDate=").append((fromDate != null) ? fromDate.toString() : "")
       .append("; toDate=").append((toDate != null) ? toDate.toString() : "")
@@ -179,10 +194,12 @@ public class TopicListDto {
     sections.addAll(topicListDto.getSections());
     userId = topicListDto.getUserId();
     userFavs = topicListDto.isUserFavs();
+    userWatches = topicListDto.isUserWatches();
     group = topicListDto.getGroup();
     tag = topicListDto.getTag();
     limit = topicListDto.getLimit();
     offset = topicListDto.getOffset();
+    cursor = topicListDto.getCursor();
     dateLimitType = topicListDto.getDateLimitType();
     fromDate = topicListDto.getFromDate();
     toDate = topicListDto.getToDate();
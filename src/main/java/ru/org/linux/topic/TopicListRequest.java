@@ -8,6 +8,7 @@ public class TopicListRequest {
   private Integer group;
   private String tag;
   private Integer offset;
+  private String before;
   private String output;
   private Integer month;
   private Integer year;
@@ -38,6 +39,17 @@ public class TopicListRequest {
     this.offset = offset;
   }
 
+  /**
+   * @return позиция последнего топика предыдущей страницы, см. {@link ru.org.linux.util.PageCursor}
+   */
+  public String getBefore() {
+    return before;
+  }
+
+  public void setBefore(String before) {
+    this.before = before;
+  }
+
   public String getOutput() {
     return output;
   }
@@ -14,6 +14,9 @@
  */
 package ru.org.linux.topic;
 
+import com.google.common.base.Charsets;
+import com.google.common.base.Supplier;
+import com.google.common.hash.Hashing;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -21,13 +24,16 @@ import org.springframework.stereotype.Service;
 import ru.org.linux.group.Group;
 import ru.org.linux.section.Section;
 import ru.org.linux.spring.commons.CacheProvider;
+import ru.org.linux.spring.commons.SingleFlightCache;
 import ru.org.linux.tag.TagNotFoundException;
 import ru.org.linux.tag.TagService;
 import ru.org.linux.user.User;
 import ru.org.linux.user.UserErrorException;
+import ru.org.linux.util.PageCursor;
 import ru.org.linux.util.URLUtil;
 
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
@@ -45,6 +51,15 @@ public class TopicListService {
   @Autowired
   private CacheProvider cacheProvider;
 
+  @Autowired
+  private TopicFeedVersions topicFeedVersions;
+
+  @Autowired
+  private SingleFlightCache singleFlightCache;
+
+  private static final int IDS_CACHE_AGE = 60 * 60 * 1000;
+  private static final long KEY_DATE_PRECISION = 60 * 60 * 1000L;
+
 
   /**
    * Получение списка топиков.
@@ -66,6 +81,33 @@ public class TopicListService {
     Integer offset,
     Integer year,
     Integer month
+  )
+    throws UserErrorException, TagNotFoundException {
+    return getTopicsFeed(section, group, tag, offset, null, year, month);
+  }
+
+  /**
+   * Получение списка топиков.
+   *
+   * @param section секция
+   * @param group   группа
+   * @param tag     тег
+   * @param offset  смещение в результатах выборки
+   * @param cursor  позиция, после которой выбирать топики (если задана, смещение не используется)
+   * @param year    год
+   * @param month   месяц
+   * @return список топиков
+   * @throws UserErrorException
+   * @throws TagNotFoundException
+   */
+  public List<Topic> getTopicsFeed(
+    Section section,
+    Group group,
+    String tag,
+    Integer offset,
+    PageCursor cursor,
+    Integer year,
+    Integer month
   )
     throws UserErrorException, TagNotFoundException {
     logger.debug(
@@ -75,6 +117,7 @@ public class TopicListService {
         .append("; group=").append((group != null) ? group.toString() : "(null)")
         .append("; tag=").append(tag)
         .append("; offset=").append(offset)
+        .append("; cursor=").append(cursor)
         .append("; year=").append(year)
         .append("; month=").append(month)
         .toString()
@@ -82,13 +125,10 @@ public class TopicListService {
 
     TopicListDto topicListDto = new TopicListDto();
 
+    topicListDto.setCommitMode(getFeedCommitMode(section));
+
     if (section != null) {
       topicListDto.getSections().add(section.getId());
-      if (section.isPremoderated()) {
-        topicListDto.setCommitMode(TopicListDao.CommitMode.COMMITED_ONLY);
-      } else {
-        topicListDto.setCommitMode(TopicListDao.CommitMode.POSTMODERATED_ONLY);
-      }
     }
 
     if (group != null) {
@@ -112,6 +152,7 @@ public class TopicListService {
 
       topicListDto.setLimit(20);
       topicListDto.setOffset(offset > 0 ? offset : null);
+      topicListDto.setCursor(cursor);
       if (tag == null && group == null && !section.isPremoderated()) {
         topicListDto.setDateLimitType(TopicListDto.DateLimitType.MONTH_AGO);
         Calendar calendar = Calendar.getInstance();
@@ -123,6 +164,36 @@ public class TopicListService {
     return getCachedFeed(topicListDto);
   }
 
+  private static TopicListDao.CommitMode getFeedCommitMode(Section section) {
+    if (section == null) {
+      return TopicListDao.CommitMode.COMMITED_AND_POSTMODERATED;
+    }
+
+    if (section.isPremoderated()) {
+      return TopicListDao.CommitMode.COMMITED_ONLY;
+    } else {
+      return TopicListDao.CommitMode.POSTMODERATED_ONLY;
+    }
+  }
+
+  /**
+   * Позиция для выборки следующей страницы после списка, полученного через
+   * {@link #getTopicsFeed(Section, Group, String, Integer, PageCursor, Integer, Integer)}.
+   *
+   * @param section секция
+   * @param topics  текущая страница
+   * @return позиция последнего топика или null если страница пустая
+   */
+  public PageCursor getNextCursor(Section section, List<Topic> topics) {
+    if (topics.isEmpty()) {
+      return null;
+    }
+
+    Topic last = topics.get(topics.size() - 1);
+
+    return new PageCursor(getFeedCommitMode(section).getSortDate(last), last.getId());
+  }
+
   /**
    * Получение списка топиков пользователя.
    *
@@ -326,10 +397,15 @@ public class TopicListService {
   /**
    * Получение списка топиков из кэша или из СУБД.
    *
+   * В ключ кеша входят версии лент (см. {@link TopicFeedVersions}), которые меняются
+   * при добавлении, подтверждении, правке и удалении топиков. Поэтому список id
+   * топиков хранится в кеше долго; сами топики (с количеством комментариев и т.п.)
+   * хранятся недолго и при необходимости перечитываются по id.
+   *
    * @param topicListDto объект, содержащий условия выборки
    * @return список топиков
    */
-  private List<Topic> getCachedFeed(TopicListDto topicListDto) {
+  private List<Topic> getCachedFeed(final TopicListDto topicListDto) {
     int cacheAge = getCacheAge(topicListDto);
     if (cacheAge == 0) {
       return topicListDao.getTopics(topicListDto);
@@ -337,23 +413,47 @@ public class TopicListService {
 
     String cacheKey = null;
     try {
-      cacheKey = makeCacheKey(topicListDto);
-      logger.trace("cacheKey=" + cacheKey);
+      String query = makeCacheKey(topicListDto) + "&v=" + topicFeedVersions.getVersion(topicListDto);
+      logger.trace("cacheKey=" + query);
+
+      /* версии и курсор делают ключ длинным, а memcached ограничивает длину ключа */
+      cacheKey = Hashing.md5().hashString(query, Charsets.UTF_8).toString();
     } catch (UnsupportedEncodingException e) {
       logger.error("Fail to create cache key", e);
       return topicListDao.getTopics(topicListDto);
     }
 
-    List<Topic> result = (List<Topic>) cacheProvider.getFromCache(cacheKey);
-    if (result == null) {
-      result = topicListDao.getTopics(topicListDto);
-      cacheProvider.storeToCache(cacheKey, result, cacheAge);
-    }
-    return result;
+    final String idsKey = "view-news-ids?" + cacheKey;
+    String topicsKey = "view-news?" + cacheKey;
+
+    /* популярные ленты (главная страница) пересчитывает один поток */
+    return singleFlightCache.get(topicsKey, cacheAge, new Supplier<List<Topic>>() {
+      @Override
+      public List<Topic> get() {
+        List<Integer> ids = (List<Integer>) cacheProvider.getFromCache(idsKey);
+
+        if (ids != null) {
+          return topicListDao.getTopicsByIds(ids);
+        }
+
+        List<Topic> result = topicListDao.getTopics(topicListDto);
+
+        ids = new ArrayList<Integer>(result.size());
+        for (Topic topic : result) {
+          ids.add(topic.getId());
+        }
+
+        cacheProvider.storeToCache(idsKey, ids, IDS_CACHE_AGE);
+
+        return result;
+      }
+    });
   }
 
   /**
    * Создание уникального ключа для кэша согласно условиям выборки.
+   * Дата начала выборки "за последние месяцы" округляется до часа: новые топики
+   * учитываются через версии лент, а старые выходят из выборки постепенно.
    *
    * @param topicListDto объект, содержащий условия выборки
    * @return Строка, содержащая уникальный ключ кэша
@@ -372,7 +472,11 @@ public class TopicListService {
     queryString.add("grp", topicListDto.getGroup());
 
     queryString.add("dlmtType", topicListDto.getDateLimitType());
-    queryString.add("dlmt1", topicListDto.getFromDate());
+    if (topicListDto.getDateLimitType() == TopicListDto.DateLimitType.MONTH_AGO && topicListDto.getFromDate() != null) {
+      queryString.add("dlmt1", topicListDto.getFromDate().getTime() / KEY_DATE_PRECISION);
+    } else {
+      queryString.add("dlmt1", topicListDto.getFromDate());
+    }
     queryString.add("dlmt2", topicListDto.getToDate());
     if (topicListDto.getUserId() != 0) {
       queryString.add("u", topicListDto.getUserId());
@@ -381,10 +485,11 @@ public class TopicListService {
     queryString.add("f", topicListDto.isUserFavs());
     queryString.add("lmt", topicListDto.getLimit());
     queryString.add("offst", topicListDto.getOffset());
+    queryString.add("cur", topicListDto.getCursor());
     queryString.add("notalks", topicListDto.isNotalks());
     queryString.add("tech", topicListDto.isTech());
 
-    return "view-news?" + queryString.toString();
+    return queryString.toString();
   }
 
   /**
@@ -398,10 +503,6 @@ public class TopicListService {
       return 10 * 60 * 1000;
     }
 
-    if (topicListDto.getCommitMode() == TopicListDao.CommitMode.COMMITED_ONLY) {
-      return 0;
-    }
-
     if (topicListDto.getUserId()!=0) {
       return 0;
     }
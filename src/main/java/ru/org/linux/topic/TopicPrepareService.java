@@ -15,10 +15,9 @@
 
 package ru.org.linux.topic;
 
-import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Lists;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -56,11 +55,12 @@ import ru.org.linux.util.bbcode.LorCodeService;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 @Service
 public class TopicPrepareService {
@@ -110,9 +110,12 @@ public class TopicPrepareService {
 
   @Autowired
   private ImageDao imageDao;
+
+  @Autowired
+  private TopicTagService topicTagService;
   
   public PreparedTopic prepareTopic(Topic message, boolean secure, User user) {
-    return prepareMessage(message, messageDao.getTags(message), false, null, secure, user, null, null);
+    return prepareMessage(message, messageDao.getTags(message), false, null, secure, user, null, null, null);
   }
 
   public PreparedTopic prepareTopicPreview(
@@ -131,7 +134,8 @@ public class TopicPrepareService {
             secure,
             null,
             new MessageText(text, true),
-            image
+            image,
+            null
     );
   }
 
@@ -143,6 +147,7 @@ public class TopicPrepareService {
    * @param poll опрос к топику
    * @param secure является ли соединение https
    * @param user пользователь
+   * @param list данные, загруженные для всей ленты, или null для одного топика
    * @return подготовленный топик
    */
   private PreparedTopic prepareMessage(
@@ -153,10 +158,11 @@ public class TopicPrepareService {
           boolean secure, 
           User user,
           MessageText text,
-          @Nullable Image image) {
+          @Nullable Image image,
+          @Nullable TopicListData list) {
     try {
-      Group group = groupDao.getGroup(message.getGroupId());
-      User author = userDao.getUserCached(message.getUid());
+      Group group = list!=null ? list.groups.get(message.getGroupId()) : groupDao.getGroup(message.getGroupId());
+      User author = list!=null ? list.users.get(message.getUid()) : userDao.getUserCached(message.getUid());
       Section section = sectionService.getSection(message.getSectionId());
 
       DeleteInfo deleteInfo;
@@ -189,19 +195,26 @@ public class TopicPrepareService {
       User commiter;
 
       if (message.getCommitby()!=0) {
-        commiter = userDao.getUserCached(message.getCommitby());
+        commiter = list!=null ? list.users.get(message.getCommitby()) : userDao.getUserCached(message.getCommitby());
       } else {
         commiter = null;
       }
 
-      List<EditHistoryDto> editHistoryDtoList = editHistoryService.getEditInfo(message.getId(), EditHistoryObjectTypeEnum.TOPIC);
+      List<EditHistoryDto> editHistoryDtoList;
+
+      if (list!=null) {
+        editHistoryDtoList = list.editInfo.get(message.getId());
+      } else {
+        editHistoryDtoList = editHistoryService.getEditInfo(message.getId(), EditHistoryObjectTypeEnum.TOPIC);
+      }
+
       EditHistoryDto editHistoryDto;
       User lastEditor;
       int editCount;
 
       if (!editHistoryDtoList.isEmpty()) {
         editHistoryDto = editHistoryDtoList.get(0);
-        lastEditor = userDao.getUserCached(editHistoryDto.getEditor());
+        lastEditor = list!=null ? list.users.get(editHistoryDto.getEditor()) : userDao.getUserCached(editHistoryDto.getEditor());
         editCount = editHistoryDtoList.size();
       } else {
         editHistoryDto = null;
@@ -234,12 +247,20 @@ public class TopicPrepareService {
         ogDescription = "";
       }
 
-      String userAgent = userAgentDao.getUserAgentById(message.getUserAgent());
+      String userAgent;
+
+      if (list!=null) {
+        userAgent = list.userAgents.get(message.getUserAgent());
+      } else {
+        userAgent = userAgentDao.getUserAgentById(message.getUserAgent());
+      }
       
       PreparedImage preparedImage = null;
 
       if (section.isImagepost() || section.isImageAllowed()) {
-        if (message.getId()!=0) {
+        if (list!=null) {
+          image = list.images.get(message.getId());
+        } else if (message.getId()!=0) {
           image = imageDao.imageForTopic(message);
         }
 
@@ -248,7 +269,9 @@ public class TopicPrepareService {
         }
       }
       Remark remark = null;
-      if (user != null ){
+      if (list != null) {
+        remark = list.remarks.get(author.getId());
+      } else if (user != null ){
         remark = userDao.getRemark(user, author);
       }
       return new PreparedTopic(
@@ -284,20 +307,25 @@ public class TopicPrepareService {
   private PreparedImage prepareImage(@Nonnull Image image, boolean secure) {
     Preconditions.checkNotNull(image);
 
-    String mediumName = image.getMedium();
+    try {
+      if (!image.isInfoStored()) {
+        image = imageDao.readInfo(image);
+      }
 
-    String htmlPath = configuration.getHTMLPathPrefix();
-    if (!new File(htmlPath, mediumName).exists()) {
-      mediumName = image.getIcon();
-    }
+      String mediumName;
+      ImageInfo mediumImageInfo;
+
+      /* для старых изображений среднего размера может не быть */
+      if (image.getMediumInfo() != null) {
+        mediumName = image.getMedium();
+        mediumImageInfo = image.getMediumInfo();
+      } else {
+        mediumName = image.getIcon();
+        mediumImageInfo = image.getIconInfo();
+      }
+
+      ImageInfo fullInfo = image.getOriginalInfo();
 
-    try {
-      ImageInfo mediumImageInfo = new ImageInfo(htmlPath + mediumName);
-      String fullName = htmlPath + image.getOriginal();
-      ImageInfo fullInfo = new ImageInfo(
-              fullName,
-              ImageInfo.detectImageType(new File(fullName))
-      );
       LorURL medURI = new LorURL(configuration.getMainURI(), configuration.getMainUrl()+mediumName);
       LorURL fullURI = new LorURL(configuration.getMainURI(), configuration.getMainUrl()+image.getOriginal());
 
@@ -321,37 +349,122 @@ public class TopicPrepareService {
   public List<PersonalizedPreparedTopic> prepareMessagesForUser(List<Topic> messages, boolean secure, User user) {
     List<PersonalizedPreparedTopic> pm = new ArrayList<PersonalizedPreparedTopic>(messages.size());
 
-    Map<Integer,MessageText> textMap = loadTexts(messages);
+    TopicListData list = loadListData(messages, user, true);
 
     for (Topic message : messages) {
       PreparedTopic preparedMessage = prepareMessage(
               message,
-              messageDao.getTags(message),
+              list.tags.get(message.getId()),
               true,
               null,
               secure,
               user,
-              textMap.get(message.getId()),
-              null
+              list.texts.get(message.getId()),
+              null,
+              list
+      );
+
+      Integer memoriesId = list.memories.get(message.getId());
+      Integer favsId = list.favs.get(message.getId());
+
+      TopicMenu topicMenu = getTopicMenu(
+              preparedMessage,
+              user,
+              list.topicStats.get(message.getId()),
+              memoriesId != null ? memoriesId : 0,
+              favsId != null ? favsId : 0
       );
-      TopicMenu topicMenu = getTopicMenu(preparedMessage, user);
+
       pm.add(new PersonalizedPreparedTopic(preparedMessage, topicMenu));
     }
 
     return pm;
   }
 
-  private Map<Integer, MessageText> loadTexts(List<Topic> messages) {
-    return msgbaseDao.getMessageText(
-            Lists.newArrayList(
-                    Iterables.transform(messages, new Function<Topic, Integer>() {
-                      @Override
-                      public Integer apply(Topic comment) {
-                        return comment.getId();
-                      }
-                    })
-            )
-    );
+  /**
+   * Загрузка данных для подготовки ленты: для всех топиков страницы каждый вид данных
+   * читается одним запросом (пользователи и группы - из кеша, если есть)
+   *
+   * @param messages топики
+   * @param user     текущий пользователь или null
+   * @param menu     загрузить данные для меню топиков
+   * @return данные для {@link #prepareMessage}
+   */
+  private TopicListData loadListData(List<Topic> messages, @Nullable User user, boolean menu) {
+    List<Integer> ids = new ArrayList<Integer>(messages.size());
+    Set<Integer> groupIds = new HashSet<Integer>();
+    Set<Integer> userIds = new HashSet<Integer>();
+    Set<Integer> userAgentIds = new HashSet<Integer>();
+    List<Integer> imageTopicIds = new ArrayList<Integer>();
+
+    for (Topic message : messages) {
+      ids.add(message.getId());
+      groupIds.add(message.getGroupId());
+      userIds.add(message.getUid());
+      userAgentIds.add(message.getUserAgent());
+
+      if (message.getCommitby()!=0) {
+        userIds.add(message.getCommitby());
+      }
+
+      Section section = sectionService.getSection(message.getSectionId());
+
+      if (section.isImagepost() || section.isImageAllowed()) {
+        imageTopicIds.add(message.getId());
+      }
+    }
+
+    TopicListData list = new TopicListData();
+
+    try {
+      list.texts = msgbaseDao.getMessageText(ids);
+      list.tags = topicTagService.getMessageTags(ids);
+      list.groups = groupDao.getGroups(groupIds);
+      list.editInfo = editHistoryService.getEditInfo(ids, EditHistoryObjectTypeEnum.TOPIC);
+
+      for (Integer id : ids) {
+        List<EditHistoryDto> editInfo = list.editInfo.get(id);
+
+        if (!editInfo.isEmpty()) {
+          userIds.add(editInfo.get(0).getEditor());
+        }
+      }
+
+      list.users = userDao.getUsersCachedMap(userIds);
+    } catch (BadGroupException e) {
+      throw new RuntimeException(e);
+    } catch (UserNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+
+    list.userAgents = userAgentDao.getUserAgents(userAgentIds);
+    list.images = imageDao.imagesForTopics(imageTopicIds);
+
+    if (user != null) {
+      Set<Integer> authors = new HashSet<Integer>();
+
+      for (Topic message : messages) {
+        authors.add(message.getUid());
+      }
+
+      list.remarks = userDao.getRemarks(user, authors);
+    } else {
+      list.remarks = ImmutableMap.of();
+    }
+
+    if (menu) {
+      list.topicStats = memoriesDao.getTopicStats(ids);
+
+      if (user != null) {
+        list.memories = memoriesDao.getIds(user, ids, true);
+        list.favs = memoriesDao.getIds(user, ids, false);
+      } else {
+        list.memories = ImmutableMap.of();
+        list.favs = ImmutableMap.of();
+      }
+    }
+
+    return list;
   }
 
   /**
@@ -364,10 +477,20 @@ public class TopicPrepareService {
   public List<PreparedTopic> prepareMessages(List<Topic> messages, boolean secure) {
     List<PreparedTopic> pm = new ArrayList<PreparedTopic>(messages.size());
 
-    Map<Integer,MessageText> textMap = loadTexts(messages);
+    TopicListData list = loadListData(messages, null, false);
 
     for (Topic message : messages) {
-      PreparedTopic preparedMessage = prepareMessage(message, messageDao.getTags(message), true, null, secure, null, textMap.get(message.getId()), null);
+      PreparedTopic preparedMessage = prepareMessage(
+              message,
+              list.tags.get(message.getId()),
+              true,
+              null,
+              secure,
+              null,
+              list.texts.get(message.getId()),
+              null,
+              list
+      );
       pm.add(preparedMessage);
     }
 
@@ -376,26 +499,41 @@ public class TopicPrepareService {
 
   @Nonnull
   public TopicMenu getTopicMenu(@Nonnull PreparedTopic message, @Nullable User currentUser) {
+    List<Integer> topicStats = memoriesDao.getTopicStats(message.getMessage().getId());
+
+    int memoriesId;
+    int favsId;
+
+    if (currentUser!=null) {
+      memoriesId = memoriesDao.getId(currentUser, message.getMessage(), true);
+      favsId = memoriesDao.getId(currentUser, message.getMessage(), false);
+    } else {
+      memoriesId = 0;
+      favsId = 0;
+    }
+
+    return getTopicMenu(message, currentUser, topicStats, memoriesId, favsId);
+  }
+
+  private TopicMenu getTopicMenu(
+          @Nonnull PreparedTopic message,
+          @Nullable User currentUser,
+          List<Integer> topicStats,
+          int memoriesId,
+          int favsId
+  ) {
     boolean topicEditable = groupPermissionService.isEditable(message, currentUser);
     boolean tagsEditable = groupPermissionService.isTagsEditable(message, currentUser);
     boolean resolvable;
-    int memoriesId;
-    int favsId;
     boolean deletable;
 
-    List<Integer> topicStats = memoriesDao.getTopicStats(message.getMessage().getId());
-
     if (currentUser!=null) {
       resolvable = (currentUser.isModerator() || (message.getAuthor().getId()==currentUser.getId())) &&
             message.getGroup().isResolvable();
 
-      memoriesId = memoriesDao.getId(currentUser, message.getMessage(), true);
-      favsId = memoriesDao.getId(currentUser, message.getMessage(), false);
       deletable = groupPermissionService.isDeletable(message.getMessage(), currentUser);
     } else {
       resolvable = false;
-      memoriesId = 0;
-      favsId = 0;
       deletable = false;
     }
 
@@ -411,4 +549,23 @@ public class TopicPrepareService {
             deletable
     );
   }
+
+  /**
+   * Данные всех топиков ленты, загруженные пакетно
+   */
+  private static class TopicListData {
+    private Map<Integer, MessageText> texts;
+    private ImmutableListMultimap<Integer, String> tags;
+    private Map<Integer, Group> groups;
+    private Map<Integer, User> users;
+    private ImmutableListMultimap<Integer, EditHistoryDto> editInfo;
+    private Map<Integer, String> userAgents;
+    private Map<Integer, Image> images;
+    private Map<Integer, Remark> remarks;
+
+    /* только для ленты с меню топиков */
+    private Map<Integer, List<Integer>> topicStats;
+    private Map<Integer, Integer> memories;
+    private Map<Integer, Integer> favs;
+  }
 }
@@ -15,24 +15,30 @@
 package ru.org.linux.topic;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 
 import javax.sql.DataSource;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
 
 @Repository
 public class TopicTagDao {
 
   private JdbcTemplate jdbcTemplate;
+  private NamedParameterJdbcTemplate namedJdbcTemplate;
 
   @Autowired
   public void setDataSource(DataSource ds) {
     jdbcTemplate = new JdbcTemplate(ds);
+    namedJdbcTemplate = new NamedParameterJdbcTemplate(ds);
   }
 
   /**
@@ -78,6 +84,43 @@ public class TopicTagDao {
     return tags.build();
   }
 
+  /**
+   * Получить id тегов топика.
+   *
+   * @param msgid идентификационный номер топика
+   * @return id тегов
+   */
+  public List<Integer> getTagIds(int msgid) {
+    return jdbcTemplate.queryForList("SELECT tagid FROM tags WHERE msgid=?", Integer.class, msgid);
+  }
+
+  /**
+   * Получить теги нескольких топиков одним запросом.
+   *
+   * @param msgids идентификационные номера топиков
+   * @return теги по id топика, в порядке значений
+   */
+  public ImmutableListMultimap<Integer, String> getTags(Collection<Integer> msgids) {
+    final ImmutableListMultimap.Builder<Integer, String> tags = ImmutableListMultimap.builder();
+
+    if (msgids.isEmpty()) {
+      return tags.build();
+    }
+
+    namedJdbcTemplate.query(
+      "SELECT tags.msgid, tags_values.value FROM tags, tags_values WHERE tags.msgid IN (:list) AND tags_values.id=tags.tagid ORDER BY value",
+      ImmutableMap.of("list", msgids),
+      new RowCallbackHandler() {
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+          tags.put(rs.getInt("msgid"), rs.getString("value"));
+        }
+      }
+    );
+
+    return tags.build();
+  }
+
   /**
    * Получение количества тегов, которые будут изменены для топиков (величина прироста использования тега).
    *
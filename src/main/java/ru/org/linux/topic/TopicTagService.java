@@ -15,6 +15,7 @@
 package ru.org.linux.topic;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -28,6 +29,7 @@ import ru.org.linux.tag.TagDao;
 import ru.org.linux.tag.TagService;
 
 import javax.annotation.PostConstruct;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -42,6 +44,7 @@ public class TopicTagService {
       int tagCount = topicTagDao.getCountReplacedTags(oldTagId, newTagId);
       topicTagDao.replaceTag(oldTagId, newTagId);
       tagDao.increaseCounterById(newTagId, tagCount);
+      topicFeedVersions.invalidateTags(oldTagId, newTagId);
 
       StringBuilder logStr = new StringBuilder()
         .append("Счётчик использование тега '")
@@ -51,9 +54,15 @@ public class TopicTagService {
       logger.debug(logStr);
     }
 
+    @Override
+    public void changeTag(int tagId, String oldTagName, String newTagName) {
+      topicFeedVersions.invalidateTags(tagId);
+    }
+
     @Override
     public void deleteTag(int tagId, String tagName) {
       topicTagDao.deleteTag(tagId);
+      topicFeedVersions.invalidateTags(tagId);
       logger.debug("Удалено использование тега '" + tagName + "' в топиках");
     }
 
@@ -76,6 +85,9 @@ public class TopicTagService {
   @Autowired
   private TagDao tagDao;
 
+  @Autowired
+  private TopicFeedVersions topicFeedVersions;
+
   @PostConstruct
   private void addToReplaceHandlerList() {
     tagService.getActionHandlers().add(actionHandler);
@@ -133,10 +145,29 @@ public class TopicTagService {
    * @return все теги сообщения
    */
   public ImmutableList<String> getMessageTagsForTitle(int msgId) {
-    ImmutableList<String> tags = topicTagDao.getTags(msgId);
+    return getTagsForTitle(topicTagDao.getTags(msgId));
+  }
+
+  /**
+   * Ограничение по числу тегов для показа в заголовке в таблице
+   *
+   * @param tags все теги сообщения
+   * @return теги для заголовка
+   */
+  public static ImmutableList<String> getTagsForTitle(ImmutableList<String> tags) {
     return tags.subList(0, Math.min(tags.size(), MAX_TAGS_IN_TITLE));
   }
 
+  /**
+   * Получение тегов нескольких сообщений одним запросом
+   *
+   * @param msgIds идентификационные номера сообщений
+   * @return все теги по id сообщения
+   */
+  public ImmutableListMultimap<Integer, String> getMessageTags(Collection<Integer> msgIds) {
+    return topicTagDao.getTags(msgIds);
+  }
+
   /**
    * Разбор строки тегов. Error при ошибках
    *
@@ -15,6 +15,7 @@
 
 package ru.org.linux.tracker;
 
+import com.google.common.collect.ImmutableSet;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.ModelAttribute;
@@ -25,9 +26,12 @@ import org.springframework.web.servlet.View;
 import org.springframework.web.servlet.view.RedirectView;
 import ru.org.linux.site.Template;
 import ru.org.linux.spring.dao.DeleteInfoDao;
+import ru.org.linux.user.IgnoreListDao;
 import ru.org.linux.user.User;
 import ru.org.linux.user.UserDao;
 import ru.org.linux.user.UserErrorException;
+import ru.org.linux.user.UserTagService;
+import ru.org.linux.util.PageCursor;
 
 import javax.servlet.http.HttpServletRequest;
 import java.io.UnsupportedEncodingException;
@@ -46,6 +50,15 @@ public class TrackerController {
   @Autowired
   private DeleteInfoDao deleteInfoDao;
 
+  @Autowired
+  private TrackerRing trackerRing;
+
+  @Autowired
+  private IgnoreListDao ignoreListDao;
+
+  @Autowired
+  private UserTagService userTagService;
+
   private static final Set<String> filterValues;
 
   static {
@@ -99,6 +112,7 @@ public class TrackerController {
   public ModelAndView tracker(
       @RequestParam(value="filter", defaultValue = "all") String filterAction,
       @RequestParam(value="offset", required = false) Integer offset,
+      @RequestParam(value="before", required = false) String before,
       HttpServletRequest request) throws Exception {
 
     if (offset==null) {
@@ -147,7 +161,23 @@ public class TrackerController {
     } else {
       params.put("title", "Последние сообщения");
     }
-    params.put("msgs", trackerDao.getTrackAll(trackerFilter, user, dateLimit, topics, offset, messages));
+    PageCursor cursor = PageCursor.parse(before);
+    List<TrackerItem> msgs = null;
+
+    if (offset == 0 && cursor == null) {
+      msgs = getFirstPage(trackerFilter, user, dateLimit, topics, messages);
+    }
+
+    if (msgs == null) {
+      msgs = trackerDao.getTrackAll(trackerFilter, user, dateLimit, topics, offset, cursor, messages);
+    }
+
+    params.put("msgs", msgs);
+
+    if (!msgs.isEmpty()) {
+      TrackerItem last = msgs.get(msgs.size() - 1);
+      params.put("nextCursor", new PageCursor(last.getLastmod(), last.getMsgid()));
+    }
 
     if (tmpl.isModeratorSession() && trackerFilter != TrackerFilterEnum.MINE) {
       params.put("newUsers", userDao.getNewUsers());
@@ -157,4 +187,30 @@ public class TrackerController {
     return new ModelAndView("tracker", params);
   }
 
+  /**
+   * Первая страница трекера из последних изменений в памяти
+   *
+   * @return страница или null, если ее нужно читать из БД
+   */
+  private List<TrackerItem> getFirstPage(TrackerFilterEnum filter, User user, Timestamp interval, int topics, int messages) {
+    Set<Integer> ignoredUsers;
+    Collection<String> ignoredTags;
+
+    if (user != null) {
+      ignoredUsers = ignoreListDao.get(user);
+      ignoredTags = ImmutableSet.copyOf(userTagService.ignoresGet(user));
+    } else {
+      ignoredUsers = ImmutableSet.of();
+      ignoredTags = ImmutableSet.of();
+    }
+
+    List<TrackerDao.TrackerRow> rows = trackerRing.getFirstPage(filter, interval, topics, ignoredUsers, ignoredTags);
+
+    if (rows == null) {
+      return null;
+    }
+
+    return trackerDao.createItems(rows, messages);
+  }
+
 }
@@ -16,6 +16,7 @@
 package ru.org.linux.tracker;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -27,11 +28,14 @@ import ru.org.linux.topic.TopicTagService;
 import ru.org.linux.user.User;
 import ru.org.linux.user.UserDao;
 import ru.org.linux.user.UserNotFoundException;
+import ru.org.linux.util.PageCursor;
 
 import javax.sql.DataSource;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  *
@@ -73,8 +77,7 @@ public class TrackerDao {
           "FROM topics AS t, groups AS g, sections " +
           "WHERE sections.id=g.section AND not t.deleted AND t.postdate > :interval " +
           "%s" + /* user!=null ? queryPartIgnored*/
-          " AND t.stat1=0 AND g.id=t.groupid " +
-          "ORDER BY lastmod DESC LIMIT :topics OFFSET :offset";
+          " AND t.stat1=0 AND g.id=t.groupid ";
 
   private static final String queryTrackerMain =
       "SELECT " +
@@ -84,17 +87,17 @@ public class TrackerDao {
         "g.id AS gid, " +
         "g.title AS gtitle, " +
         "t.title AS title, " +
-        "comments.id as cid, " +
-        "comments.userid AS last_comment_by, " +
+        "lc.comment_id as cid, " +
+        "lc.userid AS last_comment_by, " +
         "t.resolved as resolved," +
         "section," +
         "urlname," +
-        "comments.postdate, " +
+        "lc.postdate, " +
         "sections.moderate as smod, " +
         "t.moderate " +
-      "FROM topics AS t, groups AS g, comments, sections " +
-      "WHERE g.section=sections.id AND not t.deleted AND t.id=comments.topic AND t.groupid=g.id " +
-        "AND comments.id=(SELECT id FROM comments WHERE NOT deleted AND comments.topic=t.id ORDER BY postdate DESC LIMIT 1) " +
+      "FROM topics AS t, groups AS g, topic_last_comment AS lc, sections " +
+      "WHERE g.section=sections.id AND not t.deleted AND t.id=lc.topic AND t.groupid=g.id " +
+        "AND lc.comment_id IS NOT NULL " + /* последний комментарий ведется в CommentDao */
         "AND t.lastmod > :interval " +
         "%s" + /* user!=null ? queryPartIgnored*/
         "%s" + /* noTalks ? queryPartNoTalks tech ? queryPartTech mine ? queryPartMine*/
@@ -119,8 +122,7 @@ public class TrackerDao {
           "%s" + /* user!=null ? queryPartIgnored*/
           "%s" + /* noTalks ? queryPartNoTalks tech ? queryPartTech mine ? queryPartMine*/
           " AND t.stat1=0 AND g.id=t.groupid " +
-      "%s" + /* wikiPart */
-     "ORDER BY lastmod DESC LIMIT :topics OFFSET :offset";
+      "%s"; /* wikiPart */
 
   private static final String queryPartWiki = "UNION ALL " +
       "SELECT " + // wiki
@@ -163,6 +165,10 @@ public class TrackerDao {
   
   
 
+  /* id нужен для однозначного порядка при выборке после позиции; у правок wiki id=0 */
+  private static final String queryOrder = " ORDER BY lastmod DESC, id DESC LIMIT :topics";
+  private static final String queryPartCursor = " WHERE (lastmod, id) < (:cursorDate, :cursorId) ";
+
   private static final String queryPartIgnored = " AND t.userid NOT IN (select ignored from ignore_list where userid=:userid) ";
   private static final String queryPartTagIgnored = " AND t.id NOT IN (select distinct tags.msgid from tags, user_tags "
     + "where tags.tagid=user_tags.tag_id and user_tags.is_favorite = false and user_id=:userid) ";
@@ -172,11 +178,35 @@ public class TrackerDao {
 
   public List<TrackerItem> getTrackAll(TrackerFilterEnum filter, User currentUser, Timestamp interval,
                                        int topics, int offset, final int messagesInPage) {
+    return getTrackAll(filter, currentUser, interval, topics, offset, null, messagesInPage);
+  }
+
+  /**
+   * Получить страницу трекера
+   *
+   * @param filter         фильтр
+   * @param currentUser    текущий пользователь или null
+   * @param interval       нижняя граница времени изменения
+   * @param topics         размер страницы
+   * @param offset         смещение, используется если cursor не задан
+   * @param cursor         позиция последней темы предыдущей страницы или null
+   * @param messagesInPage комментариев на странице темы
+   * @return страница трекера
+   */
+  public List<TrackerItem> getTrackAll(TrackerFilterEnum filter, User currentUser, Timestamp interval,
+                                       int topics, int offset, PageCursor cursor, final int messagesInPage) {
+    return createItems(getRows(filter, currentUser, interval, topics, offset, cursor), messagesInPage);
+  }
+
+  /**
+   * Получить строки трекера без данных, зависящих от настроек пользователя
+   */
+  List<TrackerRow> getRows(TrackerFilterEnum filter, User currentUser, Timestamp interval,
+                           int topics, int offset, PageCursor cursor) {
 
     MapSqlParameterSource parameter = new MapSqlParameterSource();
     parameter.addValue("interval", interval);
     parameter.addValue("topics", topics);
-    parameter.addValue("offset", offset);
 
     String partIgnored;
 
@@ -219,61 +249,106 @@ public class TrackerDao {
       query = String.format(queryTrackerZeroMain, partIgnored);
     }
 
+    if (cursor != null) {
+      query = "SELECT * FROM (" + query + ") AS tracker" + queryPartCursor + queryOrder;
+      parameter.addValue("cursorDate", cursor.getDate());
+      parameter.addValue("cursorId", cursor.getId());
+    } else {
+      query = query + queryOrder + " OFFSET :offset";
+      parameter.addValue("offset", offset);
+    }
+
     SqlRowSet resultSet = jdbcTemplate.queryForRowSet(query, parameter);
 
-    List<TrackerItem> res = new ArrayList<TrackerItem>(topics);
-    
+    List<TrackerRow> rows = new ArrayList<TrackerRow>(topics);
+    Set<Integer> msgids = new HashSet<Integer>(topics);
+
     while (resultSet.next()) {
-      User author;
-      try {
-        int author_id = resultSet.getInt("author");
-        if (author_id != 0) {
-          author = userDao.getUserCached(author_id);
-        } else {
-          author = null;
-        }
-      } catch (UserNotFoundException e) {
-        throw new RuntimeException(e);
-      }
-      int msgid = resultSet.getInt("id");
-      Timestamp lastmod = resultSet.getTimestamp("lastmod");
-      int stat1 = resultSet.getInt("stat1");
-      int groupId = resultSet.getInt("gid");
-      String groupTitle = resultSet.getString("gtitle");
-      String title = resultSet.getString("title");
-      int cid = resultSet.getInt("cid");
-      User lastCommentBy;
-      try {
-        int id = resultSet.getInt("last_comment_by");
-
-        if (id != 0) {
-          lastCommentBy = userDao.getUserCached(id);
-        } else {
-          lastCommentBy = null;
-        }
-      } catch (UserNotFoundException e) {
-        throw new RuntimeException(e);
-      }
-      boolean resolved = resultSet.getBoolean("resolved");
-      int section = resultSet.getInt("section");
-      String groupUrlName = resultSet.getString("urlname");
-      Timestamp postdate = resultSet.getTimestamp("postdate");
-      boolean uncommited = resultSet.getBoolean("smod") && !resultSet.getBoolean("moderate");
-      int pages = Topic.getPageCount(stat1, messagesInPage);
-
-      ImmutableList<String> tags;
-
-      if (msgid != 0) {
-        tags = topicTagService.getMessageTagsForTitle(msgid);
-      } else {
-        tags = ImmutableList.of();
+      TrackerRow row = new TrackerRow(resultSet);
+
+      if (row.msgid != 0) {
+        msgids.add(row.msgid);
       }
 
-      res.add(new TrackerItem(author, msgid, lastmod, stat1,
-              groupId, groupTitle, title, cid, lastCommentBy, resolved,
-              section, groupUrlName, postdate, uncommited, pages, tags));
+      rows.add(row);
     }
-    
+
+    ImmutableListMultimap<Integer, String> tags = topicTagService.getMessageTags(msgids);
+
+    for (TrackerRow row : rows) {
+      row.tags = tags.get(row.msgid);
+    }
+
+    return rows;
+  }
+
+  /**
+   * Создать элементы трекера для показа пользователю
+   *
+   * @param rows           строки трекера
+   * @param messagesInPage комментариев на странице темы
+   * @return элементы трекера
+   */
+  List<TrackerItem> createItems(List<TrackerRow> rows, int messagesInPage) {
+    List<TrackerItem> res = new ArrayList<TrackerItem>(rows.size());
+
+    try {
+      for (TrackerRow row : rows) {
+        User author = row.author != 0 ? userDao.getUserCached(row.author) : null;
+        User lastCommentBy = row.lastCommentBy != 0 ? userDao.getUserCached(row.lastCommentBy) : null;
+        int pages = Topic.getPageCount(row.stat1, messagesInPage);
+
+        res.add(new TrackerItem(author, row.msgid, row.lastmod, row.stat1,
+                row.groupId, row.groupTitle, row.title, row.cid, lastCommentBy, row.resolved,
+                row.section, row.groupUrlName, row.postdate, row.uncommited, pages,
+                TopicTagService.getTagsForTitle(row.tags)));
+      }
+    } catch (UserNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+
     return res;
   }
+
+  /**
+   * Строка трекера: тема (или правка wiki) с последним комментарием и всеми тегами
+   */
+  static class TrackerRow {
+    final int author;
+    final int msgid;
+    final Timestamp lastmod;
+    final int stat1;
+    final int groupId;
+    final String groupTitle;
+    final String title;
+    final int cid;
+    final int lastCommentBy;
+    final boolean resolved;
+    final int section;
+    final String groupUrlName;
+    final Timestamp postdate;
+    final boolean uncommited;
+    ImmutableList<String> tags = ImmutableList.of();
+
+    TrackerRow(SqlRowSet resultSet) {
+      author = resultSet.getInt("author");
+      msgid = resultSet.getInt("id");
+      lastmod = resultSet.getTimestamp("lastmod");
+      stat1 = resultSet.getInt("stat1");
+      groupId = resultSet.getInt("gid");
+      groupTitle = resultSet.getString("gtitle");
+      title = resultSet.getString("title");
+      cid = resultSet.getInt("cid");
+      lastCommentBy = resultSet.getInt("last_comment_by");
+      resolved = resultSet.getBoolean("resolved");
+      section = resultSet.getInt("section");
+      groupUrlName = resultSet.getString("urlname");
+      postdate = resultSet.getTimestamp("postdate");
+      uncommited = resultSet.getBoolean("smod") && !resultSet.getBoolean("moderate");
+    }
+
+    boolean isWiki() {
+      return msgid == 0;
+    }
+  }
 }
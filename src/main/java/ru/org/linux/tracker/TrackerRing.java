@@ -0,0 +1,177 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.tracker;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.org.linux.tracker.TrackerDao.TrackerRow;
+
+import javax.annotation.Nullable;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Последние изменения для первой страницы трекера.
+ *
+ * Раз в несколько секунд из БД читаются последние {@link #CAPACITY} строк трекера без
+ * фильтров; первая страница с любым фильтром, кроме "мои темы", собирается из них в памяти.
+ * Если после фильтрации строк не хватает на страницу, а в БД могут быть еще строки,
+ * страница не собирается и трекер читается из БД.
+ */
+@Component
+public class TrackerRing {
+  private static final Log logger = LogFactory.getLog(TrackerRing.class);
+
+  static final int CAPACITY = 500;
+
+  /* тот же интервал, что у трекера без фильтра "мои темы" */
+  private static final long INTERVAL = 24 * 60 * 60 * 1000L;
+
+  private static final int GROUP_TALKS = 8404;
+  private static final int GROUP_LINUX_ORG_RU = 4068;
+  private static final int SECTION_FORUM = 2;
+
+  @Autowired
+  private TrackerDao trackerDao;
+
+  private volatile Snapshot snapshot = null;
+
+  @Scheduled(fixedDelay = 5000)
+  public void refresh() {
+    try {
+      long now = System.currentTimeMillis();
+
+      List<TrackerRow> rows = trackerDao.getRows(
+              TrackerFilterEnum.ALL, null, new Timestamp(now - INTERVAL), CAPACITY, 0, null
+      );
+
+      snapshot = new Snapshot(ImmutableList.copyOf(rows), rows.size() < CAPACITY, now);
+    } catch (RuntimeException ex) {
+      logger.warn("Tracker refresh failed", ex);
+    }
+  }
+
+  /**
+   * Собрать первую страницу трекера из последних изменений
+   *
+   * @param filter       фильтр
+   * @param interval     нижняя граница времени изменения
+   * @param topics       размер страницы
+   * @param ignoredUsers игнорируемые пользователи
+   * @param ignoredTags  игнорируемые теги
+   * @return страница или null, если ее нужно читать из БД
+   */
+  @Nullable
+  List<TrackerRow> getFirstPage(
+          TrackerFilterEnum filter,
+          Timestamp interval,
+          int topics,
+          Set<Integer> ignoredUsers,
+          Collection<String> ignoredTags
+  ) {
+    Snapshot current = snapshot;
+
+    if (current == null || filter == TrackerFilterEnum.MINE || interval.getTime() < current.time - INTERVAL) {
+      return null;
+    }
+
+    List<TrackerRow> page = new ArrayList<TrackerRow>(topics);
+
+    for (TrackerRow row : current.rows) {
+      if (page.size() == topics) {
+        return page;
+      }
+
+      if (isVisible(row, filter, interval, ignoredUsers, ignoredTags)) {
+        page.add(row);
+      }
+    }
+
+    return page.size() == topics || current.complete ? page : null;
+  }
+
+  /**
+   * Условия выборки трекера из {@link TrackerDao}
+   */
+  private static boolean isVisible(
+          TrackerRow row,
+          TrackerFilterEnum filter,
+          Timestamp interval,
+          Set<Integer> ignoredUsers,
+          Collection<String> ignoredTags
+  ) {
+    /* темы с комментариями отбираются по lastmod, без комментариев и правки wiki - по postdate */
+    Timestamp date = row.cid != 0 ? row.lastmod : row.postdate;
+
+    if (!date.after(interval)) {
+      return false;
+    }
+
+    if (row.isWiki()) {
+      return filter != TrackerFilterEnum.ZERO;
+    }
+
+    switch (filter) {
+      case ZERO:
+        if (row.cid != 0) {
+          return false;
+        }
+        break;
+      case NOTALKS:
+        if (row.groupId == GROUP_TALKS) {
+          return false;
+        }
+        break;
+      case TECH:
+        if (row.groupId == GROUP_TALKS || row.groupId == GROUP_LINUX_ORG_RU || row.section != SECTION_FORUM) {
+          return false;
+        }
+        break;
+      default:
+    }
+
+    if (ignoredUsers.contains(row.author)) {
+      return false;
+    }
+
+    for (String tag : row.tags) {
+      if (ignoredTags.contains(tag)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static class Snapshot {
+    private final ImmutableList<TrackerRow> rows;
+    private final boolean complete;
+    private final long time;
+
+    private Snapshot(ImmutableList<TrackerRow> rows, boolean complete, long time) {
+      this.rows = rows;
+      this.complete = complete;
+      this.time = time;
+    }
+  }
+}
@@ -17,11 +17,13 @@ package ru.org.linux.user;
 
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.jdbc.core.simple.SimpleJdbcInsert;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Propagation;
@@ -31,16 +33,20 @@ import ru.org.linux.topic.Topic;
 import javax.sql.DataSource;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 @Repository
 public class MemoriesDao {
   private JdbcTemplate jdbcTemplate;
+  private NamedParameterJdbcTemplate namedJdbcTemplate;
   private SimpleJdbcInsert insertTemplate;
 
   @Autowired
   public void setDataSource(DataSource ds) {
     jdbcTemplate = new JdbcTemplate(ds);
+    namedJdbcTemplate = new NamedParameterJdbcTemplate(ds);
     insertTemplate = new SimpleJdbcInsert(ds).withTableName("memories").usingGeneratedKeyColumns("id").usingColumns("userid", "topic", "watch");
   }
 
@@ -90,6 +96,70 @@ public class MemoriesDao {
     }
   }
 
+  /**
+   * Get memories ids for several topics
+   *
+   * @param user
+   * @param topics topic ids
+   * @param watch
+   * @return memories id by topic id; topics not in memories are absent
+   */
+  public Map<Integer, Integer> getIds(User user, Collection<Integer> topics, boolean watch) {
+    if (topics.isEmpty()) {
+      return ImmutableMap.of();
+    }
+
+    final Map<Integer, Integer> res = Maps.newHashMapWithExpectedSize(topics.size());
+
+    namedJdbcTemplate.query(
+            "SELECT topic, id FROM memories WHERE userid=:user AND topic IN (:list) AND watch=:watch",
+            ImmutableMap.of("user", user.getId(), "list", topics, "watch", watch),
+            new RowCallbackHandler() {
+              @Override
+              public void processRow(ResultSet rs) throws SQLException {
+                res.put(rs.getInt("topic"), rs.getInt("id"));
+              }
+            }
+    );
+
+    return res;
+  }
+
+  /**
+   * get number of memories/favs for several topics
+   * @return list(0) - memories, list(1) - favs by topic id
+   */
+  public Map<Integer, List<Integer>> getTopicStats(Collection<Integer> topics) {
+    final Map<Integer, List<Integer>> res = Maps.newHashMapWithExpectedSize(topics.size());
+
+    if (topics.isEmpty()) {
+      return res;
+    }
+
+    for (Integer topic : topics) {
+      res.put(topic, Lists.newArrayList(0, 0));
+    }
+
+    namedJdbcTemplate.query(
+            "SELECT topic, watch, count(*) FROM memories WHERE topic IN (:list) GROUP BY topic, watch",
+            ImmutableMap.of("list", topics),
+            new RowCallbackHandler() {
+              @Override
+              public void processRow(ResultSet rs) throws SQLException {
+                List<Integer> stats = res.get(rs.getInt("topic"));
+
+                if (rs.getBoolean("watch")) {
+                  stats.set(0, rs.getInt("count"));
+                } else {
+                  stats.set(1, rs.getInt("count"));
+                }
+              }
+            }
+    );
+
+    return res;
+  }
+
   /**
    * get number of memories/favs for topic
    * @return list(0) - memories, list(1) - favs
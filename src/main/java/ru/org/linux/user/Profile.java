@@ -15,9 +15,7 @@
 
 package ru.org.linux.user;
 
-import java.io.*;
 import java.util.HashMap;
-import java.util.Map;
 
 import ru.org.linux.site.DefaultProfile;
 import ru.org.linux.util.ProfileHashtable;
@@ -34,28 +32,6 @@ public class Profile {
     this.isdefault = isdefault;
   }
 
-  public Profile(InputStream df) throws IOException, ClassNotFoundException {
-    if (df==null) {
-      throw new NullPointerException();
-    }
-
-    ObjectInputStream dof = null;
-    try {
-      dof = new ObjectInputStream(df);
-      Map<String, Object> userProfile = (Map<String, Object>) dof.readObject();
-      dof.close();
-      df.close();
-
-      properties = new ProfileProperties(new ProfileHashtable(getDefaults(), userProfile));
-
-      isdefault = false;
-    } finally {
-      if (dof!=null) {
-        dof.close();
-      }
-    }
-  }
-
   public static Profile getDefaultProfile() {
     ProfileProperties properties1 = new ProfileProperties(new ProfileHashtable(DefaultProfile.getDefaultProfile(), new HashMap<String, Object>()));
     return new Profile(properties1, true);
@@ -78,21 +54,4 @@ public class Profile {
   public static ImmutableMap<String, Object> getDefaults() {
     return DefaultProfile.getDefaultProfile();
   }
-
-  public void write(OutputStream df) throws IOException {
-    ProfileHashtable profileHashtable = properties.getHashtable();
-
-    profileHashtable.setObject(ProfileProperties.TIMESTAMP_PROPERTY, System.currentTimeMillis());
-
-    ObjectOutputStream dof = null;
-    try {
-      dof = new ObjectOutputStream(df);
-      dof.writeObject(profileHashtable.getSettings());
-      dof.close();
-    } finally {
-      if (dof!=null) {
-        dof.close();
-      }
-    }
-  }
 }
@@ -0,0 +1,365 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.user;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Repository;
+import ru.org.linux.spring.Configuration;
+import ru.org.linux.util.ProfileHashtable;
+
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+import java.io.*;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static ru.org.linux.user.ProfileProperties.*;
+
+/**
+ * Настройки профилей пользователей.
+ *
+ * Каждая настройка хранится в своем столбце user_profile; NULL означает значение
+ * по умолчанию, как отсутствие ключа в старом сериализованном профиле. Прочитанные
+ * настройки хранятся в LRU кеше. Профили, которых еще нет в БД, один раз читаются из
+ * старых файлов linux-storage/profile/ и сохраняются в БД (см. также {@link ProfileMigration}).
+ */
+@Repository
+public class ProfileDao {
+  private static final Log logger = LogFactory.getLog(ProfileDao.class);
+
+  private static final int CACHE_SIZE = 10000;
+
+  /* профиль могли изменить на другом узле */
+  private static final int CACHE_EXPIRE_MINUTES = 10;
+
+  private static final String queryProfile =
+          "SELECT style, format_mode, hover, messages, newfirst, topics, tags, photos, hide_adsense, " +
+          "main_gallery, avatar, show_anonymous, show_social, boxes, modified FROM user_profile WHERE userid=?";
+
+  private static final String updateProfile =
+          "UPDATE user_profile SET style=?, format_mode=?, hover=?, messages=?, newfirst=?, topics=?, tags=?, " +
+          "photos=?, hide_adsense=?, main_gallery=?, avatar=?, show_anonymous=?, show_social=?, boxes=?, modified=? " +
+          "WHERE userid=?";
+
+  private static final String insertProfile =
+          "INSERT INTO user_profile (style, format_mode, hover, messages, newfirst, topics, tags, " +
+          "photos, hide_adsense, main_gallery, avatar, show_anonymous, show_social, boxes, modified, userid) " +
+          "VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+
+  private static final Joiner BOXES_JOINER = Joiner.on(',');
+  private static final Splitter BOXES_SPLITTER = Splitter.on(',').omitEmptyStrings();
+
+  @Autowired
+  private Configuration configuration;
+
+  private JdbcTemplate jdbcTemplate;
+
+  private final Cache<Integer, ImmutableMap<String, Object>> cache = CacheBuilder.newBuilder()
+          .maximumSize(CACHE_SIZE)
+          .expireAfterWrite(CACHE_EXPIRE_MINUTES, TimeUnit.MINUTES)
+          .build();
+
+  @Autowired
+  public void setDataSource(DataSource ds) {
+    jdbcTemplate = new JdbcTemplate(ds);
+  }
+
+  /**
+   * Прочитать профиль пользователя
+   *
+   * @param user пользователь
+   * @return профиль; для пользователя без сохраненных настроек - со значениями по умолчанию
+   */
+  public Profile readProfile(User user) {
+    ImmutableMap<String, Object> settings = cache.getIfPresent(user.getId());
+
+    if (settings == null) {
+      settings = loadSettings(user);
+
+      if (settings != null) {
+        cache.put(user.getId(), settings);
+      } else {
+        settings = ImmutableMap.of();
+      }
+    }
+
+    ProfileHashtable hashtable = new ProfileHashtable(Profile.getDefaults(), new HashMap<String, Object>(settings));
+
+    return new Profile(new ProfileProperties(hashtable), false);
+  }
+
+  /**
+   * Сохранить профиль пользователя
+   *
+   * @param user    пользователь
+   * @param profile профиль
+   */
+  public void writeProfile(User user, Profile profile) {
+    Map<String, Object> settings = new HashMap<String, Object>(profile.getProperties().getHashtable().getSettings());
+
+    settings.put(TIMESTAMP_PROPERTY, System.currentTimeMillis());
+
+    saveSettings(user.getId(), settings);
+
+    cache.invalidate(user.getId());
+  }
+
+  /**
+   * Есть ли профиль пользователя в БД
+   */
+  boolean isStored(int userid) {
+    return jdbcTemplate.queryForInt("SELECT count(*) FROM user_profile WHERE userid=?", userid) > 0;
+  }
+
+  /**
+   * Перенести старый профиль пользователя из файла в БД
+   *
+   * @param user пользователь
+   * @return false, если файл профиля не удалось прочитать; тогда профиль не сохраняется
+   */
+  boolean migrate(User user) {
+    Map<String, Object> legacy;
+
+    try {
+      legacy = readLegacy(user.getNick());
+    } catch (IOException e) {
+      logger.warn("Can't read profile of user " + user.getNick() + ": " + e.getMessage());
+      return false;
+    }
+
+    saveSettings(user.getId(), legacy);
+
+    return true;
+  }
+
+  /**
+   * Прочитать настройки из БД или перенести их из файла
+   *
+   * @param user пользователь
+   * @return настройки или null, если файл старого профиля не удалось прочитать
+   */
+  @Nullable
+  private ImmutableMap<String, Object> loadSettings(User user) {
+    List<ImmutableMap<String, Object>> found = jdbcTemplate.query(queryProfile, new RowMapper<ImmutableMap<String, Object>>() {
+      @Override
+      public ImmutableMap<String, Object> mapRow(ResultSet rs, int rowNum) throws SQLException {
+        return mapSettings(rs);
+      }
+    }, user.getId());
+
+    if (!found.isEmpty()) {
+      return found.get(0);
+    }
+
+    /* профиль еще не перенесен; сохраняем его, чтобы больше не читать файл */
+    Map<String, Object> legacy;
+
+    try {
+      legacy = readLegacy(user.getNick());
+    } catch (IOException e) {
+      /* не сохраняем, иначе настройки пользователя пропадут; файл прочитаем при следующей загрузке */
+      logger.warn("Can't read profile of user " + user.getNick() + ": " + e.getMessage());
+      return null;
+    }
+
+    ImmutableMap<String, Object> settings = ImmutableMap.copyOf(filterSettings(legacy));
+
+    saveSettings(user.getId(), settings);
+
+    return settings;
+  }
+
+  private static ImmutableMap<String, Object> mapSettings(ResultSet rs) throws SQLException {
+    ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
+
+    putIfNotNull(builder, STYLE_PROPERTY, rs.getString("style"));
+    putIfNotNull(builder, FORMAT_MODE_PROPERTY, rs.getString("format_mode"));
+    putIfNotNull(builder, HOVER_PROPERTY, (Boolean) rs.getObject("hover"));
+    putIfNotNull(builder, MESSAGES_PROPERTY, (Integer) rs.getObject("messages"));
+    putIfNotNull(builder, NEWFIRST_PROPERTY, (Boolean) rs.getObject("newfirst"));
+    putIfNotNull(builder, TOPICS_PROPERTY, (Integer) rs.getObject("topics"));
+    putIfNotNull(builder, TAGS_PROPERTY, (Integer) rs.getObject("tags"));
+    putIfNotNull(builder, PHOTOS_PROPERTY, (Boolean) rs.getObject("photos"));
+    putIfNotNull(builder, HIDE_ADSENSE_PROPERTY, (Boolean) rs.getObject("hide_adsense"));
+    putIfNotNull(builder, MAIN_GALLERY_PROPERTY, (Boolean) rs.getObject("main_gallery"));
+    putIfNotNull(builder, AVATAR_PROPERTY, rs.getString("avatar"));
+    putIfNotNull(builder, SHOW_ANONYMOUS_PROPERTY, (Boolean) rs.getObject("show_anonymous"));
+    putIfNotNull(builder, SHOW_SOCIAL_PROPERTY, (Boolean) rs.getObject("show_social"));
+    putIfNotNull(builder, TIMESTAMP_PROPERTY, (Long) rs.getObject("modified"));
+
+    String boxes = rs.getString("boxes");
+
+    if (boxes != null) {
+      builder.put(BOXES_MAIN2_PROPERTY, ImmutableList.copyOf(BOXES_SPLITTER.split(boxes)));
+    }
+
+    return builder.build();
+  }
+
+  private static void putIfNotNull(ImmutableMap.Builder<String, Object> builder, String key, @Nullable Object value) {
+    if (value != null) {
+      builder.put(key, value);
+    }
+  }
+
+  /**
+   * Только известные настройки ожидаемых типов; остальное в старых профилях игнорируется
+   */
+  static Map<String, Object> filterSettings(Map<String, Object> settings) {
+    Map<String, Object> filtered = new HashMap<String, Object>();
+
+    copyTyped(settings, filtered, String.class, STYLE_PROPERTY, FORMAT_MODE_PROPERTY, AVATAR_PROPERTY);
+    copyTyped(settings, filtered, Integer.class, MESSAGES_PROPERTY, TOPICS_PROPERTY, TAGS_PROPERTY);
+    copyTyped(settings, filtered, Long.class, TIMESTAMP_PROPERTY);
+    copyTyped(settings, filtered, Boolean.class,
+            HOVER_PROPERTY, NEWFIRST_PROPERTY, PHOTOS_PROPERTY, HIDE_ADSENSE_PROPERTY,
+            MAIN_GALLERY_PROPERTY, SHOW_ANONYMOUS_PROPERTY, SHOW_SOCIAL_PROPERTY);
+
+    Object boxes = settings.get(BOXES_MAIN2_PROPERTY);
+
+    if (boxes instanceof List) {
+      ImmutableList.Builder<String> list = ImmutableList.builder();
+
+      for (Object box : (List<?>) boxes) {
+        if (box instanceof String && !((String) box).contains(",")) {
+          list.add((String) box);
+        }
+      }
+
+      filtered.put(BOXES_MAIN2_PROPERTY, list.build());
+    }
+
+    return filtered;
+  }
+
+  private static void copyTyped(Map<String, Object> from, Map<String, Object> to, Class<?> type, String... keys) {
+    for (String key : keys) {
+      Object value = from.get(key);
+
+      if (type.isInstance(value)) {
+        to.put(key, value);
+      }
+    }
+  }
+
+  private void saveSettings(int userid, Map<String, Object> source) {
+    Map<String, Object> settings = filterSettings(source);
+
+    List<String> boxes = (List<String>) settings.get(BOXES_MAIN2_PROPERTY);
+
+    Object[] args = {
+            settings.get(STYLE_PROPERTY),
+            settings.get(FORMAT_MODE_PROPERTY),
+            settings.get(HOVER_PROPERTY),
+            settings.get(MESSAGES_PROPERTY),
+            settings.get(NEWFIRST_PROPERTY),
+            settings.get(TOPICS_PROPERTY),
+            settings.get(TAGS_PROPERTY),
+            settings.get(PHOTOS_PROPERTY),
+            settings.get(HIDE_ADSENSE_PROPERTY),
+            settings.get(MAIN_GALLERY_PROPERTY),
+            settings.get(AVATAR_PROPERTY),
+            settings.get(SHOW_ANONYMOUS_PROPERTY),
+            settings.get(SHOW_SOCIAL_PROPERTY),
+            boxes != null ? BOXES_JOINER.join(boxes) : null,
+            settings.get(TIMESTAMP_PROPERTY),
+            userid
+    };
+
+    if (jdbcTemplate.update(updateProfile, args) == 0) {
+      try {
+        jdbcTemplate.update(insertProfile, args);
+      } catch (DuplicateKeyException ex) {
+        /* профиль одновременно перенесен из файла */
+        jdbcTemplate.update(updateProfile, args);
+      }
+    }
+  }
+
+  /**
+   * Прочитать старый сериализованный профиль
+   *
+   * @param nick ник пользователя
+   * @return настройки; пустые, если файла профиля нет
+   * @throws IOException если профиль не удалось прочитать или он испорчен
+   */
+  private Map<String, Object> readLegacy(String nick) throws IOException {
+    File file = new File(configuration.getPathPrefix() + "linux-storage/profile/" + nick);
+
+    if (!file.isFile()) {
+      return ImmutableMap.of();
+    }
+
+    ObjectInputStream in = new LegacyProfileInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+    try {
+      return (Map<String, Object>) in.readObject();
+    } catch (ClassNotFoundException e) {
+      throw new IOException("Bad profile for user " + nick, e);
+    } catch (ClassCastException e) {
+      throw new IOException("Bad profile for user " + nick, e);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Десериализация старых профилей, в которой разрешены только классы,
+   * которые могли быть сохранены в профиле
+   */
+  private static class LegacyProfileInputStream extends ObjectInputStream {
+    private static final ImmutableList<String> ALLOWED = ImmutableList.of(
+            "java.util.HashMap",
+            "java.util.Hashtable",
+            "java.util.ArrayList",
+            "java.lang.String",
+            "java.lang.Number",
+            "java.lang.Integer",
+            "java.lang.Long",
+            "java.lang.Boolean",
+            "com.google.common.collect.ImmutableList$SerializedForm",
+            "[Ljava.lang.Object;"
+    );
+
+    private LegacyProfileInputStream(InputStream in) throws IOException {
+      super(in);
+    }
+
+    @Override
+    protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+      if (!ALLOWED.contains(desc.getName())) {
+        throw new InvalidClassException(desc.getName(), "not allowed in profile");
+      }
+
+      return super.resolveClass(desc);
+    }
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.user;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.org.linux.spring.Configuration;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Перенос старых сериализованных профилей из linux-storage/profile/ в БД.
+ *
+ * Профили переносятся пачками по расписанию, пока не кончатся файлы. Уже перенесенные
+ * профили (в том числе перенесенные при входе пользователя) пропускаются. Файлы
+ * не удаляются; профили, которые не удалось прочитать, перенесутся при входе пользователя.
+ */
+@Component
+public class ProfileMigration {
+  private static final Log logger = LogFactory.getLog(ProfileMigration.class);
+
+  private static final int BATCH_SIZE = 500;
+
+  @Autowired
+  private ProfileDao profileDao;
+
+  @Autowired
+  private UserDao userDao;
+
+  @Autowired
+  private Configuration configuration;
+
+  private String[] files = null;
+  private int position = 0;
+  private volatile boolean done = false;
+
+  @Scheduled(fixedDelay = 60 * 1000)
+  public synchronized void migrate() {
+    if (done) {
+      return;
+    }
+
+    try {
+      if (files == null) {
+        files = new File(configuration.getPathPrefix() + "linux-storage/profile/").list();
+
+        if (files == null) {
+          files = new String[0];
+        }
+
+        Arrays.sort(files);
+      }
+
+      if (position >= files.length) {
+        logger.info("Profile migration finished");
+        done = true;
+        return;
+      }
+
+      int end = Math.min(position + BATCH_SIZE, files.length);
+      int migrated = 0;
+
+      while (position < end) {
+        String nick = files[position++];
+
+        try {
+          User user = userDao.getUser(nick);
+
+          if (!profileDao.isStored(user.getId()) && profileDao.migrate(user)) {
+            migrated++;
+          }
+        } catch (UserNotFoundException ex) {
+          logger.debug("Profile of unknown user " + nick);
+        }
+      }
+
+      logger.info("Profile migration: " + migrated + " profiles migrated, " + position + " of " + files.length + " files processed");
+    } catch (RuntimeException ex) {
+      logger.warn("Profile migration failed", ex);
+    }
+  }
+}
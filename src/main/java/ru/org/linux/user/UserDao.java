@@ -16,10 +16,14 @@
 package ru.org.linux.user;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.jasypt.util.password.BasicPasswordEncryptor;
 import org.jasypt.util.password.PasswordEncryptor;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.CacheEvict;
 import org.springframework.cache.annotation.CachePut;
 import org.springframework.cache.annotation.Cacheable;
@@ -27,6 +31,7 @@ import org.springframework.dao.EmptyResultDataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Repository;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -39,20 +44,34 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 @Repository
 public class UserDao {
+  private static final String USERS_CACHE = "Users";
+
   private JdbcTemplate jdbcTemplate;
+  private NamedParameterJdbcTemplate namedJdbcTemplate;
 
   @Autowired
   private IgnoreListDao ignoreListDao;
 
+  /**
+   * Менеджер кеша, в котором лежит кеш Users (@Cacheable методов).
+   * Нужен для пакетного чтения пользователей, т.к. внутренние вызовы
+   * getUserCached() мимо прокси кешем не обрабатываются.
+   */
+  @Autowired(required = false)
+  private CacheManager cacheManager;
+
   /**
    * изменение score пользователю
    */
   private static final String queryChangeScore = "UPDATE users SET score=score+? WHERE id=?";
   private static final String queryUserById = "SELECT id,nick,score,max_score,candel,canmod,corrector,passwd,blocked,activated,photo,email,name,unread_events,style FROM users where id=?";
+  private static final String queryUsersByIds = "SELECT id,nick,score,max_score,candel,canmod,corrector,passwd,blocked,activated,photo,email,name,unread_events,style FROM users where id IN (:list)";
   private static final String queryUserIdByNick = "SELECT id FROM users where nick=?";
   private static final String updateUserStyle = "UPDATE users SET style=? WHERE id=?";
 
@@ -78,6 +97,7 @@ public class UserDao {
   @Autowired
   public void setJdbcTemplate(DataSource dataSource) {
     jdbcTemplate = new JdbcTemplate(dataSource);
+    namedJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
   }
 
   public User getUser(String nick) throws UserNotFoundException {
@@ -455,13 +475,77 @@ public class UserDao {
   }
 
   public List<User> getUsersCached(List<Integer> ids) {
+    Map<Integer, User> cached;
+
+    try {
+      cached = getUsersCachedMap(ids);
+    } catch (UserNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+
     List<User> users = new ArrayList<User>(ids.size());
 
     for (int id : ids) {
-      try {
-        users.add(getUserCached(id));
-      } catch (UserNotFoundException e) {
-        throw new RuntimeException(e);
+      users.add(cached.get(id));
+    }
+
+    return users;
+  }
+
+  /**
+   * Пакетное получение пользователей: сначала ищем в кеше Users,
+   * недостающих загружаем из БД одним запросом и кладем в кеш.
+   *
+   * @param ids идентификаторы пользователей (допускаются повторы)
+   * @return пользователи по идентификаторам
+   * @throws UserNotFoundException если какого-то пользователя нет в БД
+   */
+  public Map<Integer, User> getUsersCachedMap(Collection<Integer> ids) throws UserNotFoundException {
+    if (ids.isEmpty()) {
+      return ImmutableMap.of();
+    }
+
+    final Map<Integer, User> users = Maps.newHashMapWithExpectedSize(ids.size());
+    final Cache cache = cacheManager!=null ? cacheManager.getCache(USERS_CACHE) : null;
+    List<Integer> missed = new ArrayList<Integer>();
+
+    for (Integer id : ids) {
+      if (users.containsKey(id)) {
+        continue;
+      }
+
+      Cache.ValueWrapper wrapper = cache!=null ? cache.get(id) : null;
+
+      if (wrapper!=null && wrapper.get()!=null) {
+        users.put(id, (User) wrapper.get());
+      } else {
+        users.put(id, null);
+        missed.add(id);
+      }
+    }
+
+    if (!missed.isEmpty()) {
+      namedJdbcTemplate.query(
+              queryUsersByIds,
+              ImmutableMap.of("list", missed),
+              new RowCallbackHandler() {
+                @Override
+                public void processRow(ResultSet rs) throws SQLException {
+                  User user = new User(rs);
+
+                  users.put(user.getId(), user);
+
+                  if (cache!=null) {
+                    cache.put(user.getId(), user);
+                  }
+                }
+              }
+      );
+
+      for (Integer id : missed) {
+        if (users.get(id)==null) {
+          throw new UserNotFoundException(id);
+        }
       }
     }
 
@@ -599,6 +683,35 @@ public class UserDao {
     }
   }
 
+  /**
+   * Получить комментарии пользователя user о нескольких пользователях сразу
+   * @param user logged user
+   * @param refs идентификаторы пользователей, о которых нужны комментарии
+   * @return комментарии по идентификаторам пользователей (отсутствующих нет в ответе)
+   */
+  public Map<Integer, Remark> getRemarks(User user, Collection<Integer> refs) {
+    if (refs.isEmpty()) {
+      return ImmutableMap.of();
+    }
+
+    final Map<Integer, Remark> remarks = Maps.newHashMapWithExpectedSize(refs.size());
+
+    namedJdbcTemplate.query(
+            "SELECT * FROM user_remarks WHERE user_id=:user AND ref_user_id IN (:list)",
+            ImmutableMap.<String, Object>of("user", user.getId(), "list", refs),
+            new RowCallbackHandler() {
+              @Override
+              public void processRow(ResultSet resultSet) throws SQLException {
+                Remark remark = new Remark(resultSet);
+
+                remarks.put(remark.getRefUserId(), remark);
+              }
+            }
+    );
+
+    return remarks;
+  }
+
   public int getRemarkCount(User user) {
     return jdbcTemplate.queryForInt(
       "SELECT count(*) as c FROM user_remarks WHERE user_id=?", user.getId() );
@@ -46,6 +46,10 @@ public class UserTagService {
       userTagDao.replaceTag(oldTagId, newTagId);
     }
 
+    @Override
+    public void changeTag(int tagId, String oldTagName, String newTagName) {
+    }
+
     @Override
     public void deleteTag(int tagId, String tagName) {
       userTagDao.deleteTags(tagId);
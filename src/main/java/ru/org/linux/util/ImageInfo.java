@@ -118,6 +118,16 @@ public class ImageInfo{
     }
   }
 
+  /**
+   * constructs image from stored dimensions, without reading the file
+   */
+  public ImageInfo(String filename, int width, int height, int size) {
+    this.filename = filename;
+    this.width = width;
+    this.height = height;
+    this.size = size;
+  }
+
   public ImageInfo(String filename, String extension) throws BadImageException, IOException {
     this(new File(filename), extension);
   }
@@ -247,22 +257,4 @@ public class ImageInfo{
   public String getCode() {
     return "width=" + width + " height=" + height;
   }
-
-  public static void resizeImage(String filename, String iconname, int size) throws IOException, UtilException, InterruptedException {
-    String[] cmd = {
-      "/usr/bin/convert",
-      "-scale",
-      Integer.toString(size),
-      filename,
-      iconname };
-
-    Process proc = Runtime.getRuntime().exec(cmd);
-
-    int exitStatus = proc.waitFor();
-
-    if (exitStatus!=0) {
-      logger.warn("Failed to convert from "+filename+" to "+iconname);
-      throw new UtilException("Can't convert image: convert failed");
-    }
-  }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.util;
+
+import javax.annotation.Nullable;
+import java.sql.Timestamp;
+
+/**
+ * Позиция в списке, отсортированном по убыванию (дата, id).
+ *
+ * Следующая страница выбирается условием (дата, id) &lt; (cursor.date, cursor.id),
+ * поэтому ее стоимость не зависит от того, насколько далеко от начала списка она находится.
+ * В URL передается как "&lt;микросекунды&gt;-&lt;id&gt;": микросекунды нужны, чтобы
+ * не пропустить топики, созданные в ту же миллисекунду, что и последний на странице.
+ */
+public final class PageCursor {
+  private final Timestamp date;
+  private final int id;
+
+  public PageCursor(Timestamp date, int id) {
+    this.date = date;
+    this.id = id;
+  }
+
+  public Timestamp getDate() {
+    return date;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * Разобрать значение из URL
+   *
+   * @param value строка вида "&lt;микросекунды&gt;-&lt;id&gt;"
+   * @return позиция или null, если строка пустая или некорректная
+   */
+  @Nullable
+  public static PageCursor parse(@Nullable String value) {
+    if (value == null) {
+      return null;
+    }
+
+    int index = value.indexOf('-');
+
+    if (index <= 0) {
+      return null;
+    }
+
+    try {
+      long micros = Long.parseLong(value.substring(0, index));
+      int id = Integer.parseInt(value.substring(index + 1));
+
+      if (micros < 0 || id < 0) {
+        return null;
+      }
+
+      Timestamp date = new Timestamp(micros / 1000);
+      date.setNanos((int) (micros % 1000000) * 1000);
+
+      return new PageCursor(date, id);
+    } catch (NumberFormatException ex) {
+      return null;
+    }
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+
+    if (!(o instanceof PageCursor)) {
+      return false;
+    }
+
+    PageCursor that = (PageCursor) o;
+
+    return id == that.id && getMicros() == that.getMicros();
+  }
+
+  private long getMicros() {
+    return date.getTime() / 1000 * 1000000 + date.getNanos() / 1000;
+  }
+
+  @Override
+  public int hashCode() {
+    long micros = getMicros();
+
+    return 31 * (int) (micros ^ (micros >>> 32)) + id;
+  }
+
+  @Override
+  public String toString() {
+    return Long.toString(getMicros()) + '-' + id;
+  }
+}
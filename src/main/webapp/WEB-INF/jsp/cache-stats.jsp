@@ -0,0 +1,72 @@
+<%@ taglib prefix="c" uri="http://java.sun.com/jsp/jstl/core" %>
+<%@ taglib prefix="fmt" uri="http://java.sun.com/jsp/jstl/fmt" %>
+<%--
+  ~ Copyright 1998-2012 Linux.org.ru
+  ~    Licensed under the Apache License, Version 2.0 (the "License");
+  ~    you may not use this file except in compliance with the License.
+  ~    You may obtain a copy of the License at
+  ~
+  ~        http://www.apache.org/licenses/LICENSE-2.0
+  ~
+  ~    Unless required by applicable law or agreed to in writing, software
+  ~    distributed under the License is distributed on an "AS IS" BASIS,
+  ~    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  ~    See the License for the specific language governing permissions and
+  ~    limitations under the License.
+  --%>
+
+<%@ page contentType="text/html;charset=UTF-8" language="java" %>
+<jsp:include page="/WEB-INF/jsp/head.jsp"/>
+<title>Cache statistics</title>
+<jsp:include page="/WEB-INF/jsp/header.jsp"/>
+<h1>Cache statistics</h1>
+
+<table class="message-table">
+  <thead>
+  <tr>
+    <th>prefix</th>
+    <th>requests</th>
+    <th>near hits</th>
+    <th>remote hits</th>
+    <th>misses</th>
+    <th>hit rate</th>
+    <th>remote time, &micro;s</th>
+  </tr>
+  </thead>
+  <tbody>
+  <c:forEach var="stat" items="${statistics}">
+    <tr>
+      <td><c:out value="${stat.prefix}" escapeXml="true"/></td>
+      <td>${stat.requests}</td>
+      <td>${stat.nearHits}</td>
+      <td>${stat.hits}</td>
+      <td>${stat.misses}</td>
+      <td><fmt:formatNumber value="${stat.hitRate}" type="percent" maxFractionDigits="1"/></td>
+      <td>${stat.averageRemoteTime}</td>
+    </tr>
+  </c:forEach>
+  </tbody>
+</table>
+
+<h2>Flood protector</h2>
+
+<table class="message-table">
+  <tr>
+    <td>Tracked IP addresses and users</td>
+    <td>${floodProtector.size}</td>
+  </tr>
+  <tr>
+    <td>Rejected by IP address</td>
+    <td>${floodProtector.ipRejected}</td>
+  </tr>
+  <tr>
+    <td>Rejected by user</td>
+    <td>${floodProtector.userRejected}</td>
+  </tr>
+  <tr>
+    <td>Rejected on table overflow</td>
+    <td>${floodProtector.overflowRejected}</td>
+  </tr>
+</table>
+
+<jsp:include page="/WEB-INF/jsp/footer.jsp"/>
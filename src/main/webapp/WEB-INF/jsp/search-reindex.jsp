@@ -24,9 +24,36 @@
   <lor:csrf/>
   <select name="action">
     <option value="all">all</option>
+    <option value="resume">resume all</option>
+    <option value="pause">pause all</option>
     <option value="current">current</option>
   </select>
   <input type="submit"> 
 </form>
 
+<h2>Full reindex</h2>
+<table class="message-table">
+  <tr><td>State</td><td>${reindex.state}</td></tr>
+  <tr><td>Partitions done</td><td>${reindex.donePartitions} / ${reindex.totalPartitions}</td></tr>
+  <tr><td>Topics since start</td><td>${reindex.topics}</td></tr>
+  <tr><td>Topics per second</td><td>${reindex.rate}</td></tr>
+  <tr><td>Errors</td><td>${reindex.errors}</td></tr>
+  <c:if test="${reindex.lastError != null}">
+    <tr><td>Last error</td><td><c:out value="${reindex.lastError}"/></td></tr>
+  </c:if>
+</table>
+
+<h2>Indexing queue</h2>
+<table class="message-table">
+  <tr><td>Queue size</td><td>${indexer.queueSize}</td></tr>
+  <tr><td>Batches</td><td>${indexer.batches}</td></tr>
+  <tr><td>Last batch size</td><td>${indexer.lastBatchSize}</td></tr>
+  <tr><td>Max batch size</td><td>${indexer.maxBatchSize}</td></tr>
+  <tr><td>Indexed documents</td><td>${indexer.indexed}</td></tr>
+  <tr><td>Deleted documents</td><td>${indexer.deleted}</td></tr>
+  <tr><td>Coalesced updates</td><td>${indexer.coalesced}</td></tr>
+  <tr><td>Failed batches</td><td>${indexer.failures}</td></tr>
+  <tr><td>Dropped messages</td><td>${indexer.dropped}</td></tr>
+</table>
+
 <jsp:include page="/WEB-INF/jsp/footer.jsp"/>
@@ -134,7 +134,7 @@
     </div>
     <div style="display: table-cell; text-align: right">
       <c:if test="${offset+topics<300 and fn:length(msgs)==topics}">
-        <a href="/tracker/?offset=${offset+topics}${addition_query}">следующие →</a>
+        <a href="/tracker/?offset=${offset+topics}&amp;before=${nextCursor}${addition_query}">следующие →</a>
       </c:if>
     </div>
   </div>
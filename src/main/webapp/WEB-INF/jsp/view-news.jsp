@@ -95,7 +95,7 @@
     <tr>
       <c:if test="${topicListRequest.offset < 200 && fn:length(messages) == 20}">
         <td align="left" width="35%">
-          <a href="${url}?${aparams}offset=${topicListRequest.offset+20}">← предыдущие</a>
+          <a href="${url}?${aparams}offset=${topicListRequest.offset+20}&amp;before=${nextCursor}">← предыдущие</a>
         </td>
       </c:if>
       <c:if test="${topicListRequest.offset > 20}">
@@ -0,0 +1,122 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.auth;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DNSBLCheckerTest {
+  private DNSBLChecker checker;
+
+  /**
+   * DNSBL в памяти вместо DNS
+   */
+  private static class LocalLookup implements DNSBLChecker.Lookup {
+    private final Set<String> listed = new CopyOnWriteArraySet<String>();
+    private final AtomicInteger queries = new AtomicInteger();
+    private volatile CountDownLatch release = new CountDownLatch(0);
+
+    @Override
+    public boolean isListed(String addr) throws Exception {
+      queries.incrementAndGet();
+      release.await();
+      return listed.contains(addr);
+    }
+  }
+
+  private LocalLookup lookup;
+
+  @Before
+  public void init() throws Exception {
+    lookup = new LocalLookup();
+    lookup.listed.add("10.0.0.1");
+
+    checker = new DNSBLChecker();
+    ReflectionTestUtils.setField(checker, "lookup", lookup);
+    checker.init();
+  }
+
+  @After
+  public void stop() {
+    checker.stop();
+  }
+
+  @Test
+  public void testCached() {
+    assertTrue(checker.isListed("10.0.0.1"));
+    assertTrue(checker.isListed("10.0.0.1"));
+    assertFalse(checker.isListed("10.0.0.2"));
+    assertFalse(checker.isListed("10.0.0.2"));
+
+    assertEquals(2, lookup.queries.get());
+  }
+
+  @Test
+  public void testSlowLookup() throws Exception {
+    lookup.release = new CountDownLatch(1);
+
+    long start = System.currentTimeMillis();
+    assertFalse(checker.isListed("10.0.0.1"));
+    assertTrue(System.currentTimeMillis() - start < DNSBLChecker.BUDGET_MS * 3);
+
+    /* пока ответа нет, новые проверки не создают новых запросов */
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    try {
+      for (int i = 0; i < 4; i++) {
+        executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() {
+            return checker.isListed("10.0.0.1");
+          }
+        });
+      }
+
+      lookup.release.countDown();
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(1, lookup.queries.get());
+    assertTrue(checker.isListed("10.0.0.1"));
+  }
+
+  @Test
+  public void testExpiredNegative() {
+    assertFalse(checker.isListed("10.0.0.2"));
+
+    lookup.listed.add("10.0.0.2");
+
+    /* ненайденный адрес с истекшим сроком проверяется заново, а не отдается из кеша */
+    checker.cache.put(
+            "10.0.0.2",
+            new DNSBLChecker.Entry(false, System.currentTimeMillis() - DNSBLChecker.NEGATIVE_TTL - 1)
+    );
+
+    assertTrue(checker.isListed("10.0.0.2"));
+    assertEquals(2, lookup.queries.get());
+  }
+}
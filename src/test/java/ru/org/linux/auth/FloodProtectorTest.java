@@ -0,0 +1,148 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.auth;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.validation.Errors;
+import org.springframework.validation.MapBindingResult;
+import ru.org.linux.spring.Configuration;
+import ru.org.linux.user.User;
+
+import java.util.HashMap;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class FloodProtectorTest {
+  private FloodProtector floodProtector;
+  private Configuration configuration;
+
+  @Before
+  public void init() {
+    configuration = mock(Configuration.class);
+    when(configuration.getFloodIpInterval()).thenReturn(30000);
+    when(configuration.getFloodIpBurst()).thenReturn(1);
+    when(configuration.getFloodUserInterval()).thenReturn(30000);
+    when(configuration.getFloodUserBurst()).thenReturn(1);
+    when(configuration.getFloodTrustedInterval()).thenReturn(3000);
+    when(configuration.getFloodMaxEntries()).thenReturn(2);
+
+    floodProtector = new FloodProtector();
+    ReflectionTestUtils.setField(floodProtector, "configuration", configuration);
+  }
+
+  private static Errors errors() {
+    return new MapBindingResult(new HashMap<String, Object>(), "request");
+  }
+
+  private static User user(int id) {
+    User user = mock(User.class);
+    when(user.getId()).thenReturn(id);
+    when(user.isAnonymous()).thenReturn(false);
+    return user;
+  }
+
+  @Test
+  public void sameIpRejected() {
+    Errors first = errors();
+    floodProtector.checkDuplication("127.0.0.1", false, first);
+    assertFalse(first.hasErrors());
+
+    Errors second = errors();
+    floodProtector.checkDuplication("127.0.0.1", false, second);
+    assertTrue(second.hasErrors());
+
+    assertEquals(1, floodProtector.getIpRejected());
+  }
+
+  @Test
+  public void sameUserRejected() {
+    User user = user(1);
+
+    Errors first = errors();
+    floodProtector.checkDuplication("127.0.0.1", user, false, first);
+    assertFalse(first.hasErrors());
+
+    Errors second = errors();
+    floodProtector.checkDuplication("127.0.0.2", user, false, second);
+    assertTrue(second.hasErrors());
+
+    assertEquals(1, floodProtector.getUserRejected());
+  }
+
+  @Test
+  public void burst() {
+    when(configuration.getFloodIpBurst()).thenReturn(2);
+
+    Errors errors = errors();
+    floodProtector.checkDuplication("127.0.0.1", false, errors);
+    floodProtector.checkDuplication("127.0.0.1", false, errors);
+    assertFalse(errors.hasErrors());
+
+    floodProtector.checkDuplication("127.0.0.1", false, errors);
+    assertTrue(errors.hasErrors());
+  }
+
+  @Test
+  public void overflow() {
+    Errors errors = errors();
+    floodProtector.checkDuplication("127.0.0.1", false, errors);
+    floodProtector.checkDuplication("127.0.0.2", false, errors);
+    assertFalse(errors.hasErrors());
+
+    floodProtector.checkDuplication("127.0.0.3", false, errors);
+    assertTrue(errors.hasErrors());
+    assertEquals(1, floodProtector.getOverflowRejected());
+    assertEquals(2, floodProtector.getSize());
+  }
+
+  @Test
+  public void trustedNotDelayedByUntrusted() {
+    Errors untrusted = errors();
+    floodProtector.checkDuplication("127.0.0.1", false, untrusted);
+    assertFalse(untrusted.hasErrors());
+
+    Errors trusted = errors();
+    floodProtector.checkDuplication("127.0.0.1", user(1), true, trusted);
+    assertFalse(trusted.hasErrors());
+  }
+
+  @Test
+  public void ipTokenKeptWhenUserRejected() {
+    when(configuration.getFloodIpBurst()).thenReturn(2);
+
+    User user = user(1);
+
+    Errors first = errors();
+    floodProtector.checkDuplication("127.0.0.1", user, false, first);
+    assertFalse(first.hasErrors());
+
+    Errors second = errors();
+    floodProtector.checkDuplication("127.0.0.1", user, false, second);
+    assertTrue(second.hasErrors());
+
+    /* отклоненное сообщение не расходует токен адреса */
+    Errors anonymous = errors();
+    floodProtector.checkDuplication("127.0.0.1", false, anonymous);
+    assertFalse(anonymous.hasErrors());
+
+    assertEquals(0, floodProtector.getIpRejected());
+    assertEquals(1, floodProtector.getUserRejected());
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.auth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class IPBlockTableTest {
+  private static IPBlockInfo block(String ip) {
+    return new IPBlockInfo(ip);
+  }
+
+  @Test
+  public void testExact() {
+    IPBlockInfo info = block("192.168.1.1");
+    IPBlockTable table = IPBlockTable.EMPTY.with("192.168.1.1", info);
+
+    assertSame(info, table.lookup("192.168.1.1"));
+    assertNull(table.lookup("192.168.1.2"));
+    assertNull(table.lookup("::1"));
+  }
+
+  @Test
+  public void testLongestPrefix() {
+    IPBlockInfo wide = block("10.0.0.0/8");
+    IPBlockInfo narrow = block("10.1.0.0/16");
+    IPBlockInfo host = block("10.1.2.3");
+
+    IPBlockTable table = IPBlockTable.EMPTY
+            .with("10.1.0.0/16", narrow)
+            .with("10.0.0.0/8", wide)
+            .with("10.1.2.3", host);
+
+    assertSame(wide, table.lookup("10.200.0.1"));
+    assertSame(narrow, table.lookup("10.1.200.1"));
+    assertSame(host, table.lookup("10.1.2.3"));
+    assertNull(table.lookup("11.0.0.1"));
+  }
+
+  @Test
+  public void testIPv6() {
+    IPBlockInfo info = block("2001:db8::/32");
+    IPBlockTable table = IPBlockTable.EMPTY.with("2001:db8::/32", info);
+
+    assertSame(info, table.lookup("2001:db8::1"));
+    assertNull(table.lookup("2001:db9::1"));
+    assertNull(table.lookup("32.1.13.184"));
+  }
+
+  @Test
+  public void testOldTableUnchanged() {
+    IPBlockTable first = IPBlockTable.EMPTY.with("10.0.0.0/8", block("10.0.0.0/8"));
+    IPBlockTable second = first.with("10.0.0.1", block("10.0.0.1"));
+
+    assertEquals("10.0.0.0/8", first.lookup("10.0.0.1").getIp());
+    assertEquals("10.0.0.1", second.lookup("10.0.0.1").getIp());
+  }
+
+  @Test
+  public void testBadAddress() {
+    assertNull(IPBlockTable.EMPTY.with("10.0.0.0/8", block("10.0.0.0/8")).lookup("not an address"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBadPrefix() {
+    IPBlockTable.EMPTY.with("10.0.0.0/33", block("10.0.0.0/33"));
+  }
+}
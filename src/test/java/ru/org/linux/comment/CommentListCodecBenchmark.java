@@ -0,0 +1,78 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.comment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ObjectInputStream;
+
+/**
+ * Сравнение размера и скорости CommentListCodec и сериализации Java.
+ * Запускается вручную, в тесты не входит.
+ */
+public class CommentListCodecBenchmark {
+  private static final int ITERATIONS = 2000;
+
+  public static void main(String[] args) throws Exception {
+    for (int size : new int[] { 50, 500, 2000 }) {
+      CommentList commentList = CommentListCodecTest.createCommentList(size);
+
+      byte[] serialized = CommentListCodecTest.serialize(commentList);
+      byte[] encoded = CommentListCodec.encode(commentList);
+
+      /* прогрев */
+      run(commentList, serialized, encoded, ITERATIONS / 4);
+
+      long[] times = run(commentList, serialized, encoded, ITERATIONS);
+
+      System.out.printf(
+              "%5d comments: java %7d bytes, write %6d us, read %6d us | codec %6d bytes, write %6d us, read %6d us%n",
+              size,
+              serialized.length, times[0] / ITERATIONS / 1000, times[1] / ITERATIONS / 1000,
+              encoded.length, times[2] / ITERATIONS / 1000, times[3] / ITERATIONS / 1000
+      );
+    }
+  }
+
+  private static long[] run(CommentList commentList, byte[] serialized, byte[] encoded, int iterations) throws Exception {
+    long[] times = new long[4];
+
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      CommentListCodecTest.serialize(commentList);
+    }
+    times[0] = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      new ObjectInputStream(new ByteArrayInputStream(serialized)).readObject();
+    }
+    times[1] = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      CommentListCodec.encode(commentList);
+    }
+    times[2] = System.nanoTime() - start;
+
+    start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      CommentListCodec.decode(encoded);
+    }
+    times[3] = System.nanoTime() - start;
+
+    return times;
+  }
+}
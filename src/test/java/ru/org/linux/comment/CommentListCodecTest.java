@@ -0,0 +1,133 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.comment;
+
+import org.junit.Test;
+import ru.org.linux.site.DeleteInfo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CommentListCodecTest {
+  static CommentList createCommentList(int size) {
+    List<Comment> comments = new ArrayList<Comment>(size);
+
+    long time = 1340000000000L;
+
+    for (int i = 0; i < size; i++) {
+      int msgid = 1000 + i * 3;
+      int replyto = i == 0 ? 0 : 1000 + (i / 2) * 3;
+
+      Timestamp postdate = new Timestamp(time + i * 60000L);
+      postdate.setNanos(postdate.getNanos() + 123456);
+
+      boolean deleted = i % 7 == 3;
+      DeleteInfo deleteInfo = deleted ? new DeleteInfo("moder", 2, "4.7 Flood", new Timestamp(time + i * 90000L), i % 2 == 0 ? -5 : null) : null;
+
+      boolean edited = i % 5 == 1;
+
+      comments.add(new Comment(
+              msgid,
+              i % 4 == 0 ? "Re: test" : null,
+              10 + i % 13,
+              replyto,
+              77,
+              deleted,
+              postdate,
+              deleteInfo,
+              "Mozilla/5.0 (X11; Linux x86_64; rv:13.0) Gecko/20100101 Firefox/13.0",
+              "192.168.0." + i % 10,
+              edited ? "user" + i % 3 : null,
+              edited ? new Timestamp(time + i * 61000L) : null,
+              edited ? 1 : 0
+      ));
+    }
+
+    return new CommentList(comments, time + size * 60000L);
+  }
+
+  static byte[] serialize(CommentList commentList) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(buffer);
+    out.writeObject(commentList);
+    out.close();
+
+    return buffer.toByteArray();
+  }
+
+  @Test
+  public void testRoundTrip() throws Exception {
+    CommentList original = createCommentList(50);
+
+    CommentList decoded = CommentListCodec.decode(CommentListCodec.encode(original));
+
+    assertEquals(original.getLastmod(), decoded.getLastmod());
+    assertEquals(original.getList().size(), decoded.getList().size());
+
+    for (int i = 0; i < original.getList().size(); i++) {
+      Comment a = original.getList().get(i);
+      Comment b = decoded.getList().get(i);
+
+      assertEquals(a.getMessageId(), b.getMessageId());
+      assertEquals(a.getReplyTo(), b.getReplyTo());
+      assertEquals(a.getTopicId(), b.getTopicId());
+      assertEquals(a.getUserid(), b.getUserid());
+      assertEquals(a.getTitle(), b.getTitle());
+      assertEquals(a.getPostdate(), b.getPostdate());
+      assertEquals(a.isDeleted(), b.isDeleted());
+      assertEquals(a.getUserAgent(), b.getUserAgent());
+      assertEquals(a.getPostIP(), b.getPostIP());
+      assertEquals(a.getEditNick(), b.getEditNick());
+      assertEquals(a.getEditDate(), b.getEditDate());
+      assertEquals(a.getEditCount(), b.getEditCount());
+
+      if (a.getDeleteInfo() == null) {
+        assertNull(b.getDeleteInfo());
+      } else {
+        assertEquals(a.getDeleteInfo().getNick(), b.getDeleteInfo().getNick());
+        assertEquals(a.getDeleteInfo().getUserid(), b.getDeleteInfo().getUserid());
+        assertEquals(a.getDeleteInfo().getReason(), b.getDeleteInfo().getReason());
+        assertEquals(a.getDeleteInfo().getRawBonus(), b.getDeleteInfo().getRawBonus());
+        assertEquals(a.getDeleteInfo().getDelDate(), b.getDeleteInfo().getDelDate());
+      }
+
+      assertEquals(
+              original.getNode(a.getMessageId()).getChilds().size(),
+              decoded.getNode(b.getMessageId()).getChilds().size()
+      );
+    }
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    CommentList decoded = CommentListCodec.decode(CommentListCodec.encode(createCommentList(0)));
+
+    assertTrue(decoded.getList().isEmpty());
+  }
+
+  @Test
+  public void testSmallerThanSerialization() throws Exception {
+    CommentList commentList = createCommentList(500);
+
+    assertTrue(CommentListCodec.encode(commentList).length * 3 < serialize(commentList).length);
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.comment;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+import ru.org.linux.user.User;
+import ru.org.linux.user.UserDao;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CommentListTest {
+  private static final int TOPIC = 77;
+
+  /*
+   * 1 (user 10)
+   *   2 (user 11)
+   *     4 (user 12)
+   *   3 (user 13)
+   * 5 (user 14)
+   *   6 (user 12)
+   * 7 (user 12) - ответ на комментарий, которого нет в списке
+   */
+  private CommentList commentList;
+
+  private static Comment comment(int msgid, int replyto, int userid) {
+    return new Comment(replyto == 0 ? null : replyto, "", TOPIC, msgid, userid, null, "127.0.0.1");
+  }
+
+  private static List<Integer> ids(Collection<?> items) {
+    List<Integer> ids = new ArrayList<Integer>();
+
+    for (Object item : items) {
+      if (item instanceof Comment) {
+        ids.add(((Comment) item).getMessageId());
+      } else {
+        ids.add(((CommentNode) item).getMessageId());
+      }
+    }
+
+    return ids;
+  }
+
+  private static User user(boolean anonymousScore) {
+    User user = mock(User.class);
+    when(user.isAnonymousScore()).thenReturn(anonymousScore);
+    return user;
+  }
+
+  @Before
+  public void setUp() {
+    commentList = new CommentList(ImmutableList.of(
+            comment(1, 0, 10),
+            comment(2, 1, 11),
+            comment(3, 1, 13),
+            comment(4, 2, 12),
+            comment(5, 0, 14),
+            comment(6, 5, 12),
+            comment(7, 99, 12)
+    ), 0);
+  }
+
+  @Test
+  public void testTreeOrder() {
+    assertEquals(ImmutableList.of(1, 5, 7), ids(commentList.getRoot().getChilds()));
+    assertEquals(ImmutableList.of(2, 3), ids(commentList.getNode(1).getChilds()));
+    assertEquals(ImmutableList.of(1, 2, 4, 3), ids(commentList.getSubtree(1)));
+    assertEquals(ImmutableList.of(5, 6), ids(commentList.getSubtree(5)));
+    assertNull(commentList.getSubtree(99));
+
+    assertTrue(commentList.isHaveAnswers(2));
+    assertFalse(commentList.isHaveAnswers(4));
+    assertFalse(commentList.isHaveAnswers(7));
+  }
+
+  @Test
+  public void testListOrderAndPosition() {
+    assertEquals(ImmutableList.of(1, 2, 3, 4, 5, 6, 7), ids(commentList.getList()));
+    assertEquals(3, commentList.getPosition(4));
+    assertEquals(-1, commentList.getPosition(99));
+    assertEquals(7, commentList.getLastMsgid());
+  }
+
+  @Test
+  public void testHideIgnoredHidesReplies() {
+    BitSet hidden = new BitSet();
+
+    commentList.hideIgnored(ImmutableSet.of(11), hidden);
+
+    /* 4 написан не игнорируемым пользователем, но это ответ на скрытый комментарий */
+    assertEquals(ImmutableSet.of(2, 4), commentList.getMessageIds(hidden));
+  }
+
+  @Test
+  public void testHideIgnoredEmpty() {
+    BitSet hidden = new BitSet();
+
+    commentList.hideIgnored(ImmutableSet.<Integer>of(), hidden);
+
+    assertTrue(commentList.getMessageIds(hidden).isEmpty());
+  }
+
+  @Test
+  public void testHideIgnoredLeaves() {
+    BitSet hidden = new BitSet();
+
+    commentList.hideIgnored(ImmutableSet.of(12), hidden);
+
+    assertEquals(ImmutableSet.of(4, 6, 7), commentList.getMessageIds(hidden));
+  }
+
+  @Test
+  public void testHideAnonymous() throws Exception {
+    UserDao userDao = mock(UserDao.class);
+
+    when(userDao.getUsersCachedMap(anyCollectionOf(Integer.class))).thenReturn(ImmutableMap.of(
+            10, user(false),
+            11, user(false),
+            12, user(false),
+            13, user(false),
+            14, user(true)
+    ));
+
+    BitSet hidden = new BitSet();
+
+    commentList.hideAnonymous(userDao, hidden);
+
+    assertEquals(ImmutableSet.of(5, 6), commentList.getMessageIds(hidden));
+  }
+
+  @Test
+  public void testHideAnonymousAndIgnored() throws Exception {
+    UserDao userDao = mock(UserDao.class);
+
+    when(userDao.getUsersCachedMap(anyCollectionOf(Integer.class))).thenReturn(ImmutableMap.of(
+            10, user(false),
+            11, user(true),
+            12, user(false),
+            13, user(false),
+            14, user(false)
+    ));
+
+    BitSet hidden = new BitSet();
+
+    commentList.hideAnonymous(userDao, hidden);
+    commentList.hideIgnored(ImmutableSet.of(13), hidden);
+
+    assertEquals(ImmutableSet.of(2, 3, 4), commentList.getMessageIds(hidden));
+  }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.search;
+
+import org.junit.Test;
+import ru.org.linux.search.SearchViewer.SearchOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SearchResultCacheTest {
+  private static SearchRequest createRequest(String q) {
+    SearchRequest request = new SearchRequest();
+    request.setQ(q);
+    return request;
+  }
+
+  @Test
+  public void testNormalizeQuery() {
+    SearchRequest r1 = createRequest("linux  kernel");
+    SearchRequest r2 = createRequest(" linux kernel ");
+
+    assertEquals(SearchResultCache.getResultKey(r1), SearchResultCache.getResultKey(r2));
+  }
+
+  @Test
+  public void testFacetsIgnorePaging() {
+    SearchRequest r1 = createRequest("linux");
+    SearchRequest r2 = createRequest("linux");
+    r2.setOffset(50);
+    r2.setSort(SearchOrder.DATE);
+
+    assertEquals(SearchResultCache.getFacetsKey(r1), SearchResultCache.getFacetsKey(r2));
+    assertFalse(SearchResultCache.getResultKey(r1).equals(SearchResultCache.getResultKey(r2)));
+  }
+
+  @Test
+  public void testFacetsIgnoreSelectedSection() {
+    SearchRequest r1 = createRequest("linux");
+    r1.setSection("1");
+    SearchRequest r2 = createRequest("linux");
+    r2.setSection("2");
+    r2.setGroup(4068);
+
+    assertEquals(SearchResultCache.getFacetsKey(r1), SearchResultCache.getFacetsKey(r2));
+    assertFalse(SearchResultCache.getResultKey(r1).equals(SearchResultCache.getResultKey(r2)));
+  }
+
+  @Test
+  public void testEmptySection() {
+    SearchRequest r1 = createRequest("linux");
+    SearchRequest r2 = createRequest("linux");
+    r2.setSection("0");
+
+    assertEquals(SearchResultCache.getResultKey(r1), SearchResultCache.getResultKey(r2));
+  }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring.commons;
+
+import com.google.common.base.Function;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.org.linux.spring.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RenderExecutorTest {
+  private static final Function<Integer, String> TO_STRING = new Function<Integer, String>() {
+    @Override
+    public String apply(Integer input) {
+      return Integer.toString(input);
+    }
+  };
+
+  private RenderExecutor renderExecutor;
+
+  @Before
+  public void init() {
+    Configuration configuration = mock(Configuration.class);
+    when(configuration.getRenderThreads()).thenReturn(4);
+    when(configuration.getRenderParallelThreshold()).thenReturn(10);
+    when(configuration.getRenderTimeout()).thenReturn(1000);
+
+    renderExecutor = new RenderExecutor();
+    ReflectionTestUtils.setField(renderExecutor, "configuration", configuration);
+    renderExecutor.init();
+  }
+
+  @After
+  public void stop() {
+    renderExecutor.stop();
+  }
+
+  private static List<Integer> makeInput(int size) {
+    List<Integer> input = new ArrayList<Integer>(size);
+
+    for (int i = 0; i < size; i++) {
+      input.add(i);
+    }
+
+    return input;
+  }
+
+  @Test
+  public void testOrder() {
+    List<String> result = renderExecutor.transform(makeInput(1000), TO_STRING);
+
+    assertEquals(1000, result.size());
+
+    for (int i = 0; i < result.size(); i++) {
+      assertEquals(Integer.toString(i), result.get(i));
+    }
+  }
+
+  @Test
+  public void testSmallList() {
+    List<String> result = renderExecutor.transform(makeInput(3), TO_STRING);
+
+    assertEquals(3, result.size());
+    assertEquals("2", result.get(2));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFailure() {
+    renderExecutor.transform(makeInput(100), new Function<Integer, String>() {
+      @Override
+      public String apply(Integer input) {
+        if (input == 50) {
+          throw new IllegalArgumentException();
+        }
+
+        return Integer.toString(input);
+      }
+    });
+  }
+}
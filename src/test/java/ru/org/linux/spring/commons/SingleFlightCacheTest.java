@@ -0,0 +1,103 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.spring.commons;
+
+import com.google.common.base.Supplier;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class SingleFlightCacheTest {
+  private SingleFlightCache cache;
+
+  @Before
+  public void init() {
+    cache = new SingleFlightCache();
+    ReflectionTestUtils.setField(cache, "cacheProvider", new LocalCacheProvider());
+  }
+
+  @Test
+  public void testCachedValue() {
+    final AtomicInteger loads = new AtomicInteger();
+
+    Supplier<Integer> loader = new Supplier<Integer>() {
+      @Override
+      public Integer get() {
+        return loads.incrementAndGet();
+      }
+    };
+
+    assertEquals(1, (int) cache.get("key", 60000, loader));
+    assertEquals(1, (int) cache.get("key", 60000, loader));
+    assertEquals(1, loads.get());
+  }
+
+  @Test
+  public void testConcurrentLoadRunsOnce() throws Exception {
+    final AtomicInteger loads = new AtomicInteger();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final Supplier<Integer> loader = new Supplier<Integer>() {
+      @Override
+      public Integer get() {
+        loads.incrementAndGet();
+        started.countDown();
+
+        try {
+          release.await();
+        } catch (InterruptedException ex) {
+          throw new IllegalStateException(ex);
+        }
+
+        return 42;
+      }
+    };
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    try {
+      Callable<Integer> call = new Callable<Integer>() {
+        @Override
+        public Integer call() {
+          return cache.get("key", 60000, loader);
+        }
+      };
+
+      Future<Integer> first = executor.submit(call);
+      started.await();
+
+      Future<Integer> second = executor.submit(call);
+      Future<Integer> third = executor.submit(call);
+
+      /* даем остальным потокам дойти до ожидания */
+      Thread.sleep(100);
+      release.countDown();
+
+      assertEquals(42, (int) first.get());
+      assertEquals(42, (int) second.get());
+      assertEquals(42, (int) third.get());
+      assertEquals(1, loads.get());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.topic;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.org.linux.spring.commons.CacheProvider;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TopicFeedVersionsTest {
+  private static final int SECTION = 2;
+  private static final int GROUP = 4068;
+  private static final int OTHER_GROUP = 8404;
+  private static final int TAG = 15;
+  private static final int MSGID = 1000;
+
+  private TopicFeedVersions topicFeedVersions;
+
+  private static class MapCacheProvider implements CacheProvider {
+    private final Map<String, Object> cache = new HashMap<String, Object>();
+
+    @Override
+    public Object getFromCache(String key) {
+      return cache.get(key);
+    }
+
+    @Override
+    public Map<String, Object> getFromCache(Collection<String> keys) {
+      Map<String, Object> found = new HashMap<String, Object>();
+
+      for (String key : keys) {
+        if (cache.containsKey(key)) {
+          found.put(key, cache.get(key));
+        }
+      }
+
+      return found;
+    }
+
+    @Override
+    public <T> void storeToCache(String key, T value, int expire) {
+      cache.put(key, value);
+    }
+
+    @Override
+    public <T> void storeToCache(String key, T value) {
+      cache.put(key, value);
+    }
+
+    @Override
+    public void removeFromCache(String key) {
+      cache.remove(key);
+    }
+  }
+
+  private static TopicListDto group(int group) {
+    TopicListDto dto = new TopicListDto();
+    dto.getSections().add(SECTION);
+    dto.setGroup(group);
+    return dto;
+  }
+
+  private static TopicListDto tag(int tag) {
+    TopicListDto dto = new TopicListDto();
+    dto.setTag(tag);
+    return dto;
+  }
+
+  @Before
+  public void setUp() {
+    TopicTagDao topicTagDao = mock(TopicTagDao.class);
+    when(topicTagDao.getTagIds(MSGID)).thenReturn(ImmutableList.of(TAG));
+
+    topicFeedVersions = new TopicFeedVersions();
+    ReflectionTestUtils.setField(topicFeedVersions, "cacheProvider", new MapCacheProvider());
+    ReflectionTestUtils.setField(topicFeedVersions, "topicTagDao", topicTagDao);
+  }
+
+  @Test
+  public void testVersionIsStable() {
+    String version = topicFeedVersions.getVersion(group(GROUP));
+
+    assertEquals(version, topicFeedVersions.getVersion(group(GROUP)));
+  }
+
+  @Test
+  public void testGroupBump() {
+    String version = topicFeedVersions.getVersion(group(GROUP));
+    String other = topicFeedVersions.getVersion(group(OTHER_GROUP));
+
+    topicFeedVersions.invalidate(topicFeedVersions.getTopicScopes(SECTION, GROUP, MSGID));
+
+    assertFalse(version.equals(topicFeedVersions.getVersion(group(GROUP))));
+    assertEquals(other, topicFeedVersions.getVersion(group(OTHER_GROUP)));
+  }
+
+  @Test
+  public void testTagBump() {
+    String version = topicFeedVersions.getVersion(tag(TAG));
+    String other = topicFeedVersions.getVersion(tag(TAG + 1));
+
+    topicFeedVersions.invalidate(topicFeedVersions.getTopicScopes(SECTION, GROUP, MSGID));
+
+    assertFalse(version.equals(topicFeedVersions.getVersion(tag(TAG))));
+    assertEquals(other, topicFeedVersions.getVersion(tag(TAG + 1)));
+  }
+
+  @Test
+  public void testInvalidateTags() {
+    String version = topicFeedVersions.getVersion(tag(TAG));
+    String other = topicFeedVersions.getVersion(tag(TAG + 1));
+    String groupVersion = topicFeedVersions.getVersion(group(GROUP));
+
+    topicFeedVersions.invalidateTags(TAG);
+
+    assertFalse(version.equals(topicFeedVersions.getVersion(tag(TAG))));
+    assertEquals(other, topicFeedVersions.getVersion(tag(TAG + 1)));
+    assertEquals(groupVersion, topicFeedVersions.getVersion(group(GROUP)));
+  }
+
+  @Test
+  public void testInvalidateAll() {
+    String groupVersion = topicFeedVersions.getVersion(group(OTHER_GROUP));
+    String tagVersion = topicFeedVersions.getVersion(tag(TAG + 1));
+
+    topicFeedVersions.invalidateAll();
+
+    assertFalse(groupVersion.equals(topicFeedVersions.getVersion(group(OTHER_GROUP))));
+    assertFalse(tagVersion.equals(topicFeedVersions.getVersion(tag(TAG + 1))));
+  }
+}
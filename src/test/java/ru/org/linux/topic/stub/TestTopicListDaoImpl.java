@@ -33,6 +33,11 @@ public class TestTopicListDaoImpl implements TopicListDao {
     return new ArrayList<Topic>();
   }
 
+  @Override
+  public List<Topic> getTopicsByIds(List<Integer> ids) {
+    return new ArrayList<Topic>();
+  }
+
   @Override
   public List<TopicListDto.DeletedTopic> getDeletedTopics(Integer sectionId) {
 
@@ -0,0 +1,256 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.tracker;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.jdbc.support.rowset.SqlRowSet;
+import org.springframework.test.util.ReflectionTestUtils;
+import ru.org.linux.tracker.TrackerDao.TrackerRow;
+import ru.org.linux.user.User;
+import ru.org.linux.util.PageCursor;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Первая страница трекера из памяти должна совпадать с выборкой {@link TrackerDao}
+ */
+public class TrackerRingTest {
+  private static final int GROUP_FORUM = 1;
+  private static final int GROUP_NEWS = 2;
+  private static final int GROUP_TALKS = 8404;
+  private static final int GROUP_LINUX_ORG_RU = 4068;
+
+  private static final int SECTION_NEWS = 1;
+  private static final int SECTION_FORUM = 2;
+
+  private static final long MINUTE = 60 * 1000L;
+  private static final long HOUR = 60 * MINUTE;
+
+  private static final Set<Integer> NO_USERS = ImmutableSet.of();
+  private static final Set<String> NO_TAGS = ImmutableSet.of();
+
+  private TrackerDao trackerDao;
+  private TrackerRing trackerRing;
+
+  private long now;
+
+  /* интервал трекера по умолчанию, с запасом на время выполнения теста */
+  private Timestamp dateLimit;
+
+  private static TrackerRow row(
+          int msgid,
+          int author,
+          int groupId,
+          int section,
+          int cid,
+          long lastmod,
+          long postdate,
+          String... tags
+  ) {
+    SqlRowSet rs = mock(SqlRowSet.class);
+
+    when(rs.getInt("author")).thenReturn(author);
+    when(rs.getInt("id")).thenReturn(msgid);
+    when(rs.getTimestamp("lastmod")).thenReturn(new Timestamp(lastmod));
+    when(rs.getInt("gid")).thenReturn(groupId);
+    when(rs.getInt("cid")).thenReturn(cid);
+    when(rs.getInt("section")).thenReturn(section);
+    when(rs.getTimestamp("postdate")).thenReturn(new Timestamp(postdate));
+
+    TrackerRow row = new TrackerRow(rs);
+    row.tags = ImmutableList.copyOf(tags);
+
+    return row;
+  }
+
+  private static List<Integer> ids(List<TrackerRow> rows) {
+    assertNotNull(rows);
+
+    List<Integer> ids = new ArrayList<Integer>(rows.size());
+
+    for (TrackerRow row : rows) {
+      ids.add(row.msgid);
+    }
+
+    return ids;
+  }
+
+  private void load(List<TrackerRow> rows) {
+    when(trackerDao.getRows(
+            eq(TrackerFilterEnum.ALL),
+            any(User.class),
+            any(Timestamp.class),
+            eq(TrackerRing.CAPACITY),
+            eq(0),
+            any(PageCursor.class)
+    )).thenReturn(rows);
+
+    trackerRing.refresh();
+  }
+
+  @Before
+  public void setUp() {
+    trackerDao = mock(TrackerDao.class);
+    trackerRing = new TrackerRing();
+    ReflectionTestUtils.setField(trackerRing, "trackerDao", trackerDao);
+
+    now = System.currentTimeMillis();
+    dateLimit = new Timestamp(now - 23 * HOUR);
+
+    /* строки в порядке выборки трекера: lastmod DESC, id DESC */
+    load(ImmutableList.of(
+            row(101, 10, GROUP_FORUM, SECTION_FORUM, 5001, now - MINUTE, now - MINUTE, "linux"),
+            row(102, 11, GROUP_TALKS, SECTION_FORUM, 5002, now - 2 * MINUTE, now - 2 * MINUTE),
+            row(103, 12, GROUP_LINUX_ORG_RU, SECTION_FORUM, 5003, now - 3 * MINUTE, now - 3 * MINUTE),
+            row(104, 13, GROUP_NEWS, SECTION_NEWS, 0, now - 4 * MINUTE, now - 4 * MINUTE, "games"),
+            /* правка wiki */
+            row(0, 0, 0, 0, 0, now - 5 * MINUTE, now - 5 * MINUTE),
+            row(106, 10, GROUP_FORUM, SECTION_FORUM, 0, now - 6 * MINUTE, now - 6 * MINUTE),
+            /* тема без комментариев отбирается по postdate, а не по lastmod */
+            row(108, 15, GROUP_FORUM, SECTION_FORUM, 0, now - 7 * MINUTE, now - 23 * HOUR - 30 * MINUTE),
+            /* тема с комментариями отбирается по lastmod */
+            row(107, 14, GROUP_FORUM, SECTION_FORUM, 5007, now - 23 * HOUR - 30 * MINUTE, now - 8 * MINUTE)
+    ));
+  }
+
+  @Test
+  public void testAll() {
+    assertEquals(
+            ImmutableList.of(101, 102, 103, 104, 0, 106),
+            ids(trackerRing.getFirstPage(TrackerFilterEnum.ALL, dateLimit, 30, NO_USERS, NO_TAGS))
+    );
+  }
+
+  @Test
+  public void testDateLimit() {
+    Timestamp interval = new Timestamp(now - 24 * HOUR + MINUTE);
+
+    assertEquals(
+            ImmutableList.of(101, 102, 103, 104, 0, 106, 108, 107),
+            ids(trackerRing.getFirstPage(TrackerFilterEnum.ALL, interval, 30, NO_USERS, NO_TAGS))
+    );
+
+    Timestamp recent = new Timestamp(now - 3 * MINUTE - MINUTE / 2);
+
+    assertEquals(
+            ImmutableList.of(101, 102, 103),
+            ids(trackerRing.getFirstPage(TrackerFilterEnum.ALL, recent, 30, NO_USERS, NO_TAGS))
+    );
+  }
+
+  @Test
+  public void testNoTalks() {
+    assertEquals(
+            ImmutableList.of(101, 103, 104, 0, 106),
+            ids(trackerRing.getFirstPage(TrackerFilterEnum.NOTALKS, dateLimit, 30, NO_USERS, NO_TAGS))
+    );
+  }
+
+  @Test
+  public void testTech() {
+    assertEquals(
+            ImmutableList.of(101, 0, 106),
+            ids(trackerRing.getFirstPage(TrackerFilterEnum.TECH, dateLimit, 30, NO_USERS, NO_TAGS))
+    );
+  }
+
+  @Test
+  public void testZero() {
+    /* в выборке без ответов нет правок wiki */
+    assertEquals(
+            ImmutableList.of(104, 106),
+            ids(trackerRing.getFirstPage(TrackerFilterEnum.ZERO, dateLimit, 30, NO_USERS, NO_TAGS))
+    );
+  }
+
+  @Test
+  public void testMineFromDatabase() {
+    assertNull(trackerRing.getFirstPage(TrackerFilterEnum.MINE, dateLimit, 30, NO_USERS, NO_TAGS));
+  }
+
+  @Test
+  public void testIgnoredUsers() {
+    assertEquals(
+            ImmutableList.of(102, 103, 104, 0),
+            ids(trackerRing.getFirstPage(TrackerFilterEnum.ALL, dateLimit, 30, ImmutableSet.of(10), NO_TAGS))
+    );
+
+    assertEquals(
+            ImmutableList.of(106),
+            ids(trackerRing.getFirstPage(TrackerFilterEnum.ZERO, dateLimit, 30, ImmutableSet.of(13), NO_TAGS))
+    );
+  }
+
+  @Test
+  public void testIgnoredTags() {
+    assertEquals(
+            ImmutableList.of(102, 103, 0, 106),
+            ids(trackerRing.getFirstPage(TrackerFilterEnum.ALL, dateLimit, 30, NO_USERS, ImmutableSet.of("linux", "games")))
+    );
+
+    assertEquals(
+            ImmutableList.of(0, 106),
+            ids(trackerRing.getFirstPage(TrackerFilterEnum.TECH, dateLimit, 30, NO_USERS, ImmutableSet.of("linux")))
+    );
+  }
+
+  @Test
+  public void testPageSize() {
+    assertEquals(
+            ImmutableList.of(101, 102),
+            ids(trackerRing.getFirstPage(TrackerFilterEnum.ALL, dateLimit, 2, NO_USERS, NO_TAGS))
+    );
+  }
+
+  @Test
+  public void testIncompleteSnapshot() {
+    List<TrackerRow> rows = new ArrayList<TrackerRow>(TrackerRing.CAPACITY);
+
+    for (int i = 0; i < TrackerRing.CAPACITY; i++) {
+      rows.add(row(1000 - i, 11, GROUP_TALKS, SECTION_FORUM, 5000 + i, now - i * 1000L, now - i * 1000L));
+    }
+
+    load(rows);
+
+    /* в памяти нет ни одной подходящей темы, но в БД они могут быть */
+    assertNull(trackerRing.getFirstPage(TrackerFilterEnum.NOTALKS, dateLimit, 30, NO_USERS, NO_TAGS));
+
+    assertEquals(30, ids(trackerRing.getFirstPage(TrackerFilterEnum.ALL, dateLimit, 30, NO_USERS, NO_TAGS)).size());
+  }
+
+  @Test
+  public void testIntervalBeforeSnapshot() {
+    Timestamp interval = new Timestamp(now - 48 * HOUR);
+
+    assertNull(trackerRing.getFirstPage(TrackerFilterEnum.ALL, interval, 30, NO_USERS, NO_TAGS));
+  }
+
+  @Test
+  public void testNoSnapshot() {
+    assertNull(new TrackerRing().getFirstPage(TrackerFilterEnum.ALL, dateLimit, 30, NO_USERS, NO_TAGS));
+  }
+}
@@ -15,10 +15,14 @@
 
 package ru.org.linux.user;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import org.junit.Test;
+import ru.org.linux.util.ProfileHashtable;
 
 import static org.junit.Assert.*;
 
@@ -31,32 +35,35 @@ public class ProfileTest {
   }
 
   @Test
-  public void testDefaultProfileSave() throws Exception {
+  public void testModification() {
     Profile profile = new Profile();
-    ByteArrayOutputStream os = new ByteArrayOutputStream();
 
-    profile.write(os);
+    assertNotSame(125, profile.getProperties().getMessages());
+
+    profile.getProperties().setMessages(125);
+
+    Map<String, Object> settings = ProfileDao.filterSettings(profile.getProperties().getHashtable().getSettings());
 
-    Profile profile1 = new Profile(new ByteArrayInputStream(os.toByteArray()));
+    Profile profile1 = new Profile(new ProfileProperties(new ProfileHashtable(Profile.getDefaults(), settings)), false);
 
     assertFalse(profile1.isDefault());
+    assertEquals(125, profile1.getProperties().getMessages());
   }
 
   @Test
-  public void testModification() throws Exception {
-    Profile profile = new Profile();
+  public void testFilterSettings() {
+    Map<String, Object> settings = new HashMap<String, Object>();
 
-    assertNotSame(125, profile.getProperties().getMessages());
+    settings.put(ProfileProperties.MESSAGES_PROPERTY, "50");
+    settings.put(ProfileProperties.HOVER_PROPERTY, true);
+    settings.put(ProfileProperties.BOXES_MAIN2_PROPERTY, Arrays.asList("poll", 1, "a,b"));
+    settings.put("unknown", 1);
 
-    profile.getProperties().setMessages(125);
-
-    ByteArrayOutputStream os = new ByteArrayOutputStream();
-
-    profile.write(os);
+    Map<String, Object> filtered = ProfileDao.filterSettings(settings);
 
-    Profile profile1 = new Profile(new ByteArrayInputStream(os.toByteArray()));
-
-    assertEquals(125, profile1.getProperties().getMessages());
+    assertEquals(ImmutableMap.<String, Object>of(
+            ProfileProperties.HOVER_PROPERTY, true,
+            ProfileProperties.BOXES_MAIN2_PROPERTY, ImmutableList.of("poll")
+    ), filtered);
   }
-
 }
@@ -0,0 +1,114 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.util;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Сравнение скорости ImageResizer и прежнего уменьшения через /usr/bin/convert
+ * (как делал ImageInfo.resizeImage: по запуску convert на каждый размер).
+ * Запускается вручную, в тесты не входит; аргумент - путь к изображению,
+ * без него используется сгенерированное изображение 3000x2000.
+ */
+public class ImageResizerBenchmark {
+  private static final int ITERATIONS = 20;
+  private static final String CONVERT = "/usr/bin/convert";
+
+  /* размеры из Screenshot: средний и иконка */
+  private static final int[] WIDTHS = { 500, 200 };
+
+  public static void main(String[] args) throws Exception {
+    File source;
+
+    if (args.length > 0) {
+      source = new File(args[0]);
+    } else {
+      source = File.createTempFile("benchmark-", ".png");
+      source.deleteOnExit();
+      ImageIO.write(createImage(3000, 2000), "png", source);
+    }
+
+    File[] targets = new File[WIDTHS.length];
+
+    for (int i = 0; i < targets.length; i++) {
+      targets[i] = File.createTempFile("benchmark-", ".jpg");
+      targets[i].deleteOnExit();
+    }
+
+    /* прогрев */
+    runResizer(source, targets, ITERATIONS / 4);
+
+    System.out.printf("ImageResizer: %6d ms per image%n", runResizer(source, targets, ITERATIONS) / ITERATIONS / 1000000);
+
+    if (new File(CONVERT).canExecute()) {
+      System.out.printf("convert:      %6d ms per image%n", runConvert(source, targets, ITERATIONS) / ITERATIONS / 1000000);
+    } else {
+      System.out.println(CONVERT + " not found, skipping");
+    }
+  }
+
+  private static BufferedImage createImage(int width, int height) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+    for (int x = 0; x < width; x++) {
+      for (int y = 0; y < height; y++) {
+        image.setRGB(x, y, (x * 255 / width) << 16 | ((x ^ y) & 0xff) << 8 | (y * 255 / height));
+      }
+    }
+
+    return image;
+  }
+
+  private static long runResizer(File source, File[] targets, int iterations) throws Exception {
+    long start = System.nanoTime();
+
+    for (int i = 0; i < iterations; i++) {
+      ImageResizer.resize(source, targets, WIDTHS);
+    }
+
+    return System.nanoTime() - start;
+  }
+
+  private static long runConvert(File source, File[] targets, int iterations) throws Exception {
+    long start = System.nanoTime();
+
+    for (int i = 0; i < iterations; i++) {
+      for (int j = 0; j < targets.length; j++) {
+        convert(source, targets[j], WIDTHS[j]);
+      }
+    }
+
+    return System.nanoTime() - start;
+  }
+
+  private static void convert(File source, File target, int size) throws IOException, InterruptedException {
+    String[] cmd = {
+      CONVERT,
+      "-scale",
+      Integer.toString(size),
+      source.getPath(),
+      target.getPath() };
+
+    Process proc = Runtime.getRuntime().exec(cmd);
+
+    if (proc.waitFor() != 0) {
+      throw new IOException("convert failed");
+    }
+  }
+}
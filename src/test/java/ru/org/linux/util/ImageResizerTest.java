@@ -0,0 +1,141 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+public class ImageResizerTest {
+  private File source;
+  private File medium;
+  private File icon;
+
+  @Before
+  public void init() throws Exception {
+    source = File.createTempFile("resize-", ".png");
+    medium = File.createTempFile("resize-", "-med.jpg");
+    icon = File.createTempFile("resize-", "-icon.jpg");
+
+    BufferedImage image = new BufferedImage(1600, 1200, BufferedImage.TYPE_INT_ARGB);
+
+    for (int x = 0; x < image.getWidth(); x++) {
+      for (int y = 0; y < image.getHeight(); y++) {
+        image.setRGB(x, y, 0xff000000 | (x * 255 / image.getWidth()) << 16 | (y * 255 / image.getHeight()));
+      }
+    }
+
+    ImageIO.write(image, "png", source);
+  }
+
+  @After
+  public void cleanup() {
+    source.delete();
+    medium.delete();
+    icon.delete();
+  }
+
+  @Test
+  public void testResize() throws Exception {
+    ImageResizer.resize(source, new File[] { icon, medium }, new int[] { 200, 500 });
+
+    ImageInfo mediumInfo = new ImageInfo(medium, "jpg");
+    assertEquals(500, mediumInfo.getWidth());
+    assertEquals(375, mediumInfo.getHeight());
+
+    ImageInfo iconInfo = new ImageInfo(icon, "jpg");
+    assertEquals(200, iconInfo.getWidth());
+    assertEquals(150, iconInfo.getHeight());
+  }
+
+  @Test
+  public void testNoUpscale() throws Exception {
+    ImageResizer.resize(source, new File[] { medium }, new int[] { 2000 });
+
+    ImageInfo mediumInfo = new ImageInfo(medium, "jpg");
+    assertEquals(1600, mediumInfo.getWidth());
+    assertEquals(1200, mediumInfo.getHeight());
+  }
+
+  @Test(expected = BadImageException.class)
+  public void testBadImage() throws Exception {
+    ImageResizer.resize(medium, new File[] { icon }, new int[] { 200 });
+  }
+
+  @Test
+  public void testCmykJpeg() throws Exception {
+    File cmyk = File.createTempFile("resize-", "-cmyk.jpg");
+
+    try {
+      WritableRaster raster = Raster.createBandedRaster(DataBuffer.TYPE_BYTE, 400, 300, 4, null);
+
+      for (int x = 0; x < raster.getWidth(); x++) {
+        for (int y = 0; y < raster.getHeight(); y++) {
+          raster.setPixel(x, y, new int[] { x * 255 / raster.getWidth(), y * 255 / raster.getHeight(), 0, 32 });
+        }
+      }
+
+      ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+      ImageOutputStream output = ImageIO.createImageOutputStream(cmyk);
+
+      try {
+        writer.setOutput(output);
+        writer.write(null, new IIOImage(raster, null, null), null);
+      } finally {
+        output.close();
+        writer.dispose();
+      }
+
+      ImageResizer.resize(cmyk, new File[] { icon }, new int[] { 200 });
+
+      ImageInfo iconInfo = new ImageInfo(icon, "jpg");
+      assertEquals(200, iconInfo.getWidth());
+      assertEquals(150, iconInfo.getHeight());
+    } finally {
+      cmyk.delete();
+    }
+  }
+
+  @Test(expected = BadImageException.class)
+  public void testTruncatedJpeg() throws Exception {
+    ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(400, 300, BufferedImage.TYPE_INT_RGB), "jpeg", jpeg);
+
+    FileOutputStream output = new FileOutputStream(medium);
+
+    try {
+      output.write(jpeg.toByteArray(), 0, 200);
+    } finally {
+      output.close();
+    }
+
+    ImageResizer.resize(medium, new File[] { icon }, new int[] { 200 });
+  }
+}
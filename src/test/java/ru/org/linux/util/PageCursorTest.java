@@ -0,0 +1,73 @@
+/*
+ * Copyright 1998-2012 Linux.org.ru
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package ru.org.linux.util;
+
+import org.junit.Test;
+
+import java.sql.Timestamp;
+
+import static org.junit.Assert.*;
+
+public class PageCursorTest {
+  @Test
+  public void testRoundTrip() {
+    Timestamp date = new Timestamp(1354000000123L);
+    date.setNanos(123456000);
+
+    PageCursor cursor = new PageCursor(date, 42);
+
+    String value = cursor.toString();
+
+    assertEquals("1354000000123456-42", value);
+
+    PageCursor parsed = PageCursor.parse(value);
+
+    assertNotNull(parsed);
+    assertEquals(cursor, parsed);
+    assertEquals(date, parsed.getDate());
+    assertEquals(42, parsed.getId());
+    assertEquals(value, parsed.toString());
+  }
+
+  @Test
+  public void testRoundTripWholeSecond() {
+    PageCursor cursor = new PageCursor(new Timestamp(1354000000000L), 0);
+
+    assertEquals(cursor, PageCursor.parse(cursor.toString()));
+  }
+
+  @Test
+  public void testEmpty() {
+    assertNull(PageCursor.parse(null));
+    assertNull(PageCursor.parse(""));
+  }
+
+  @Test
+  public void testGarbage() {
+    assertNull(PageCursor.parse("abc"));
+    assertNull(PageCursor.parse("abc-def"));
+    assertNull(PageCursor.parse("1354000000123456"));
+    assertNull(PageCursor.parse("1354000000123456-"));
+    assertNull(PageCursor.parse("1354000000123456-42-1"));
+    assertNull(PageCursor.parse("1354000000123456-99999999999"));
+  }
+
+  @Test
+  public void testNegative() {
+    assertNull(PageCursor.parse("-1354000000123456-42"));
+    assertNull(PageCursor.parse("1354000000123456--42"));
+  }
+}